@@ -0,0 +1,290 @@
+package consistency.base;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Vector;
+
+import ensdfparser.calc.DataPoint;
+
+/*
+ * bounded LRU cache of averaging results, keyed by a canonical hash of the input data points
+ * (values, uncertainties and limits, labels, units), record name, ENSDF line prefix, weight limit
+ * and average option, plus the settings in CheckControl that change the reports
+ *
+ * The same cache is shared by batch runs (ConsistencyCheck) and the GUI, so that the same
+ * set of data points is averaged only once. Rendered reports can also be saved in a file
+ * (CheckControl.averageCacheFile) and loaded in the next session, for callers which only
+ * need the report text (see getReport()).
+ *
+ * cache size is set by CheckControl.averageCacheSize (<=0 to disable the cache)
+ *
+ * A cached AverageReport is shared by all threads asking for the same average. Its results
+ * are not changed after construction and its text is rendered on first access under its own
+ * lock (see AverageReport.getReport()), so callers must only read it.
+ */
+public class AverageCache {
+
+	private static final int cacheFormatVersion=2;
+
+	private static AverageCache shared=null;
+
+	private int maxSize=2000;
+	private String filename="";
+	private boolean isModified=false;
+
+	/*
+	 * average of a key, made once by the first thread asking for it, while other threads
+	 * asking for the same key wait for it and threads for other keys are not blocked
+	 */
+	private static class Entry{
+		private Vector<DataPoint> dpsV;
+		private final String recordName,prefix,avgOption;
+		private final double weightLimit;
+		private AverageReport ar=null;
+
+		Entry(Vector<DataPoint> dpsV,String recordName,String prefix,double weightLimit,String avgOption){
+			this.dpsV=dpsV;
+			this.recordName=recordName;
+			this.prefix=prefix;
+			this.weightLimit=weightLimit;
+			this.avgOption=avgOption;
+		}
+
+		synchronized AverageReport get(){
+			if(ar==null){
+				ar=new AverageReport(dpsV,recordName,prefix,weightLimit,avgOption);
+				dpsV=null;
+			}
+
+			return ar;
+		}
+	}
+
+	private LinkedHashMap<String,Entry> reportMap;
+	private LinkedHashMap<String,String> reportTextMap;//rendered reports, saved to file
+
+	private long nHits=0,nMisses=0;
+
+	public AverageCache(int maxSize){
+		this.maxSize=maxSize;
+
+		reportMap=new LinkedHashMap<String,Entry>(16,0.75f,true){
+			private static final long serialVersionUID=1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String,Entry> eldest){
+				return size()>AverageCache.this.maxSize;
+			}
+		};
+
+		reportTextMap=new LinkedHashMap<String,String>(16,0.75f,true){
+			private static final long serialVersionUID=1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String,String> eldest){
+				return size()>AverageCache.this.maxSize;
+			}
+		};
+	}
+
+	/*
+	 * cache shared by all averaging in this session, loaded from CheckControl.averageCacheFile
+	 * if it is set
+	 */
+	public static synchronized AverageCache shared(){
+		if(shared==null){
+			shared=new AverageCache(CheckControl.averageCacheSize);
+			if(!CheckControl.averageCacheFile.isEmpty())
+				shared.load(CheckControl.averageCacheFile);
+		}
+
+		return shared;
+	}
+
+	public static boolean isEnabled(){return CheckControl.averageCacheSize>0;}
+
+	/*
+	 * canonical key of an average, "" if data points are not available
+	 */
+	public static String makeKey(Vector<DataPoint> dpsV,String recordName,String prefix,double weightLimit,String avgOption){
+		if(dpsV==null)
+			return "";
+
+		StringBuilder sb=new StringBuilder();
+		sb.append(recordName).append('|').append(prefix).append('|').append(weightLimit).append('|').append(avgOption);
+
+		//settings used in making reports and adopted values
+		sb.append('|').append(CheckControl.errorLimit).append('|').append(CheckControl.forceAverageAll)
+		  .append('|').append(CheckControl.createCombinedDataset).append('|').append(CheckControl.convertRIForAdopted)
+		  .append('|').append(CheckControl.groupLabelPrefix).append('|').append(CheckControl.groupLabelPosfix);
+
+		for(DataPoint dp:dpsV){
+			sb.append('\n').append(dp.x()).append('|').append(dp.dxu()).append('|').append(dp.dxl()).append('|').append(dp.s()).append('|').append(dp.ds())
+			  .append('|').append(dp.label()).append('|').append(dp.label2()).append('|').append(dp.unit());
+		}
+
+		try{
+			MessageDigest md=MessageDigest.getInstance("SHA-1");
+			byte[] bytes=md.digest(sb.toString().getBytes(StandardCharsets.UTF_8));
+
+			StringBuilder hex=new StringBuilder();
+			for(byte b:bytes)
+				hex.append(String.format("%02x", b));
+
+			return hex.toString();
+		}catch(Exception e){
+			return sb.toString();
+		}
+	}
+
+	/*
+	 * return the cached average of the data points or make it
+	 */
+	public AverageReport getAverageReport(Vector<DataPoint> dpsV,String recordName,String prefix,double weightLimit,String avgOption){
+		if(maxSize<=0)
+			return new AverageReport(dpsV,recordName,prefix,weightLimit,avgOption);
+
+		String key=makeKey(dpsV,recordName,prefix,weightLimit,avgOption);
+
+		//average is made outside of the lock of cache, so that different averages can be made in parallel
+		return getEntry(key,dpsV,recordName,prefix,weightLimit,avgOption).get();
+	}
+
+	/*
+	 * rendered report of the average of the data points, which could be from the file of last session
+	 */
+	public String getReport(Vector<DataPoint> dpsV,String recordName,String prefix,double weightLimit,String avgOption){
+		if(maxSize<=0)
+			return new AverageReport(dpsV,recordName,prefix,weightLimit,avgOption).getReport();
+
+		String key=makeKey(dpsV,recordName,prefix,weightLimit,avgOption);
+		String text=null;
+		synchronized(this){
+			text=reportTextMap.get(key);
+			if(text!=null){
+				nHits++;
+				return text;
+			}
+		}
+
+		text=getEntry(key,dpsV,recordName,prefix,weightLimit,avgOption).get().getReport();
+		synchronized(this){
+			if(!reportTextMap.containsKey(key)){
+				reportTextMap.put(key, text);
+				isModified=true;
+			}
+		}
+
+		return text;
+	}
+
+	//look up and insert in one step, so that each average is made only once
+	private synchronized Entry getEntry(String key,Vector<DataPoint> dpsV,String recordName,String prefix,double weightLimit,String avgOption){
+		Entry entry=reportMap.get(key);
+		if(entry!=null){
+			nHits++;
+			return entry;
+		}
+
+		nMisses++;
+		entry=new Entry(dpsV,recordName,prefix,weightLimit,avgOption);
+		reportMap.put(key, entry);
+
+		return entry;
+	}
+
+	public synchronized void clear(){
+		reportMap.clear();
+		reportTextMap.clear();
+		isModified=true;
+	}
+
+	public synchronized int size(){return reportMap.size();}
+
+	public synchronized String getStatistics(){
+		return "averaging cache: hits="+nHits+", misses="+nMisses+", cached averages="+reportMap.size()+", cached reports="+reportTextMap.size();
+	}
+
+	/*
+	 * load rendered reports saved in last session
+	 */
+	public synchronized void load(String filename){
+		this.filename=filename;
+
+		File f=new File(filename);
+		if(!f.exists())
+			return;
+
+		DataInputStream in=null;
+		try{
+			in=new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+			if(in.readInt()!=cacheFormatVersion || !in.readUTF().equals(CheckControl.version))
+				return;//discard cache from a different version of program
+
+			int n=in.readInt();
+			for(int i=0;i<n;i++){
+				String key=in.readUTF();
+				byte[] bytes=new byte[in.readInt()];
+				in.readFully(bytes);
+
+				reportTextMap.put(key, new String(bytes,StandardCharsets.UTF_8));
+			}
+		}catch(Exception e){
+			reportTextMap.clear();
+		}
+
+		try{
+			if(in!=null)
+				in.close();
+		}catch(Exception e){}
+	}
+
+	/*
+	 * save rendered reports to the file set in load() or CheckControl.averageCacheFile
+	 */
+	public synchronized void save(){
+		if(filename.isEmpty())
+			filename=CheckControl.averageCacheFile;
+
+		if(filename.isEmpty() || !isModified)
+			return;
+
+		DataOutputStream out=null;
+		File tmp=new File(filename+".tmp");
+		try{
+			out=new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			out.writeInt(cacheFormatVersion);
+			out.writeUTF(CheckControl.version);
+
+			out.writeInt(reportTextMap.size());
+			for(String key:reportTextMap.keySet()){
+				byte[] bytes=reportTextMap.get(key).getBytes(StandardCharsets.UTF_8);
+				out.writeUTF(key);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			}
+
+			out.close();
+			out=null;
+
+			Util.replaceFile(tmp, new File(filename));
+			isModified=false;
+		}catch(Exception e){
+			e.printStackTrace();
+		}
+
+		try{
+			if(out!=null)
+				out.close();
+		}catch(Exception e){}
+	}
+}
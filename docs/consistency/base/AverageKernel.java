@@ -0,0 +1,144 @@
+package consistency.base;
+
+/*
+ * weighted average, internal and external uncertainties, reduced chi**2 and weight-limit
+ * selection of data points with symmetric uncertainties, on primitive arrays
+ *
+ * Loops are plain indexed loops over double[] without objects or boxing in between, so
+ * that they can be unrolled and vectorized by the JIT compiler. Reports are made from
+ * Average, which is the reference of results here; the kernel is only checked against it
+ * for now (see getKernelAverage() in AverageReport and testKernel() in AverageTest).
+ */
+public class AverageKernel {
+
+	public static class Result{
+		public int n=0;//number of data points averaged
+		public double value=Double.NaN;
+		public double intError=Double.NaN;//internal uncertainty
+		public double extError=Double.NaN;//external uncertainty
+		public double chi2=Double.NaN;//reduced chi**2, chi**2/(n-1)
+	}
+
+	private AverageKernel(){}
+
+	//w=1/dx**2 of the first n data points
+	public static double[] weights(double[] dx,int n){
+		double[] w=new double[n];
+		for(int i=0;i<n;i++)
+			w[i]=1.0/(dx[i]*dx[i]);
+
+		return w;
+	}
+
+	/*
+	 * weighted average of data points with weights w (1/dx**2) and selected[i]=true
+	 * (all if selected=null)
+	 */
+	public static Result weightedAverage(double[] x,double[] w,boolean[] selected){
+		int n=x.length;
+		Result r=new Result();
+
+		double sw=0,swx=0;
+		int m=0;
+		if(selected==null){
+			for(int i=0;i<n;i++){
+				sw+=w[i];
+				swx+=w[i]*x[i];
+			}
+			m=n;
+		}else{
+			for(int i=0;i<n;i++){
+				double wi=selected[i]?w[i]:0;
+				sw+=wi;
+				swx+=wi*x[i];
+				if(selected[i])
+					m++;
+			}
+		}
+
+		r.n=m;
+		if(m==0 || sw<=0)
+			return r;
+
+		double mean=swx/sw;
+
+		double chi2=0;
+		for(int i=0;i<n;i++){
+			double d=x[i]-mean;
+			double wi=(selected==null||selected[i])?w[i]:0;
+			chi2+=wi*d*d;
+		}
+
+		r.value=mean;
+		r.intError=Math.sqrt(1.0/sw);
+		r.chi2=(m>1)?chi2/(m-1):0;
+		r.extError=r.intError*Math.sqrt(r.chi2);
+
+		return r;
+	}
+
+	//unweighted average and standard deviation of the mean
+	public static Result unweightedAverage(double[] x){
+		int n=x.length;
+		Result r=new Result();
+		r.n=n;
+		if(n==0)
+			return r;
+
+		double sum=0;
+		for(int i=0;i<n;i++)
+			sum+=x[i];
+
+		double mean=sum/n;
+
+		double s2=0;
+		for(int i=0;i<n;i++){
+			double d=x[i]-mean;
+			s2+=d*d;
+		}
+
+		r.value=mean;
+		r.intError=(n>1)?Math.sqrt(s2/(n-1)/n):0;
+		r.extError=r.intError;
+		r.chi2=(n>1)?s2/(n-1):0;
+
+		return r;
+	}
+
+	/*
+	 * mark data points with relative weight w[i]/sum(w)>=weightLimit as selected
+	 * return number of selected data points
+	 */
+	public static int selectByWeightLimit(double[] w,double weightLimit,boolean[] selected){
+		int n=w.length;
+
+		double sw=0;
+		for(int i=0;i<n;i++)
+			sw+=w[i];
+
+		double minWeight=weightLimit*sw;
+		int m=0;
+		for(int i=0;i<n;i++){
+			selected[i]=(w[i]>=minWeight);
+			if(selected[i])
+				m++;
+		}
+
+		return m;
+	}
+
+	/*
+	 * weighted average of data points with relative weights not less than weightLimit,
+	 * or of all data points if no more than one is above the limit
+	 */
+	public static Result weightedAverage(double[] x,double[] dx,double weightLimit){
+		double[] w=weights(dx,x.length);
+		boolean[] selected=new boolean[x.length];
+
+		int m=selectByWeightLimit(w,weightLimit,selected);
+		if(m<=1)
+			return weightedAverage(x,w,null);
+
+		return weightedAverage(x,w,selected);
+	}
+}
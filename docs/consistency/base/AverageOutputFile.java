@@ -0,0 +1,219 @@
+package consistency.base;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Vector;
+
+/*
+ * .avg output file (see writeAverageReport() in ConsistencyCheck) held as blocks of level and
+ * gamma results in memory, with an index: block ID (the "ID#=" in the title line of a block,
+ * see findRecordGroupID()) -> block, so that results of a block updated from GUI are written
+ * from the blocks in memory, without reading and splitting all lines of the file again.
+ *
+ * The file is read once and kept for next updates as long as it is not changed by others
+ * (checked by file length and last-modified time). A block is overwritten in place if its
+ * new size is the same; otherwise, it and the blocks after it are written from memory. The
+ * format of the file is the same as written by writeAverageReport().
+ *
+ * Files are dropped by clear() when a run is finished (see checkMassChain() in Run).
+ */
+public class AverageOutputFile {
+
+	private static HashMap<String,AverageOutputFile> fileMap=new HashMap<String,AverageOutputFile>();
+
+	private File file;
+	private long fileLength=-1,lastModified=-1;//when read or last written
+
+	private Vector<String> blocksV=new Vector<String>();//text of each block, in order in file
+	private Vector<Long> offsetsV=new Vector<Long>();//start of each block in file
+	private HashMap<String,Integer> idIndexMap=new HashMap<String,Integer>();//block ID -> index in blocksV
+
+	private AverageOutputFile(File file){
+		this.file=file;
+	}
+
+	/*
+	 * .avg file of the given path, read again if the file has been changed since
+	 */
+	public static synchronized AverageOutputFile of(String path) throws IOException{
+		File f=new File(path).getAbsoluteFile();
+		String key=f.getPath();
+
+		AverageOutputFile avgFile=fileMap.get(key);
+		if(avgFile==null){
+			avgFile=new AverageOutputFile(f);
+			fileMap.put(key, avgFile);
+		}
+
+		avgFile.checkIndex();
+
+		return avgFile;
+	}
+
+	//drop a file being written again
+	public static synchronized void invalidate(String path){
+		fileMap.remove(new File(path).getAbsoluteFile().getPath());
+	}
+
+	//drop all files, when a run is finished
+	public static synchronized void clear(){
+		fileMap.clear();
+	}
+
+	//title line in .avg file for a block of a level or gamma results
+	static boolean isBlockTitle(String line){
+		return line.contains("**************") && line.contains("=");
+	}
+
+	static String blockIDOf(String titleLine){
+		try{
+			return titleLine.substring(titleLine.indexOf("ID#=")).substring(4).trim();
+		}catch(Exception e){}
+
+		return "";
+	}
+
+	private synchronized void checkIndex() throws IOException{
+		if(file.length()==fileLength && file.lastModified()==lastModified)
+			return;
+
+		blocksV.clear();
+		offsetsV.clear();
+		idIndexMap.clear();
+
+		//one byte per char, so that offsets in text are offsets in file
+		String text=new String(Files.readAllBytes(file.toPath()),StandardCharsets.ISO_8859_1);
+
+		int pos=0,blockStart=-1;
+		while(pos<text.length()){
+			int next=text.indexOf('\n',pos);
+			next=(next<0)?text.length():next+1;
+
+			String line=text.substring(pos,next);
+			if(isBlockTitle(line)){
+				//text before the first block is not changed in updates
+				if(blockStart>=0)
+					blocksV.add(text.substring(blockStart,pos));
+
+				//same as full update: the last block with the same ID is updated
+				idIndexMap.put(blockIDOf(line), offsetsV.size());
+				offsetsV.add((long)pos);
+				blockStart=pos;
+			}
+
+			pos=next;
+		}
+
+		if(blockStart>=0)
+			blocksV.add(text.substring(blockStart));
+
+		fileLength=file.length();
+		lastModified=file.lastModified();
+	}
+
+	/*
+	 * replace the results in block of id with resultLines, whose first non-empty line is the sub-title
+	 * of results, e.g., "------ average E------", and the results are from that line to the next
+	 * sub-title or the end of the block
+	 * return false if the block or sub-title is not found
+	 */
+	public synchronized boolean replaceResults(String id,String[] resultLines) throws IOException{
+		checkIndex();
+
+		Integer index=idIndexMap.get(id);
+		if(index==null)
+			return false;
+
+		String subtitle="";
+		for(int i=0;i<resultLines.length;i++){
+			subtitle=resultLines[i].trim();
+			if(subtitle.length()>0)
+				break;
+		}
+
+		if(subtitle.length()==0)
+			return false;
+
+		String block=blocksV.get(index);
+		String[] lines=block.split("\n",-1);
+		int size=lines.length;
+		if(size>0 && lines[size-1].isEmpty())
+			size--;//after the last newline
+
+		//blank lines at the end of block are kept as they are
+		int nBlankLines=0;
+		while(nBlankLines<size && lines[size-1-nBlankLines].trim().isEmpty())
+			nBlankLines++;
+
+		int istart=size,iend=size;
+		for(int i=0;i<size;i++){
+			if(lines[i].contains(subtitle)){
+				istart=i;
+				break;
+			}
+		}
+		for(int i=istart+1;i<size;i++){
+			if(lines[i].contains("------ average") || lines[i].contains("****************")){
+				iend=i;
+				break;
+			}
+		}
+
+		if(istart>=iend)
+			return false;
+
+		Vector<String> newLinesV=new Vector<String>();
+		for(int i=0;i<istart;i++)
+			newLinesV.add(lines[i]);
+		for(int i=0;i<resultLines.length;i++)
+			newLinesV.add(resultLines[i]);
+		for(int i=iend;i<size;i++)
+			newLinesV.add(lines[i]);
+
+		while(newLinesV.size()>0 && newLinesV.lastElement().trim().isEmpty())
+			newLinesV.remove(newLinesV.size()-1);
+
+		StringBuilder sb=new StringBuilder();
+		for(String line:newLinesV)
+			sb.append(line).append("\n");
+		for(int i=0;i<nBlankLines;i++)
+			sb.append("\n");
+
+		String newBlock=sb.toString();
+		if(newBlock.equals(block))
+			return true;
+
+		blocksV.set(index, newBlock);
+
+		RandomAccessFile raf=new RandomAccessFile(file,"rw");
+		try{
+			long pos=offsetsV.get(index);
+			raf.seek(pos);
+
+			if(newBlock.length()==block.length()){
+				raf.write(newBlock.getBytes(StandardCharsets.ISO_8859_1));
+			}else{
+				//this block and all blocks after it, from memory
+				for(int i=index;i<blocksV.size();i++){
+					offsetsV.set(i, pos);
+					byte[] bytes=blocksV.get(i).getBytes(StandardCharsets.ISO_8859_1);
+					raf.write(bytes);
+					pos+=bytes.length;
+				}
+
+				raf.setLength(pos);
+			}
+		}finally{
+			raf.close();
+		}
+
+		fileLength=file.length();
+		lastModified=file.lastModified();
+
+		return true;
+	}
+}
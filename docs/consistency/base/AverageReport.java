@@ -21,6 +21,9 @@ import ensdfparser.nds.util.Str;
  */
 public class AverageReport {
 
+	//default lower limit of weight, used in all constructors without weightLowerLimit
+	public static final double defaultWeightLowerLimit=0.02f;
+	
 	private double weightLowerLimit=0.02;
 	private String report="",recordName="";
 	private String ENSDFlinePrefix="";//used for making ENSDF comments
@@ -59,16 +62,24 @@ public class AverageReport {
 	//unweighted:comment for unweighted average including all data points
 	//nonaverage:comment for no average (one value is selected)
 	//adopted: adopted comment (among all,default,unweighted and nonaverage), corresponding to adopted value and uncertainty
+	//comments are wrapped into ENSDF lines only on first access, from raw text in rawCommentMap
 	private HashMap<String,String> avgCommentMap=null;
+	private HashMap<String,String> rawCommentMap=null;
+	private String adoptedCommentType="";//type of adopted comment
+	
+	//report and value strings are rendered on first access (see getReport() and makeValueStrings())
+	private boolean isReportMade=false,valueStringsMade=false;
+	private Average avgAll=null;//average of all values including those under weight threshold
 	
 	
 	public AverageReport(){
-		weightLowerLimit=0.02f;
+		weightLowerLimit=defaultWeightLowerLimit;
 		report="";
 		recordName="";
 		ENSDFlinePrefix="";
 		avgOption="";
 		avgCommentMap=new HashMap<String,String>();
+		rawCommentMap=new HashMap<String,String>();
 		
 		valueStrInt="";
 		valueStrExt="";
@@ -137,6 +148,14 @@ public class AverageReport {
 		this();
 		doWork(recordGroup,recordName,prefix,weightLowerLimit,"");
 	}
+	public AverageReport(RecordGroupView view,String recordName,String prefix){
+		this();
+		this.avgOption="";
+		setRecordName(recordName);
+		setENSDFlinePrefix(prefix);
+		setDataPoints(view,recordName,weightLowerLimit);
+		makeReport(null);
+	}
 	
 	/////
 	public AverageReport(Vector<DataPoint> dpsV,String recordName,String prefix,double weightLowerLimit,String avgOption){
@@ -164,7 +183,7 @@ public class AverageReport {
 		setRecordName(recordName);
 		setENSDFlinePrefix(prefix);
 		setDataPoints(recordGroup,recordName,weightLowerLimit);
-		makeReport();
+		makeReport(null);
 	}
 	
 	public void doWork(Vector<DataPoint> dpsV,String recordName,String prefix,double weightLowerLimit,String avgOption){
@@ -172,7 +191,7 @@ public class AverageReport {
 		setRecordName(recordName);
 		setENSDFlinePrefix(prefix);
 		setDataPoints(dpsV,weightLowerLimit);
-		makeReport();
+		makeReport(null);
 	}
 	
 	public void setAvgOption(String s){avgOption=s;}
@@ -192,8 +211,6 @@ public class AverageReport {
 	public void setDataPoints(RecordGroup recordGroup,String recordName,double weightLowerLimit){
 		Vector<DataPoint> dpsV=new Vector<DataPoint>();
 		String name=recordName.toUpperCase();
-		double x=-1,dxu=-1,dxl=-1;
-		String s="",ds="",unit="";
 		
 		for(int i=0;i<recordGroup.recordsV().size();i++){
 			Record rec=recordGroup.getRecord(i);
@@ -204,84 +221,9 @@ public class AverageReport {
 			//for(String tempID:recordGroup.dsidsVWithDuplicateShortID)
 			//	System.out.println("    "+tempID);
 			
-			//if(rec.ES().contains("1893.")) System.out.println(" 1  name="+recordName+"  es="+rec.ES());
-			
-			try{
-				if(name.equals("E")){//energy (level/gamma/decay/delay)
-					s=rec.ES();
-					ds=rec.DES();
-				}else if(name.equals("RI")){//only for gamma
-					Gamma g=(Gamma)rec;
-					//s=g.IS();
-					//ds=rec.DIS();
-					//if(Control.convertRIForAdopted && !Control.createCombinedDataset){
-					if(CheckControl.convertRIForAdopted){
-						XDX2SDS xs=new XDX2SDS(g.RelBRD(),g.DRelBRD(),CheckControl.errorLimit);
-						s=xs.s();
-						ds=xs.ds();
-					}else{
-						s=g.RIS();
-						ds=g.DRIS();					
-					}
-		
-				}else if(name.equals("T")){//halflife
-					Level l=(Level)rec;
-					s=l.T12S();
-					ds=l.DT12S();
-					unit=Translator.halfLifeUnitsLowerCase(l.T12Unit());
-						
-					//if(rec.ES().contains("3092")) {
-					//	System.out.println("#### "+s+"  ##"+ds+"  "+unit);
-					//}
-						
-					
-				}else if(name.equals("S")){//relabelled C2S valeus (not that C2S value can't be averaged, but other values placed in C2S filed can)
-					Level l=(Level)rec;
-					s=l.sS();
-					ds=l.dsS();
-						
-					//if(rec.ES().contains("3092")) {
-					//	System.out.println("#### "+s+"  ##"+ds+"  "+unit);
-					//}
-						
-					
-				}else if(name.equals("TI")){//only for gamma
-					Gamma g=(Gamma)rec;
-					s=g.TIS();
-					ds=g.DTIS();
-		
-		    		
-					//if(rec.ES().contains("1893.")) System.out.println(" 2 name="+recordName+"  es="+rec.ES()+"  s="+s+"  ds="+ds);
-				}
-
-				//ds could be like "+12-10" for asymmetric uncertainty
-				//exception if x or dx not numerical
-				
-				x=Float.parseFloat(s);
-				//dx=Float.parseFloat(ds);
-				
-				//convert ENSDF-style uncertainty string to real value  
-				dxu=(double) EnsdfUtil.s2x(s,ds).dxu();
-				dxl=(double) EnsdfUtil.s2x(s,ds).dxl();
-				
-				
-				//if(name.equals("T"))
-				//		System.out.println("name="+name+" s="+s+" ds="+ds+" x=="+x+"  dxu="+dxu+" dxl="+dxl);
-				
-				if(dxu<=0 || dxl<=0)
-					continue;
-
-	    		
-				DataPoint dp=new DataPoint(x,dxu,dxl,label);
-				dp.setS(s, ds);
-				if(unit.length()>0)
-					dp.setUnit(unit);
-				
+			DataPoint dp=makeDataPoint(rec,name,label);
+			if(dp!=null)
 				dpsV.add(dp);
-				
-			}catch(NumberFormatException e){
-				continue;
-			}
 		}
 		
 		/*
@@ -293,6 +235,119 @@ public class AverageReport {
 		
 		setDataPoints(dpsV,weightLowerLimit);
 	}
+	
+	//same as above but for selected members in a view of a group, without copying the group
+	public void setDataPoints(RecordGroupView view,String recordName,double weightLowerLimit){
+		setDataPoints(dataPointsOf(view,recordName),weightLowerLimit);
+	}
+	
+	/*
+	 * data points of selected members in a view for recordName, the same as those averaged
+	 * in setDataPoints(view,...), e.g., for looking up averages in AverageCache 
+	 */
+	public static Vector<DataPoint> dataPointsOf(RecordGroupView view,String recordName){
+		Vector<DataPoint> dpsV=new Vector<DataPoint>(view.nSelected());
+		String name=recordName.toUpperCase();
+		
+		for(int i=0;i<view.size();i++){
+			if(!view.isSelected(i))
+				continue;
+			
+			DataPoint dp=makeDataPoint(view.getRecord(i),name,view.getPrintDSID(i));
+			if(dp!=null)
+				dpsV.add(dp);
+		}
+		
+		return dpsV;
+	}
+	
+	/*
+	 * data point of record value for name (upper-case record field name)
+	 * return null if the value or its uncertainty is not numerical 
+	 */
+	private static DataPoint makeDataPoint(Record rec,String name,String label){
+		double x=-1,dxu=-1,dxl=-1;
+		String s="",ds="",unit="";
+		
+		//if(rec.ES().contains("1893.")) System.out.println(" 1  name="+recordName+"  es="+rec.ES());
+		
+		try{
+			if(name.equals("E")){//energy (level/gamma/decay/delay)
+				s=rec.ES();
+				ds=rec.DES();
+			}else if(name.equals("RI")){//only for gamma
+				Gamma g=(Gamma)rec;
+				//s=g.IS();
+				//ds=rec.DIS();
+				//if(Control.convertRIForAdopted && !Control.createCombinedDataset){
+				if(CheckControl.convertRIForAdopted){
+					XDX2SDS xs=new XDX2SDS(g.RelBRD(),g.DRelBRD(),CheckControl.errorLimit);
+					s=xs.s();
+					ds=xs.ds();
+				}else{
+					s=g.RIS();
+					ds=g.DRIS();					
+				}
+	
+			}else if(name.equals("T")){//halflife
+				Level l=(Level)rec;
+				s=l.T12S();
+				ds=l.DT12S();
+				unit=Translator.halfLifeUnitsLowerCase(l.T12Unit());
+					
+				//if(rec.ES().contains("3092")) {
+				//	System.out.println("#### "+s+"  ##"+ds+"  "+unit);
+				//}
+					
+				
+			}else if(name.equals("S")){//relabelled C2S valeus (not that C2S value can't be averaged, but other values placed in C2S filed can)
+				Level l=(Level)rec;
+				s=l.sS();
+				ds=l.dsS();
+					
+				//if(rec.ES().contains("3092")) {
+				//	System.out.println("#### "+s+"  ##"+ds+"  "+unit);
+				//}
+					
+				
+			}else if(name.equals("TI")){//only for gamma
+				Gamma g=(Gamma)rec;
+				s=g.TIS();
+				ds=g.DTIS();
+	
+	    		
+				//if(rec.ES().contains("1893.")) System.out.println(" 2 name="+recordName+"  es="+rec.ES()+"  s="+s+"  ds="+ds);
+			}
+
+			//ds could be like "+12-10" for asymmetric uncertainty
+			//exception if x or dx not numerical
+			
+			x=Float.parseFloat(s);
+			//dx=Float.parseFloat(ds);
+			
+			//convert ENSDF-style uncertainty string to real value
+			dxu=(double) EnsdfUtil.s2x(s,ds).dxu();
+			dxl=(double) EnsdfUtil.s2x(s,ds).dxl();
+			
+			
+			//if(name.equals("T"))
+			//		System.out.println("name="+name+" s="+s+" ds="+ds+" x=="+x+"  dxu="+dxu+" dxl="+dxl);
+			
+			if(dxu<=0 || dxl<=0)
+				return null;
+
+    		
+			DataPoint dp=new DataPoint(x,dxu,dxl,label);
+			dp.setS(s, ds);
+			if(unit.length()>0)
+				dp.setUnit(unit);
+			
+			return dp;
+			
+		}catch(NumberFormatException e){
+			return null;
+		}
+	}
 
 	
 	public void setweightLowerLimit(double weightLowerLimit){this.weightLowerLimit=weightLowerLimit;}
@@ -302,13 +357,40 @@ public class AverageReport {
 	
 	public Average getAverage(){return avg;}
 	
-	public HashMap<String,String> getAvgCommentMap(){return avgCommentMap;}
+	//all comments, including "adopted"
+	public synchronized HashMap<String,String> getAvgCommentMap(){
+		for(String type:rawCommentMap.keySet())
+			getComment(type);
+		
+		avgCommentMap.put("adopted", getComment("adopted"));
+		return avgCommentMap;
+	}
 	
-	public String getComment(String type){
-		String s=avgCommentMap.get(type.toLowerCase());
-		if(s==null)
+	public synchronized String getComment(String type){
+		type=type.toLowerCase();
+		if(type.equals("adopted")){
+			if(adoptedCommentType.isEmpty())
+				return "";
+			
+			type=adoptedCommentType;
+		}
+		
+		String s=avgCommentMap.get(type);
+		if(s!=null)
+			return s;
+		
+		String raw=rawCommentMap.get(type);
+		if(raw==null)
 			return "";
 		
+    	try {
+    		s=Str.wrapString(raw,ENSDFlinePrefix,80,5);
+		} catch (Exception e) {
+			//keep the comment unwrapped in one line rather than losing it
+			s=ENSDFlinePrefix+raw;
+		}
+    	
+		avgCommentMap.put(type, s);
 		return s;
 	}
 	
@@ -320,9 +402,108 @@ public class AverageReport {
 		return getComment("adopted");
 	}
 	
-	public String print(){return report;}
-	public String getReport(){return report;}
+	public String print(){return getReport();}
+	
+	/*
+	 * full report is rendered on first call, by a second pass of makeReport() on a copy, so that
+	 * fields set in the first pass are not touched by it, since a report could be shared by
+	 * threads (see AverageCache)
+	 */
+	public synchronized String getReport(){
+		if(!isReportMade){
+			AverageReport copy=copyForRendering();
+			copy.makeReport(new StringBuilder());
+			
+			report=copy.report;
+			isReportMade=true;
+		}
+		
+		return report;
+	}
 	
+	//copy of inputs and results of the first pass of makeReport(), for rendering the report
+	private AverageReport copyForRendering(){
+		AverageReport copy=new AverageReport();
+		copy.weightLowerLimit=weightLowerLimit;
+		copy.recordName=recordName;
+		copy.ENSDFlinePrefix=ENSDFlinePrefix;
+		copy.avgOption=avgOption;
+		copy.avg=avg;
+		copy.avgAll=avgAll;
+		copy.rawCommentMap.putAll(rawCommentMap);
+		
+		return copy;
+	}
+
+	/*
+	 * bootstrap average of good data points (with positive uncertainties), reproducible for the same seed;
+	 * not made in makeReport() since it takes much longer than other averages
+	 */
+	public BootstrapAverage getBootstrapAverage(int nResamples,long seed) throws Exception{
+		Vector<DataPoint> dpsV=new Vector<DataPoint>();
+		if(avg!=null){
+			for(int index:avg.goodPointIndexesV())
+				dpsV.add(avg.dataPointsV().get(index));
+		}
+
+		BootstrapAverage ba=BootstrapAverage.of(dpsV);
+		ba.run(nResamples,seed);
+
+		return ba;
+	}
+
+	/*
+	 * bootstrap average of good data points printed in the same form as other averages in report,
+	 * followed by details of the bootstrap (see AverageCommentValuesFrame)
+	 */
+	public String printBootstrapAverage(int nResamples,long seed) throws Exception{
+		BootstrapAverage ba=getBootstrapAverage(nResamples,seed);
+
+		StringBuilder s=new StringBuilder();
+		if(!Double.isNaN(ba.value())){
+			XDX2SDS x2s=new XDX2SDS();
+			x2s.setErrorLimit(CheckControl.errorLimit);
+			x2s.setValues(ba.value(),ba.error());
+
+			String ds=x2s.ds();
+			if(ds.length()>0)
+				ds="("+ds+")";
+
+			appendf(s,"          bootstrap average:      %-20s (of good values)\n",x2s.S()+ds);
+			append(s,"\n");
+		}
+
+		append(s,ba.printReport());
+
+		return s.toString();
+	}
+
+	/*
+	 * weighted average of good data points by AverageKernel on primitive arrays, with the
+	 * same weight limit, for cross-checking Average only; reports are made from Average
+	 * (see testKernel() in AverageTest)
+	 * return null if any good data point has asymmetric uncertainties or avgOption is set
+	 * (which changes weights of asymmetric uncertainties), for which Average is used
+	 */
+	public AverageKernel.Result getKernelAverage(){
+		if(avg==null || !avgOption.isEmpty())
+			return null;
+
+		int n=avg.goodPointIndexesV().size();
+		double[] x=new double[n];
+		double[] dx=new double[n];
+		for(int i=0;i<n;i++){
+			DataPoint dp=avg.dataPointsV().get(avg.goodPointIndexesV().get(i));
+			if(dp.dxu()!=dp.dxl())
+				return null;
+			
+			x[i]=dp.x();
+			dx[i]=dp.dxu();
+		}
+
+		return AverageKernel.weightedAverage(x,dx,weightLowerLimit);
+	}
+
 	public boolean isAllSameValues(){return isAllSameValues;}
 	public boolean isAllSameUncs() {return isAllSameUncs;}
 	public boolean isNonAverage() {return isNonAverage;}
@@ -344,15 +525,12 @@ public class AverageReport {
         return label;
 	}
 	
-    private void makeReport(){
-        String defaultComment="";
-        String commentForAll="";
-        String unweightedComment="";
-        String nonaverageComment="";
-        String adoptedComment="";
-        	
-
-        
+    /*
+     * s=null: only make the numeric results and adopted value and uncertainty, and keep raw text
+     *         of comments, which are wrapped into ENSDF comment lines on first access (getComment())
+     * s!=null: also render the full report into s (see getReport())
+     */
+    private void makeReport(StringBuilder s){
     	if(avg==null)
     		return;
     	
@@ -369,59 +547,69 @@ public class AverageReport {
     		return;
     	    	
     	String dataStr="";
-        StringBuilder s=new StringBuilder();
-        StringBuilder commentStr=new StringBuilder();
+        StringBuilder commentStr=null;
+        if(s!=null)
+        	commentStr=new StringBuilder();
         
-    	s.append("\n------ average "+recordName+"------\n");
-    	s.append("Data points of "+recordName+" record\n"); 
-    			
-        //In average function, if only one value or none has weight>weight_limit and the  
-        //rest are out of limit, all values are used in average for displaying information
     	int nAboveLimit=avg.aboveLimitIndexesV().size();
-    	if(nAboveLimit<=1 && avg.goodPointIndexesV().size()>1)
-    		s.append(String.format("### (%d value has weight>%.2f%%; all values with unc  considered in weighted average)\n",nAboveLimit,weightLowerLimit*100));
+    	if(s!=null){
+	    	s.append("\n------ average "+recordName+"------\n");
+	    	s.append("Data points of "+recordName+" record\n"); 
+    			
+	        //In average function, if only one value or none has weight>weight_limit and the  
+	        //rest are out of limit, all values are used in average for displaying information
+	    	if(nAboveLimit<=1 && avg.goodPointIndexesV().size()>1)
+	    		s.append(String.format("### (%d value has weight>%.2f%%; all values with unc  considered in weighted average)\n",nAboveLimit,weightLowerLimit*100));
     	
-    	Vector<Integer> tempV=new Vector<Integer>();
-    	tempV.addAll(avg.usedPointIndexesV());
-    	for(int i=0;i<avg.nonLimitPointIndexesV().size();i++) {
-    		int index=avg.nonLimitPointIndexesV().get(i);
-    		if(!tempV.contains(index))
-    			tempV.add(index);
-    	}
-    	for(int i=0;i<tempV.size();i++){
-    		int index=tempV.get(i);
-    		double weight=avg.weightsV().get(index);
-    		String marker=" ";
-    		String ds=avg.getDS(index).trim();
-    		if(ds.length()>0)
-    			ds="("+ds+")";
+	    	//used points, then other non-limit points, marked by index instead of searching the list
+	    	Vector<Integer> tempV=new Vector<Integer>();
+	    	boolean[] isListed=new boolean[avg.dataPointsV().size()];
+	    	for(int index:avg.usedPointIndexesV()) {
+	    		tempV.add(index);
+	    		isListed[index]=true;
+	    	}
+	    	for(int index:avg.nonLimitPointIndexesV()) {
+	    		if(!isListed[index]) {
+	    			tempV.add(index);
+	    			isListed[index]=true;
+	    		}
+	    	}
+	    	for(int i=0;i<tempV.size();i++){
+	    		int index=tempV.get(i);
+	    		double weight=avg.weightsV().get(index);
+	    		String marker=" ";
+	    		String ds=avg.getDS(index).trim();
+	    		if(ds.length()>0)
+	    			ds="("+ds+")";
     		
-    		dataStr=avg.getS(index).trim()+ds;
-    		if(weight>=weightLowerLimit)
-    			marker="*";
+	    		dataStr=avg.getS(index).trim()+ds;
+	    		if(weight>=weightLowerLimit)
+	    			marker="*";
 
-    		if(weight>0)
-    			s.append(marker+String.format("%30s   %-16s    weight=%.2f%%\n",shortenLabel(avg.getLabel(index)),dataStr,weight*100));		
-    		else
-    			s.append(marker+String.format("%30s   %-16s    not used in weighted\n",shortenLabel(avg.getLabel(index)),dataStr));	
-    	}
+	    		if(weight>0)
+	    			s.append(marker+String.format("%30s   %-16s    weight=%.2f%%\n",shortenLabel(avg.getLabel(index)),dataStr,weight*100));		
+	    		else
+	    			s.append(marker+String.format("%30s   %-16s    not used in weighted\n",shortenLabel(avg.getLabel(index)),dataStr));	
+	    	}
     	
-    	if(avg.unusedPointIndexesV().size()>0){
-    		s.append(String.format("### (weight<%.2f%% not considered in weighted average)\n", weightLowerLimit*100));
-        	for(int i=0;i<avg.unusedPointIndexesV().size();i++){
-        		int index=avg.unusedPointIndexesV().get(i);
-        		double weight=avg.weightsV().get(index);
-        		String marker=" ";
-        		String ds=avg.getDS(index).trim();
-        		if(ds.length()>0)
-        			ds="("+ds+")";
+	    	if(avg.unusedPointIndexesV().size()>0){
+	    		s.append(String.format("### (weight<%.2f%% not considered in weighted average)\n", weightLowerLimit*100));
+	        	for(int i=0;i<avg.unusedPointIndexesV().size();i++){
+	        		int index=avg.unusedPointIndexesV().get(i);
+	        		double weight=avg.weightsV().get(index);
+	        		String marker=" ";
+	        		String ds=avg.getDS(index).trim();
+	        		if(ds.length()>0)
+	        			ds="("+ds+")";
         		
-        		dataStr=avg.getS(index).trim()+ds;
+	        		dataStr=avg.getS(index).trim()+ds;
         		
-        		s.append(marker+String.format("%30s   %-16s    weight=%.2f%%\n",shortenLabel(avg.getLabel(index)),dataStr,weight*100));		
-        	}
-    	}
+	        		s.append(marker+String.format("%30s   %-16s    weight=%.2f%%\n",shortenLabel(avg.getLabel(index)),dataStr,weight*100));		
+	        	}
+	    	}
         
+    	}
+
     	String dataStr1="",dataStr2="",dataStr3="";
     	XDX2SDS x2s=new XDX2SDS();
     	
@@ -498,18 +686,18 @@ public class AverageReport {
 
 		//if(recordName.equals("E")&&avg.value()<1345.79&&avg.value()>1345.78) System.out.println(" 1 ndf="+ndf);
 
-		s.append(String.format("\nAveraging results:\n"));
+		appendf(s,"\nAveraging results:\n");
 		
 		if(isGoodWA) {
-			s.append(String.format("           weighted average:      %-20s (internal)\n",dataStr1));
+			appendf(s,"           weighted average:      %-20s (internal)\n",dataStr1);
 			if(hasAsymExtError && dataStr3.length()>0) {
-				s.append(String.format("                                  %-20s (external, combined weight)\n",dataStr2));
-				s.append(String.format("                                  %-20s (external, separate weights)\n",dataStr3));
+				appendf(s,"                                  %-20s (external, combined weight)\n",dataStr2);
+				appendf(s,"                                  %-20s (external, separate weights)\n",dataStr3);
 			}else {
-				s.append(String.format("                                  %-20s (external)\n",dataStr2));
+				appendf(s,"                                  %-20s (external)\n",dataStr2);
 			}
 			
-			s.append(String.format("                                  chi**2/(n-1)=%.3f     [critical=%.3f]\n",avg.chi2(),criticalChi2));
+			appendf(s,"                                  chi**2/(n-1)=%.3f     [critical=%.3f]\n",avg.chi2(),criticalChi2);
 		}
 
         
@@ -517,7 +705,10 @@ public class AverageReport {
 		boolean hasAsymExtErrorAll=false;
 		
     	if(avg.unusedPointIndexesV().size()>0){
-    		avg_all=new Average(avg.dataPointsV(),0,avgOption);
+    		if(avgAll!=null)
+    			avg_all=avgAll;//made in the first pass
+    		else
+    			avg_all=new Average(avg.dataPointsV(),0,avgOption);
     		
     		isGoodWA=true;
     		if(avg_all.intError()<0 && avg_all.extError()<0){
@@ -584,15 +775,15 @@ public class AverageReport {
 
     		//if(recordName.equals("E")&&avg.value()<1345.79&&avg.value()>1345.78) System.out.println(" 2 ndf="+ndf);
     		if(isGoodWA) {
-        		s.append(String.format("           weighted average:      %-20s (internal)\n",dataStr1));
+        		appendf(s,"           weighted average:      %-20s (internal)\n",dataStr1);
         		if(hasAsymExtErrorAll && dataStr3.length()>0) {
-            		s.append(String.format("            (of all values)       %-20s (external, combined weight)\n",dataStr2));
-            		s.append(String.format("            (of all values)       %-20s (external, separate weights)\n",dataStr3));
+            		appendf(s,"            (of all values)       %-20s (external, combined weight)\n",dataStr2);
+            		appendf(s,"            (of all values)       %-20s (external, separate weights)\n",dataStr3);
         		}else {
-        	   		s.append(String.format("            (of all values)       %-20s (external)\n",dataStr2));
+        	   		appendf(s,"            (of all values)       %-20s (external)\n",dataStr2);
         		}
 
-        		s.append(String.format("                                  chi**2/(n-1)=%.3f     [critical=%.3f]\n",avg_all.chi2(),criticalChi2));
+        		appendf(s,"                                  chi**2/(n-1)=%.3f     [critical=%.3f]\n",avg_all.chi2(),criticalChi2);
     		}
 
     	}else {
@@ -636,9 +827,9 @@ public class AverageReport {
 		
 		//if(recordName.equals("E")&&avg.value()<1345.79&&avg.value()>1345.78) System.out.println(" 3 ndf="+ndf);
 		
-    	s.append(String.format("         unweighted average:      %-20s\n",dataStr));
-    	s.append(String.format("           (of all values)        chi**2/(n-1)=%.3f     [critical=%.3f]\n",avg.unweightedChi2(),criticalChi2));
-    	s.append("\n");
+    	appendf(s,"         unweighted average:      %-20s\n",dataStr);
+    	appendf(s,"           (of all values)        chi**2/(n-1)=%.3f     [critical=%.3f]\n",avg.unweightedChi2(),criticalChi2);
+    	append(s,"\n");
 
     	unwValueStrGoodDP=unwValueStr;
     	unwErrorStrGoodDP=unwErrorStr;
@@ -677,9 +868,9 @@ public class AverageReport {
     		
     		//if(recordName.equals("E")&&avg.value()<1345.79&&avg.value()>1345.78) System.out.println(" 3 ndf="+ndf);
     		
-        	s.append(String.format("         unweighted average:      %-20s\n",dataStr));
-        	s.append(String.format("        (of values with unc)      chi**2/(n-1)=%.3f     [critical=%.3f]\n",avg.unweightedChi2(),criticalChi2));
-        	s.append("\n");
+        	appendf(s,"         unweighted average:      %-20s\n",dataStr);
+        	appendf(s,"        (of values with unc)      chi**2/(n-1)=%.3f     [critical=%.3f]\n",avg.unweightedChi2(),criticalChi2);
+        	append(s,"\n");
     	}
         //make average comments to be copied and used in an ENSDF file
         String used=printGroupRecords(avg.usedPointIndexesV());
@@ -701,44 +892,28 @@ public class AverageReport {
         String temp="";
         
         if(used.length()>0){
-        	commentStr.append("### weighted average comment:\n");  
         	temp=recordName+"$weighted average of "+txt;
-        	try {
-        		defaultComment=Str.wrapString(temp,ENSDFlinePrefix,80,5);
-        		commentStr.append(defaultComment+"\n\n");
-				
-				commentForAll=defaultComment;
-				
-			} catch (Exception e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}   	
+        	putRawComment(s,"default",temp);
+        	putRawComment(s,"all",temp);
+        	
+        	append(commentStr,"### weighted average comment:\n");  
+        	appendComment(commentStr,"default");
         }
         
         if(unused.length()>0){
-        	commentStr.append("### weighted average comment (all values):\n");  
         	temp=recordName+"$weighted average of "+allgood;
-        	try {
-        		commentForAll=Str.wrapString(temp,ENSDFlinePrefix,80,5);
-        		commentStr.append(commentForAll+"\n\n");
-			} catch (Exception e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}   	
+        	putRawComment(s,"all",temp);
+        	
+        	append(commentStr,"### weighted average comment (all values):\n");  
+        	appendComment(commentStr,"all");
         }
          
         if(allgood.length()>0){
-        	commentStr.append("### unweighted average comment (all non-limit values with/without unc):\n");          
         	temp=recordName+"$unweighted average of "+allNonLimit;
-
-    		
-        	try {
-        		unweightedComment=Str.wrapString(temp,ENSDFlinePrefix,80,5);
-        		commentStr.append(unweightedComment+"\n\n");
-			} catch (Exception e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}   	
+        	putRawComment(s,"unweighted",temp);
+        	
+        	append(commentStr,"### unweighted average comment (all non-limit values with/without unc):\n");          
+        	appendComment(commentStr,"unweighted");
         }
         
         Vector<Integer> othersIndexesV=new Vector<Integer>();
@@ -847,15 +1022,11 @@ public class AverageReport {
         	}
 
         	if(temp.length()>0){
-        		commentStr.append("### Non-average comment:\n");
             	temp=recordName+temp;
-            	try {
-            		nonaverageComment=Str.wrapString(temp,ENSDFlinePrefix,80,5);
-            		commentStr.append(nonaverageComment+"\n\n");
-				} catch (Exception e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				}
+            	putRawComment(s,"nonaverage",temp);
+            	
+        		append(commentStr,"### Non-average comment:\n");
+        		appendComment(commentStr,"nonaverage");
         	}
         }
         
@@ -876,7 +1047,7 @@ public class AverageReport {
 	    //System.out.println("AverageReport 696: chi2="+chi2+" isAllSame="+isAllSameValues+" isNonAverage="+isNonAverage+" all_chi2="+all_chi2);
 	    
 	    if(chi2>=0 && (isAllSameValues || (isNonAverage&&!CheckControl.forceAverageAll)) ) {
-	    	adoptedComment=nonaverageComment;
+	    	adoptedCommentType="nonaverage";
             label="Non-Average";
 	    	
 	    	DataPoint dp=avg.dataPointsV().get(nonaverageIndex);
@@ -884,7 +1055,7 @@ public class AverageReport {
 	    	adoptedUncStr=dp.ds();
             
 	    }else if(Math.min(chi2, all_chi2)>3.5) {
-	    	adoptedComment=unweightedComment;
+	    	adoptedCommentType="unweighted";
             label="Unweighted-Average";
 	    	
 	    	SDS2XDX s2x=SDS2XDX.checkUncertainty(unwValueStr, unwErrorStr, maxNDigitsAfterDot,CheckControl.errorLimit);
@@ -894,15 +1065,15 @@ public class AverageReport {
 	    	
 	    }else if(avg.isEqualWeighted(avg_all,CheckControl.errorLimit)) {
 	    	label="Weighted-Of-All";
-	    	adoptedComment=defaultComment;
+	    	adoptedCommentType="default";
         	done=false;
 	    }else if(all_chi2>=0 && (all_chi2<chi2||all_chi2<3.0) ) {
 	    	label="Weighted-Of-All";
-	    	adoptedComment=commentForAll;
+	    	adoptedCommentType="all";
 	    	avg_adopted=avg_all;
 	    	done=false;
 	    }else if(all_chi2>=0){//this is the most general case, all_chi2>chi2, uncertainty could be the same, but mean value different	    	
-	    	adoptedComment=defaultComment;
+	    	adoptedCommentType="default";
         	done=false;
 	    }
 	    
@@ -970,8 +1141,8 @@ public class AverageReport {
 	    }
 	    
 	    if(!adoptedUncStr.isEmpty()) {
-	   		s.append(String.format("   suggested adopted result:      %-20s\n",adoptedValStr+"("+adoptedUncStr+")"));
-	   		s.append(                       String.format("%24s\n\n","("+label+")"));
+	   		appendf(s,"   suggested adopted result:      %-20s\n",adoptedValStr+"("+adoptedUncStr+")");
+	   		appendf(s,"%24s\n\n","("+label+")");
 	   		
 	   		if(noteS.length()>0) {
 		    	noteS+="       Suggested adopted result is just the preference of this average code which adopts\n"
@@ -985,9 +1156,9 @@ public class AverageReport {
 	    }
 	    
 	    if(noteS.length()>0)
-	    	s.append(noteS);
+	    	append(s,noteS);
 	    
-	    s.append(commentStr);
+	    append(s,commentStr);
 	    //final check if it is non-average, for those that could escape from the non-average condition above: diff<(unc/100) && avgError<=unc
 	    /*
 	    try {
@@ -999,18 +1170,29 @@ public class AverageReport {
         */
 	 
 	    	    
-        avgCommentMap.put("default", defaultComment);
-        avgCommentMap.put("all",commentForAll);
-        avgCommentMap.put("unweighted",unweightedComment);
-        avgCommentMap.put("nonaverage", nonaverageComment);
-        avgCommentMap.put("adopted", adoptedComment);
-       
-        
-        report+=s.toString();
+        if(s!=null)
+        	report+=s.toString();
         
 	    //debug
 	    //System.out.println("****\n"+getDefaultComment()+"***\n"+this.getAdoptedComment()+"&&");
         
+        avgAll=avg_all;
+    }
+    
+    /*
+     * ENSDF-style strings of weighted averages (larger of internal and external uncertainties),
+     * made on first access
+     */
+    private synchronized void makeValueStrings(){
+    	if(valueStringsMade || avgAll==null)
+    		return;
+    	
+    	valueStringsMade=true;
+    	
+    	Average avg_all=avgAll;
+    	XDX2SDS x2s=null;
+    	int maxNDigitsAfterDot=0;
+    	
         SDS2XDX s1=new SDS2XDX(valueStrIntAll,intErrorStrAll);
         SDS2XDX s2=new SDS2XDX(valueStrExtAll,extErrorStrAll);
         double x=avg_all.value();
@@ -1087,6 +1269,32 @@ public class AverageReport {
         }        
     }
     
+    //raw comment text is kept only from the first pass (s=null), so that comments rendered
+    //later are the same as those when averaging was made
+    private void putRawComment(StringBuilder s,String type,String text){
+    	if(s==null)
+    		rawCommentMap.put(type, text);
+    }
+    
+    private void appendComment(StringBuilder commentStr,String type){
+    	if(commentStr==null)
+    		return;
+    	
+    	String comment=getComment(type);
+    	if(comment.length()>0)
+    		commentStr.append(comment+"\n\n");
+    }
+    
+    private void append(StringBuilder s,CharSequence text){
+    	if(s!=null)
+    		s.append(text);
+    }
+    
+    private void appendf(StringBuilder s,String format,Object... args){
+    	if(s!=null)
+    		s.append(String.format(format,args));
+    }
+    
     private String printGroupRecords(Vector<Integer> indexesV){
     	return printGroupRecords(indexesV,false);
     }
@@ -1225,10 +1433,10 @@ public class AverageReport {
 	public String intErrorMStr(){return intErrorMStr;}//unc-
 	public String extErrorStr(){return extErrorStr;}
 	
-    public String valueStr(){return valueStr;}
-    public String errorStr(){return errorStr;}
-    public String errorPStr(){return errorPStr;}//unc+
-    public String errorMStr(){return errorMStr;}//unc-
+    public String valueStr(){makeValueStrings();return valueStr;}
+    public String errorStr(){makeValueStrings();return errorStr;}
+    public String errorPStr(){makeValueStrings();return errorPStr;}//unc+
+    public String errorMStr(){makeValueStrings();return errorMStr;}//unc-
     
 	public String valueStrIntAll(){return valueStrIntAll;}
 	public String valueStrExtAll(){return valueStrExtAll;}
@@ -1239,10 +1447,10 @@ public class AverageReport {
 	public String extErrorPStrAll(){return extErrorPStrAll;}//unc+
 	public String extErrorMStrAll(){return extErrorMStrAll;}//unc-
 	
-    public String valueStrAll(){return valueStrAll;}
-    public String errorStrAll(){return errorStrAll;}
-    public String errorPStrAll(){return errorPStrAll;}//unc+
-    public String errorMStrAll(){return errorMStrAll;}//unc-
+    public String valueStrAll(){makeValueStrings();return valueStrAll;}
+    public String errorStrAll(){makeValueStrings();return errorStrAll;}
+    public String errorPStrAll(){makeValueStrings();return errorPStrAll;}//unc+
+    public String errorMStrAll(){makeValueStrings();return errorMStrAll;}//unc-
 
 	
 	public String unwValueStr(){return  unwValueStr;}
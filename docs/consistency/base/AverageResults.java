@@ -0,0 +1,96 @@
+package consistency.base;
+
+import java.util.HashMap;
+import java.util.Vector;
+
+import ensdfparser.ensdf.Record;
+
+/*
+ * averaging results of all (record group, field) averages needed for writing an output
+ * (.avg or .adp), made in a separate averaging stage before writing (see makeAverageResults()
+ * in ConsistencyCheck), so that writers only format results but not average again
+ *
+ * A result is keyed by the records (identity) and DSIDs in the group used as input for
+ * averaging, plus record field name and ENSDF line prefix, since writers make their own
+ * copies of groups (e.g., with Adopted record removed) before averaging.
+ *
+ * Results are only added in the averaging stage and only read afterwards
+ */
+public class AverageResults {
+
+	public static class Key{
+		private final Record[] records;
+		private final String[] dsids;
+		private final String field;
+		private final String prefix;
+		private final int hash;
+
+		public Key(RecordGroup recordGroup,String field,String prefix){
+			int n=recordGroup.nRecords();
+			records=new Record[n];
+			dsids=new String[n];
+
+			int h=field.hashCode()*31+prefix.hashCode();
+			for(int i=0;i<n;i++){
+				records[i]=recordGroup.getRecord(i);
+				dsids[i]=recordGroup.getDSID(i);
+				h=h*31+System.identityHashCode(records[i]);
+				h=h*31+dsids[i].hashCode();
+			}
+
+			this.field=field;
+			this.prefix=prefix;
+			hash=h;
+		}
+
+		@Override
+		public int hashCode(){return hash;}
+
+		@Override
+		public boolean equals(Object o){
+			if(this==o)
+				return true;
+			if(!(o instanceof Key))
+				return false;
+
+			Key k=(Key)o;
+			if(hash!=k.hash || records.length!=k.records.length || !field.equals(k.field) || !prefix.equals(k.prefix))
+				return false;
+
+			for(int i=0;i<records.length;i++){
+				if(records[i]!=k.records[i] || !dsids[i].equals(k.dsids[i]))
+					return false;
+			}
+
+			return true;
+		}
+	}
+
+	private HashMap<Key,AverageReport> resultsMap=new HashMap<Key,AverageReport>();
+
+	public AverageResults(){
+	}
+
+	void putAll(Vector<Key> keysV,Vector<AverageReport> resultsV){
+		for(int i=0;i<keysV.size();i++)
+			resultsMap.put(keysV.get(i), resultsV.get(i));
+	}
+
+	public boolean contains(Key key){
+		return resultsMap.containsKey(key);
+	}
+
+	//return null if not available or the average can't be made
+	public AverageReport get(Key key){
+		return resultsMap.get(key);
+	}
+
+	public AverageReport get(RecordGroup recordGroup,String field,String prefix){
+		if(recordGroup==null || recordGroup.nRecords()==0)
+			return null;
+
+		return resultsMap.get(new Key(recordGroup,field,prefix));
+	}
+
+	public int size(){return resultsMap.size();}
+}
@@ -3,8 +3,10 @@ package consistency.base;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.PrintWriter;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Vector;
+import java.util.concurrent.Callable;
 
 import ensdfparser.calc.DataPoint;
 import ensdfparser.ensdf.Comment;
@@ -86,9 +88,13 @@ public class AverageValuesInComments {
     }
     
     CommentENSDF getCommentENSDF(ENSDF ens,String ref) {
+        return getCommentENSDF(ensdfCommentDataMap.get(ens),ref);
+    }
+    
+    //censV: comment datasets of one dataset
+    private CommentENSDF getCommentENSDF(Vector<CommentENSDF> censV,String ref) {
         try {
-            Vector<CommentENSDF> out=ensdfCommentDataMap.get(ens);
-            for(CommentENSDF cens:out) {
+            for(CommentENSDF cens:censV) {
                 if(cens.ref.equals(ref))
                     return cens;
             }
@@ -105,12 +111,12 @@ public class AverageValuesInComments {
     
     
     /*
-     * Check if a CommentENSDF with ref exists
+     * Check if a CommentENSDF with ref exists in censV, comment datasets of ens
      * If not, insert a new one with ref
      */
-    private CommentENSDF checkCommentENSDF(ENSDF ens,String ref) {
+    private CommentENSDF checkCommentENSDF(Vector<CommentENSDF> censV,ENSDF ens,String ref) {
         try {
-            CommentENSDF cens=getCommentENSDF(ens,ref);
+            CommentENSDF cens=getCommentENSDF(censV,ref);
             
             if(cens==null) {
                 cens=new CommentENSDF(ens);
@@ -119,12 +125,6 @@ public class AverageValuesInComments {
                 if(EnsdfUtil.isKeynumber(ref))
                 	cens.ref2=ens.DSId0();
                 
-                Vector<CommentENSDF> censV=getCommentENSDFs(ens);
-                if(censV==null) {
-                    censV=new Vector<CommentENSDF>();               
-                    ensdfCommentDataMap.put(ens, censV);
-                }
-                
                 censV.add(cens);   
             }
 
@@ -169,15 +169,58 @@ public class AverageValuesInComments {
         out.setLength(0);
     }
     
+    //comment data, average report and output of one dataset
+    private class DatasetResult{
+        Vector<CommentENSDF> censV;
+        StringBuilder rpt=new StringBuilder();
+        StringBuilder out=new StringBuilder();
+    }
+    
+    /*
+     * each dataset is parsed and averaged independently in parallel, and results are
+     * merged in the order of datasets, the same as being done one by one
+     */
     private void dowork() {
-        parseCommentData();
+        //keyword matchers are built here once for each set of keywords in use and only read
+        //by the parallel tasks
+        HashMap<String,KeywordMatcher> matcherMap=new HashMap<String,KeywordMatcher>();
+        
+        Vector<Callable<DatasetResult>> tasks=new Vector<Callable<DatasetResult>>();
+        for(int i=0;i<ensdfsV.size();i++) {
+            final ENSDF ens=ensdfsV.get(i);
+            final EnsdfAverageSetting setting=ensdfAverageSettingMap.get(ens);
+            final KeywordMatcher matcher=getKeywordMatcher(matcherMap,setting);
+            
+            tasks.add(new Callable<DatasetResult>() {
+                public DatasetResult call() {
+                    DatasetResult result=new DatasetResult();
+                    result.censV=parseCommentData(ens,setting,matcher);
+                    doAverage(ens,result.rpt,result.out);
+                    return result;
+                }
+            });
+        }
+        
+        Vector<DatasetResult> resultsV=null;
+        try {
+            resultsV=ParallelTasks.invokeAll(tasks);
+        }catch(Exception e) {
+            e.printStackTrace();
+            return;
+        }
         
         for(int i=0;i<ensdfsV.size();i++) {
-            doAverage(ensdfsV.get(i));
+            DatasetResult result=resultsV.get(i);
+            if(result.censV.size()>0)
+                ensdfCommentDataMap.put(ensdfsV.get(i), result.censV);
+            
+            rpt.append(result.rpt);
+            out.append(result.out);
         }
     }
     
-    private void doAverage(ENSDF ens) {
+    //rpt, out: report and output of this dataset
+    private void doAverage(ENSDF ens,StringBuilder rpt,StringBuilder out) {
         LinkedHashMap<Comment,Record> comRecordMap=new LinkedHashMap<Comment,Record>();
         
         //for(int i=0;i<ens.comV().size();i++) {
@@ -400,10 +443,10 @@ public class AverageValuesInComments {
     }
 
     
-    private void addUnpCommentGammaData(ENSDF ens,int ig,String recordName,DataPoint dp) {
+    private void addUnpCommentGammaData(Vector<CommentENSDF> censV,ENSDF ens,int ig,String recordName,DataPoint dp) {
         try {
             String ref=dp.label();
-            CommentENSDF cens=checkCommentENSDF(ens,ref);
+            CommentENSDF cens=checkCommentENSDF(censV,ens,ref);
             
             CommentGamma CGam=cens.unpCGammas.get(ig);
             if(recordName.equals("E")) {
@@ -418,10 +461,10 @@ public class AverageValuesInComments {
         }
     }
     
-    private void addCommentGammaData(ENSDF ens,int il,int ig,String recordName,DataPoint dp) {
+    private void addCommentGammaData(Vector<CommentENSDF> censV,ENSDF ens,int il,int ig,String recordName,DataPoint dp) {
         try {
             String ref=dp.label();
-            CommentENSDF cens=checkCommentENSDF(ens,ref);
+            CommentENSDF cens=checkCommentENSDF(censV,ens,ref);
             
             //System.out.println("##dsid="+ens.DSId0()+" name="+recordName+" value="+dp.s()+" ref="+dp.label()+" nl="+(cens==null));
             
@@ -446,10 +489,10 @@ public class AverageValuesInComments {
         }
     }  
     
-    private void addCommentLevelData(ENSDF ens,int il,String recordName,DataPoint dp) {
+    private void addCommentLevelData(Vector<CommentENSDF> censV,ENSDF ens,int il,String recordName,DataPoint dp) {
         try {
             String ref=dp.label();
-            CommentENSDF cens=checkCommentENSDF(ens,ref);
+            CommentENSDF cens=checkCommentENSDF(censV,ens,ref);
             
             CommentLevel CLev=cens.CLevels.get(il);
             if(recordName.equals("E")) {
@@ -467,29 +510,66 @@ public class AverageValuesInComments {
     }  
 
     
-    private void parseCommentData() {
-        for(int i=0;i<ensdfsV.size();i++) {
-            ENSDF ens=ensdfsV.get(i);
-            EnsdfAverageSetting setting=null;
-            setting=ensdfAverageSettingMap.get(ens);
-
-            parseCommentData(ens,setting);
+    private static final String defaultKeyword="AVERAGE OF";
+    
+    //custom keywords of EL, T, EG, RI in setting, empty if not set
+    private static String[] customKeywords(EnsdfAverageSetting setting) {
+        String[] keywords= {"","","",""};
+        if(setting!=null) {
+            keywords[0]=setting.getCustomKeyword("EL");
+            keywords[1]=setting.getCustomKeyword("T");
+            keywords[2]=setting.getCustomKeyword("EG");
+            keywords[3]=setting.getCustomKeyword("RI");
         }
+        
+        return keywords;
     }
     
-    private void parseCommentData(ENSDF ens,EnsdfAverageSetting setting) {
-        String defaultKeyword="AVERAGE OF";
-        String ELkeyword="";
-        String Tkeyword="";
-        String EGkeyword="";
-        String RIkeyword="";
-        if(setting!=null) {
-            ELkeyword=setting.getCustomKeyword("EL");
-            Tkeyword=setting.getCustomKeyword("T");
-            EGkeyword=setting.getCustomKeyword("EG");
-            RIkeyword=setting.getCustomKeyword("RI");
+    /*
+     * matcher of default and custom keywords of the setting, taken from matcherMap if one with
+     * the same keywords has been built
+     */
+    private static KeywordMatcher getKeywordMatcher(HashMap<String,KeywordMatcher> matcherMap,EnsdfAverageSetting setting) {
+        String[] keywords=customKeywords(setting);
+        String key=keywords[0]+"\n"+keywords[1]+"\n"+keywords[2]+"\n"+keywords[3];
+        
+        KeywordMatcher matcher=matcherMap.get(key);
+        if(matcher==null) {
+            matcher=new KeywordMatcher();
+            matcher.add(defaultKeyword);
+            for(String keyword:keywords)
+                matcher.add(keyword);
+            
+            matcherMap.put(key, matcher);
         }
-
+        
+        return matcher;
+    }
+    
+    /*
+     * return comment datasets of ens, one for each reference, empty if no data in comments
+     * only local data are changed, so that datasets can be parsed in parallel
+     * matcher: keyword matcher from getKeywordMatcher() for the same setting
+     */
+    private Vector<CommentENSDF> parseCommentData(ENSDF ens,EnsdfAverageSetting setting,KeywordMatcher matcher) {
+        Vector<CommentENSDF> censV=new Vector<CommentENSDF>();
+        
+        String[] keywords=customKeywords(setting);
+        String ELkeyword=keywords[0];
+        String Tkeyword=keywords[1];
+        String EGkeyword=keywords[2];
+        String RIkeyword=keywords[3];
+
+        //all keywords found in a comment body in one scan; a comment with none of them has no data.
+        //A custom keyword is taken only if found exactly as given (case-sensitive), at a position
+        //in exactStarts from the same scan
+        int defaultBit=matcher.bitOf(defaultKeyword);
+        int ELindex=matcher.indexOf(ELkeyword);
+        int Tindex=matcher.indexOf(Tkeyword);
+        int EGindex=matcher.indexOf(EGkeyword);
+        int RIindex=matcher.indexOf(RIkeyword);
+        
+        int[] exactStarts=new int[matcher.size()];
 
         
         for(int i=0;i<ens.unpGammas().size();i++) {
@@ -498,6 +578,10 @@ public class AverageValuesInComments {
                 Comment com=gam.commentAt(j);
                 String chead=com.head();
                 String body=com.rawBody();
+                
+                int found=matcher.match(body,exactStarts);
+                if(found==0)
+                    continue;
                               
                 String recordName=chead;
                 String keyword=defaultKeyword;
@@ -510,20 +594,20 @@ public class AverageValuesInComments {
                 if(!done && !EGkeyword.isEmpty() && (chead.isEmpty()||chead.equals("E")) ) {
                     keyword=EGkeyword;
                     recordName="E"; 
-                    if(body.contains(EGkeyword)) 
+                    if(EGindex>=0 && exactStarts[EGindex]>=0) 
                         done=true;                       
 
                 }
                 if(!done && !RIkeyword.isEmpty() && (chead.isEmpty()||chead.equals("RI")) ) {
                     keyword=RIkeyword;
                     recordName="RI";
-                    if(body.contains(RIkeyword)) 
+                    if(RIindex>=0 && exactStarts[RIindex]>=0) 
                         done=true;                     
 
                 }
                 
                 if(!done) {
-                    if(chead.isEmpty() || !keyword.equals(defaultKeyword))
+                    if(chead.isEmpty() || !keyword.equals(defaultKeyword) || (found&defaultBit)==0)
                         continue;
                 }
                 
@@ -532,7 +616,7 @@ public class AverageValuesInComments {
                     continue;
 
                 for(DataPoint dp:dpsV) {                    
-                    addUnpCommentGammaData(ens,i,recordName,dp);
+                    addUnpCommentGammaData(censV,ens,i,recordName,dp);
                 }
             }
         }
@@ -544,6 +628,10 @@ public class AverageValuesInComments {
                 String chead=com.head();
                 String body=com.rawBody();
                 
+                int found=matcher.match(body,exactStarts);
+                if(found==0)
+                    continue;
+                
                 String recordName=chead;
                 String keyword=defaultKeyword;
                 
@@ -551,20 +639,20 @@ public class AverageValuesInComments {
                 if(!done && !ELkeyword.isEmpty() && (chead.isEmpty()||chead.equals("E")) ) {
                     keyword=ELkeyword;
                     recordName="E"; 
-                    if(body.contains(ELkeyword)) 
+                    if(ELindex>=0 && exactStarts[ELindex]>=0) 
                         done=true;                       
 
                 }
                 if(!done && !Tkeyword.isEmpty() && (chead.isEmpty()||chead.equals("T")) ) {
                     keyword=Tkeyword;
                     recordName="T";
-                    if(body.contains(Tkeyword)) 
+                    if(Tindex>=0 && exactStarts[Tindex]>=0) 
                         done=true;                     
 
                 }
                 
                 if(!done) {
-                    if(chead.isEmpty() || !keyword.equals(defaultKeyword))
+                    if(chead.isEmpty() || !keyword.equals(defaultKeyword) || (found&defaultBit)==0)
                         continue;
                 }
 
@@ -577,7 +665,7 @@ public class AverageValuesInComments {
                     continue;
                 
                 for(DataPoint dp:dpsV) {
-                    addCommentLevelData(ens,i,recordName,dp);
+                    addCommentLevelData(censV,ens,i,recordName,dp);
                 }
                 
                 //System.out.println("1  EL="+lev.ES()+" "+comRecordMap.get(com).isLevel());
@@ -590,6 +678,10 @@ public class AverageValuesInComments {
                     String chead=com.head();
                     String body=com.rawBody();
                     
+                    int found=matcher.match(body,exactStarts);
+                    if(found==0)
+                        continue;
+                    
                     String recordName=chead;
                     String keyword=defaultKeyword;
                        
@@ -597,14 +689,14 @@ public class AverageValuesInComments {
                     if(!done && !EGkeyword.isEmpty() && (chead.isEmpty()||chead.equals("E")) ) {
                         keyword=EGkeyword;
                         recordName="E"; 
-                        if(body.contains(EGkeyword)) 
+                        if(EGindex>=0 && exactStarts[EGindex]>=0) 
                             done=true;                       
 
                     }
                     if(!done && !RIkeyword.isEmpty() && (chead.isEmpty()||chead.equals("RI")) ) {
                         keyword=RIkeyword;
                         recordName="RI";
-                        if(body.contains(RIkeyword)) 
+                        if(RIindex>=0 && exactStarts[RIindex]>=0) 
                             done=true;                     
 
                     }
@@ -613,7 +705,7 @@ public class AverageValuesInComments {
                     //System.out.println(" body="+body+"  keyword="+keyword+"  RIkeyword="+RIkeyword +" done="+done);
                     
                     if(!done) {
-                        if(chead.isEmpty() || !keyword.equals(defaultKeyword))
+                        if(chead.isEmpty() || !keyword.equals(defaultKeyword) || (found&defaultBit)==0)
                             continue;
                     }
 
@@ -631,7 +723,7 @@ public class AverageValuesInComments {
                         
                         //System.out.println("dsid="+ens.DSId0()+" lev="+lev.ES()+" gam="+gam.ES()+" name="+recordName+" value="+dp.s()+" ref="+dp.label());
                         
-                        addCommentGammaData(ens,levelIndex,gammaIndex,recordName,dp);
+                        addCommentGammaData(censV,ens,levelIndex,gammaIndex,recordName,dp);
                     }
                     //System.out.println("2 EG="+gam.ES()+" "+comRecordMap.get(com).isLevel());
                 }
@@ -639,7 +731,6 @@ public class AverageValuesInComments {
         } 
         
         //convert RI to BR (PN=6) for each comment dataset
-        Vector<CommentENSDF> censV=getCommentENSDFs(ens);
         if(censV!=null) {
             for(CommentENSDF cens:censV) {
                 for(CommentLevel CLev:cens.CLevels) {
@@ -719,6 +810,7 @@ public class AverageValuesInComments {
             }            
         }
 
+        return censV;
     }
     
     /*
@@ -0,0 +1,167 @@
+package consistency.base;
+
+import java.util.Vector;
+import java.util.concurrent.Callable;
+
+import ensdfparser.ensdf.ContRecord;
+import ensdfparser.ensdf.ENSDF;
+import ensdfparser.ensdf.Gamma;
+import ensdfparser.ensdf.Level;
+import ensdfparser.ensdf.Nucleus;
+import ensdfparser.ensdf.SDS2XDX;
+import ensdfparser.nds.util.Str;
+
+/*
+ * ratio B(E2)(4+->2+)/B(E2)(2+->0+) of the ground-state band of even-even nuclides, from
+ * BE2W(DWN) of gammas in Adopted Levels, Gammas datasets
+ *
+ * It works on parsed datasets, for all groups of a check at once for .be2 output (see
+ * writeBE2Ratios() in ConsistencyCheck; datasets are calculated in parallel, see ParallelTasks,
+ * and results are in the order of datasets), or on one block of lines (see Util.printBE2Ratio()).
+ */
+public class BE2RatioCalculator {
+
+	public static class Result{
+		String NUCID="";
+		String Z="";
+		float e2=-1,e4=-1;//energies of 2+ and 4+ levels
+		SDS2XDX be2=null,be4=null,ratio=null;
+
+		public String NUCID(){return NUCID;}
+		public SDS2XDX be2(){return be2;}
+		public SDS2XDX be4(){return be4;}
+		public SDS2XDX ratio(){return ratio;}
+
+		//same line as printed by Util.printBE2Ratio()
+		public String printLine(){
+			return NUCID+"    "+String.format("Z=%3s     B(E2)20=%8s %4s       B(E2)42=%8s %4s     ratio=%6s  %3s",Z,be2.S(),be2.DS(),be4.S(),be4.DS(),ratio.S(),ratio.DS());
+		}
+	}
+
+	private BE2RatioCalculator(){}
+
+	/*
+	 * BE2 ratio of an Adopted dataset of an even-even nuclide, or null if it is not available
+	 * levels are searched up to the 7th level for the first 2+ and 4+ levels
+	 */
+	public static Result calculate(ENSDF ens){
+		if(ens==null || !ens.DSId0().contains("ADOPTED LEVELS"))
+			return null;
+
+		Nucleus nuc=ens.nucleus();
+		if(nuc==null || nuc.A()%2!=0 || nuc.z()%2!=0)
+			return null;
+
+		Result result=new Result();
+		result.NUCID=nuc.nameENSDF();
+		if(ens.lines().size()>0 && ens.lines().get(0).length()>=5)
+			result.NUCID=ens.lines().get(0).substring(0,5);
+
+		result.Z=""+nuc.Z();
+
+		boolean findBE2=false,findBE4=false;
+		String js="";
+		for(int i=0;i<ens.nLevels();i++){
+			Level lev=ens.levelAt(i);
+			js=lev.JPiS().replace("(","").replace(")","").trim();
+
+			if(js.equals("2+") && !findBE2){
+				for(int j=0;j<lev.nGammas();j++){
+					Gamma gam=lev.gammaAt(j);
+					ContRecord rc=be2Record(gam);
+
+					if(Math.abs(gam.EF()-lev.EF())<5 && (rc!=null&&rc.s().length()>0)){
+						findBE2=true;
+						result.e2=lev.EF();
+						result.be2=new SDS2XDX(rc.s(),rc.ds());
+					}
+				}
+			}
+
+			if(js.equals("4+")&&findBE2){
+				for(int j=0;j<lev.nGammas();j++){
+					Gamma gam=lev.gammaAt(j);
+					ContRecord rc=be2Record(gam);
+
+					if(Math.abs(lev.EF()-result.e2-gam.EF())<5 && (rc!=null&&rc.s().length()>0)){
+						findBE4=true;
+						result.e4=lev.EF();
+						result.be4=new SDS2XDX(rc.s(),rc.ds());
+					}
+				}
+			}
+
+			if((findBE2&&findBE4) || i>5)
+				break;
+		}
+
+		if(!findBE2 || !findBE4 || result.be2==null || result.be4==null)
+			return null;
+
+		SDS2XDX r=result.be4.divided(result.be2);
+		if(r.x()<1 && (Str.isNumeric(r.ds())||r.ds().isEmpty()) && Str.isNumeric(r.s())){
+			result.ratio=r;
+			return result;
+		}
+
+		return null;
+	}
+
+	private static ContRecord be2Record(Gamma gam){
+		try{
+			return gam.contRecordsVMap().get("BE2WDWN").get(0);
+		}catch(Exception e){}
+
+		return null;
+	}
+
+	/*
+	 * results of all datasets with BE2 ratio, in the order of datasets
+	 */
+	public static Vector<Result> calculate(Vector<ENSDF> ensV) throws Exception{
+		Vector<Callable<Result>> tasks=new Vector<Callable<Result>>();
+		for(final ENSDF ens:ensV){
+			tasks.add(new Callable<Result>(){
+				public Result call(){
+					try{
+						return calculate(ens);
+					}catch(Exception e){
+						return null;//incomplete records, no ratio
+					}
+				}
+			});
+		}
+
+		Vector<Result> resultsV=new Vector<Result>();
+		for(Result r:ParallelTasks.invokeAll(tasks)){
+			if(r!=null)
+				resultsV.add(r);
+		}
+
+		return resultsV;
+	}
+
+	//from Adopted dataset of each group
+	public static Vector<Result> calculateForGroups(Vector<EnsdfGroup> ensdfGroupsV) throws Exception{
+		Vector<ENSDF> ensV=new Vector<ENSDF>();
+		for(EnsdfGroup g:ensdfGroupsV){
+			if(g.adopted()!=null)
+				ensV.add(g.adopted());
+		}
+
+		return calculate(ensV);
+	}
+
+	public static String printReport(Vector<Result> resultsV){
+		StringBuilder sb=new StringBuilder();
+		sb.append("B(E2)(4+->2+)/B(E2)(2+->0+) ratios of even-even nuclides from BE2W(DWN) in Adopted Gammas\n");
+		sb.append(String.format("%-5s  %3s  %10s %8s %4s  %10s %8s %4s  %6s %3s\n","NUCID","Z","E(2+)","B(E2)20","","E(4+)","B(E2)42","","ratio",""));
+		for(Result r:resultsV){
+			sb.append(String.format("%-5s  %3s  %10.2f %8s %4s  %10.2f %8s %4s  %6s %3s\n",r.NUCID,r.Z,r.e2,r.be2.S(),r.be2.DS(),
+					r.e4,r.be4.S(),r.be4.DS(),r.ratio.S(),r.ratio.DS()));
+		}
+		sb.append("Total "+resultsV.size()+" nuclides\n");
+
+		return sb.toString();
+	}
+}
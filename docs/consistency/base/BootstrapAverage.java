@@ -0,0 +1,196 @@
+package consistency.base;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+
+import ensdfparser.calc.DataPoint;
+import ensdfparser.ensdf.SDS2XDX;
+import ensdfparser.nds.util.Str;
+
+/*
+ * bootstrap average of data points: in each resample, n values are drawn with replacement
+ * from n data points, each value smeared by a normal distribution of its uncertainty (upper
+ * or lower for asymmetric uncertainty), and the median of the n values is taken. The average
+ * is the mean of all medians and the uncertainty is their standard deviation.
+ *
+ * Resamples are split into a fixed number of blocks, each with its own random stream split
+ * from the seed in block order, and blocks are run in parallel (see ParallelTasks). Since the
+ * blocks and the order of summing do not depend on the number of threads, the result is
+ * the same for the same seed and number of resamples on any machine.
+ *
+ * Bootstrap of good data points of an average report is made by getBootstrapAverage() and
+ * printed by printBootstrapAverage() in AverageReport.
+ */
+public class BootstrapAverage {
+
+	public static final long defaultSeed=20260114L;
+	private static final int nBlocks=64;
+
+	private double[] x,dxu,dxl;//data points with positive uncertainties
+
+	private int nResamples=0;
+	private long seed=defaultSeed;
+	private double value=Double.NaN,error=Double.NaN;
+	private double lower=Double.NaN,upper=Double.NaN;//16% and 84% quantiles of medians
+
+	public BootstrapAverage(double[] x,double[] dxu,double[] dxl){
+		this.x=x;
+		this.dxu=dxu;
+		this.dxl=dxl;
+	}
+
+	/*
+	 * data points with numerical values and positive uncertainties, others (limits, no
+	 * uncertainty) are skipped
+	 */
+	public static BootstrapAverage of(Vector<DataPoint> dpsV){
+		double[] x=new double[dpsV.size()];
+		double[] dxu=new double[dpsV.size()];
+		double[] dxl=new double[dpsV.size()];
+
+		int n=0;
+		for(DataPoint dp:dpsV){
+			double v=dp.x(),du=dp.dx(),dl=dp.dx();
+
+			String s=dp.s(),ds=dp.ds();
+			if(s!=null && !s.isEmpty()){
+				if(!Str.isNumeric(s) || ds==null || ds.isEmpty())
+					continue;
+				if(!Str.isNumeric(ds) && !ds.contains("+"))
+					continue;
+
+				SDS2XDX s2x=new SDS2XDX(s,ds);
+				v=s2x.x();
+				du=s2x.dxu();
+				dl=s2x.dxl();
+			}
+
+			if(du<=0 || dl<=0)
+				continue;
+
+			x[n]=v;
+			dxu[n]=du;
+			dxl[n]=dl;
+			n++;
+		}
+
+		return new BootstrapAverage(Arrays.copyOf(x,n),Arrays.copyOf(dxu,n),Arrays.copyOf(dxl,n));
+	}
+
+	public int nDataPoints(){return x.length;}
+
+	/*
+	 * run nResamples resamples with random streams from seed
+	 * return false if there are no data points
+	 */
+	public boolean run(int nResamples,long seed) throws Exception{
+		this.nResamples=nResamples;
+		this.seed=seed;
+
+		value=Double.NaN;
+		error=Double.NaN;
+		lower=Double.NaN;
+		upper=Double.NaN;
+
+		if(x.length==0 || nResamples<=0)
+			return false;
+
+		final double[] medians=new double[nResamples];
+
+		//split streams in block order before running, so that each block always gets the same stream
+		SplittableRandom root=new SplittableRandom(seed);
+		Vector<Callable<Void>> tasks=new Vector<Callable<Void>>();
+		int blockSize=(nResamples+nBlocks-1)/nBlocks;
+		for(int start=0;start<nResamples;start+=blockSize){
+			final int from=start;
+			final int to=Math.min(start+blockSize,nResamples);
+			final SplittableRandom random=root.split();
+
+			tasks.add(new Callable<Void>(){
+				public Void call(){
+					resample(medians,from,to,random);
+					return null;
+				}
+			});
+		}
+
+		ParallelTasks.invokeAll(tasks);
+
+		double sum=0;
+		for(int i=0;i<nResamples;i++)
+			sum+=medians[i];
+
+		value=sum/nResamples;
+
+		double sum2=0;
+		for(int i=0;i<nResamples;i++){
+			double d=medians[i]-value;
+			sum2+=d*d;
+		}
+
+		error=nResamples>1?Math.sqrt(sum2/(nResamples-1)):0;
+
+		Arrays.sort(medians);
+		lower=medians[(int)(0.1587*(nResamples-1))];
+		upper=medians[(int)(0.8413*(nResamples-1))];
+
+		return true;
+	}
+
+	//fill medians[from,to) with medians of resamples
+	private void resample(double[] medians,int from,int to,SplittableRandom random){
+		int n=x.length;
+		double[] values=new double[n];
+
+		for(int k=from;k<to;k++){
+			for(int i=0;i<n;i++){
+				int j=random.nextInt(n);
+				double g=nextGaussian(random);
+				values[i]=x[j]+g*(g>=0?dxu[j]:dxl[j]);
+			}
+
+			Arrays.sort(values);
+			if(n%2==1)
+				medians[k]=values[n/2];
+			else
+				medians[k]=0.5*(values[n/2-1]+values[n/2]);
+		}
+	}
+
+	//standard normal by polar method, using only the given stream
+	private static double nextGaussian(SplittableRandom random){
+		double v1,v2,s;
+		do{
+			v1=2*random.nextDouble()-1;
+			v2=2*random.nextDouble()-1;
+			s=v1*v1+v2*v2;
+		}while(s>=1 || s==0);
+
+		return v1*Math.sqrt(-2*Math.log(s)/s);
+	}
+
+	public double value(){return value;}
+	public double error(){return error;}
+	public double lowerQuantile(){return lower;}
+	public double upperQuantile(){return upper;}
+	public int nResamples(){return nResamples;}
+	public long seed(){return seed;}
+
+	public String printReport(){
+		String out="";
+		out+="Bootstrap method (median of resampled values smeared by uncertainties)\n";
+		out+=String.format("  number of data points=%d, number of resamples=%d, seed=%d\n", x.length,nResamples,seed);
+
+		if(Double.isNaN(value)){
+			out+="  no average: no data point with numerical value and uncertainty\n";
+			return out;
+		}
+
+		out+=String.format("  average=%.6g, uncertainty=%.6g\n", value,error);
+		out+=String.format("  68%% interval of medians: [%.6g, %.6g] (+%.3g-%.3g)\n", lower,upper,upper-value,value-lower);
+
+		return out;
+	}
+}
@@ -19,6 +19,34 @@ public class CheckControl extends BaseControl{
 	public static boolean writeMRG=false;
 	public static boolean writeAVG=false;
 	public static boolean writeFED=false;
+	public static boolean writeBE2=false;//B(E2) ratios of even-even nuclides (see BE2RatioCalculator)
+	
+	//re-check only nuclides with any dataset changed since last run and reuse
+	//saved results (in .chk file) of other nuclides
+	public static boolean incrementalCheck=false;
+	
+	//lightweight check for .err and .wrn outputs only: no other outputs, averaging, format
+	//or keynumber check
+	public static boolean errorsOnly=false;
+	
+	//save time of each stage of a full check in .tim file, or print time saved compared to it
+	//in an errors-only check
+	public static boolean writeTIM=false;
+	
+	//number of threads for parallel checking and averaging (<=0 for number of processors)
+	public static int nThreads=0;
+	
+	//maximum number of averaging results cached in a session (<=0 to disable), see AverageCache
+	public static int averageCacheSize=2000;
+	
+	//file for saving averaging reports for next run (empty for not saving)
+	public static String averageCacheFile="";
+	
+	//file for saving data points parsed from comments for next run (empty for no cache), see CommentDataCache
+	public static String commentCacheFile="";
+	
+	//file for saving level and gamma grouping for next run (empty for no snapshot), see GroupingSnapshot
+	public static String groupingSnapshotFile="";
 	
 	//Normalize gamma intensities in each dataset to relative
 	//intensity from each level (PN=6) for Adopted Gammas
@@ -0,0 +1,89 @@
+package consistency.base;
+
+import java.util.IdentityHashMap;
+import java.util.regex.Pattern;
+
+import ensdfparser.ensdf.Comment;
+import ensdfparser.nds.util.Str;
+
+/*
+ * classify each comment only once for checking values quoted from Adopted datasets.
+ * Results are cached on the identity of Comment objects (not on comment text), since
+ * the same Comment is checked repeatedly for each record name and each check function
+ *
+ * All regular expressions used for splitting comment text in these checks are compiled
+ * here once instead of in each call of String.split(), and sentences of a comment are
+ * tokenized only once (see CommentTokens)
+ *
+ * It is safe to be used from parallel averaging: the map is synchronized and lazily
+ * classified values are the same whichever thread sets them first
+ */
+public class CommentClassifier {
+
+	public static final Pattern sentencePattern=Pattern.compile("[.;]+");
+	public static final Pattern wordPattern=Pattern.compile("[\\s+;,]+");
+	public static final Pattern multPattern=Pattern.compile("[,\\s]+");
+	public static final Pattern spacePattern=Pattern.compile("[\\s]+");
+
+	//store classification of a comment
+	static class CommentInfo{
+		String upperBody;//trimmed and upper-cased comment body
+		boolean hasAdopted;//if upperBody contains "ADOPTED"
+		volatile Boolean isQuotedFromAdopted=null;//null if not classified yet
+		volatile String adoptedValue=null;//value quoted from Adopted in comment; null if not extracted yet
+		volatile CommentTokens[] sentenceTokens=null;//tokens of trimmed sentences of upperBody; null if not tokenized yet
+
+		CommentInfo(Comment c){
+			upperBody=c.body().trim().toUpperCase();
+			hasAdopted=upperBody.contains("ADOPTED");
+		}
+	}
+
+	private IdentityHashMap<Comment,CommentInfo> commentInfoMap=new IdentityHashMap<Comment,CommentInfo>();
+
+	public CommentClassifier(){
+	}
+
+	synchronized CommentInfo getInfo(Comment c){
+		CommentInfo info=commentInfoMap.get(c);
+		if(info==null){
+			info=new CommentInfo(c);
+			commentInfoMap.put(c, info);
+		}
+
+		return info;
+	}
+
+	/*
+	 * tokens of each trimmed sentence of the upper-cased comment body, split by "." or ";"
+	 * (not decimal points, see Str.specialSplit())
+	 */
+	CommentTokens[] sentenceTokens(Comment c){
+		CommentInfo info=getInfo(c);
+		if(info.sentenceTokens==null){
+			String[] lines=Str.specialSplit(info.upperBody, "[.;]+");
+
+			CommentTokens[] tokens=new CommentTokens[lines.length];
+			for(int i=0;i<lines.length;i++)
+				tokens[i]=new CommentTokens(lines[i].trim());
+
+			info.sentenceTokens=tokens;
+		}
+
+		return info.sentenceTokens;
+	}
+
+	public String upperBody(Comment c){
+		return getInfo(c).upperBody;
+	}
+
+	public boolean hasAdopted(Comment c){
+		return getInfo(c).hasAdopted;
+	}
+
+	public synchronized void clear(){
+		commentInfoMap.clear();
+	}
+
+	public synchronized int size(){return commentInfoMap.size();}
+}
@@ -0,0 +1,399 @@
+package consistency.base;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Vector;
+
+import ensdfparser.calc.DataPoint;
+import ensdfparser.ensdf.Comment;
+
+/*
+ * persistent cache of data points parsed from comments (see Util.parseDatapointsInComments()),
+ * keyed by a 128-bit hash of the comment text and head, keyword, label option and parser
+ * version (Util.commentParserVersion), so that comments unchanged since last run are not
+ * parsed again
+ *
+ * File format (binary):
+ *   header: magic, format version, program version (CheckControl.version), parser version,
+ *           number of entries
+ *   index:  entries sorted by key, each as two longs of key and int offset of data
+ *   data:   for each entry, number of data points and for each: x, dxu, dxl, label, s, ds, unit
+ * A file with a different format, program or parser version is ignored and written again.
+ *
+ * The file is read into memory as it is when loaded (not memory-mapped, so that it can be
+ * replaced in save()) and looked up by binary search in the index without decoding all
+ * entries; entries of this run are kept in memory and merged into the file in save().
+ *
+ * file is set by CheckControl.commentCacheFile (empty for no cache)
+ */
+public class CommentDataCache {
+
+	private static final int magic=0x45434443;//"ECDC"
+	private static final int cacheFormatVersion=1;
+	private static final int headerSize=4+4+4+4;//without the program version string
+	private static final int indexEntrySize=8+8+4;
+
+	private static CommentDataCache shared=null;
+
+	//data point parsed from a comment
+	public static class Value{
+		final double x,dxu,dxl;
+		final String label,s,ds,unit;
+
+		public Value(double x,double dxu,double dxl,String label,String s,String ds,String unit){
+			this.x=x;
+			this.dxu=dxu;
+			this.dxl=dxl;
+			this.label=label;
+			this.s=s;
+			this.ds=ds;
+			this.unit=unit;
+		}
+
+		//same as made in Util.parseDatapointsInComments()
+		public DataPoint toDataPoint(){
+			DataPoint dp=new DataPoint(x,dxu,dxl,label);
+			dp.setS(s,ds);
+			dp.setUnit(unit);
+
+			return dp;
+		}
+	}
+
+	private static class Key implements Comparable<Key>{
+		final long h1,h2;
+
+		Key(long h1,long h2){
+			this.h1=h1;
+			this.h2=h2;
+		}
+
+		@Override
+		public boolean equals(Object o){
+			if(!(o instanceof Key))
+				return false;
+
+			Key k=(Key)o;
+			return h1==k.h1 && h2==k.h2;
+		}
+
+		@Override
+		public int hashCode(){return (int)(h1^(h1>>>32));}
+
+		public int compareTo(Key k){
+			int c=Long.compare(h1,k.h1);
+			return c!=0?c:Long.compare(h2,k.h2);
+		}
+	}
+
+	private String filename="";
+
+	private ByteBuffer fileData=null;//content of the file loaded
+	private int nInFile=0,indexStart=0;
+
+	private HashMap<Key,Value[]> newEntryMap=new HashMap<Key,Value[]>();
+
+	private long nHits=0,nMisses=0;
+
+	public CommentDataCache(){
+	}
+
+	/*
+	 * cache shared in this session, loaded from CheckControl.commentCacheFile, or null if no file is set
+	 */
+	public static synchronized CommentDataCache shared(){
+		if(CheckControl.commentCacheFile.isEmpty())
+			return null;
+
+		if(shared==null){
+			shared=new CommentDataCache();
+			shared.load(CheckControl.commentCacheFile);
+		}
+
+		return shared;
+	}
+
+	/*
+	 * key of the comment data parsed with keyword; parsing depends only on the text and head
+	 * of the comment
+	 */
+	public static Object makeKey(Comment c,String keyword,boolean shortenLabel){
+		StringBuilder sb=new StringBuilder();
+		sb.append(Util.commentParserVersion).append('|').append(keyword).append('|').append(shortenLabel)
+		  .append('|').append(c.head()).append('|').append(c.rawBody());
+
+		try{
+			MessageDigest md=MessageDigest.getInstance("SHA-1");
+			ByteBuffer bytes=ByteBuffer.wrap(md.digest(sb.toString().getBytes(StandardCharsets.UTF_8)));
+
+			return new Key(bytes.getLong(),bytes.getLong());
+		}catch(Exception e){
+			return null;
+		}
+	}
+
+	/*
+	 * cached data points of key, made new for each call since callers change labels,
+	 * or null if not cached
+	 */
+	public Vector<DataPoint> get(Object key){
+		if(!(key instanceof Key))
+			return null;
+
+		Value[] values=null;
+		synchronized(this){
+			values=newEntryMap.get(key);
+			if(values==null)
+				values=findInFile((Key)key);
+
+			if(values!=null)
+				nHits++;
+			else
+				nMisses++;
+		}
+
+		if(values==null)
+			return null;
+
+		Vector<DataPoint> dpsV=new Vector<DataPoint>();
+		for(Value v:values)
+			dpsV.add(v.toDataPoint());
+
+		return dpsV;
+	}
+
+	public synchronized void put(Object key,Vector<Value> valuesV){
+		if(!(key instanceof Key) || valuesV==null)
+			return;
+
+		newEntryMap.put((Key)key, valuesV.toArray(new Value[valuesV.size()]));
+	}
+
+	public synchronized String getStatistics(){
+		return "comment data cache: hits="+nHits+", misses="+nMisses+", entries in file="+nInFile+", new entries="+newEntryMap.size();
+	}
+
+	//binary search in index of loaded file
+	private Value[] findInFile(Key key){
+		if(fileData==null)
+			return null;
+
+		ByteBuffer buf=fileData.duplicate();
+
+		int low=0,high=nInFile-1;
+		while(low<=high){
+			int mid=(low+high)>>>1;
+			int pos=indexStart+mid*indexEntrySize;
+
+			int c=Long.compare(buf.getLong(pos),key.h1);
+			if(c==0)
+				c=Long.compare(buf.getLong(pos+8),key.h2);
+
+			if(c<0)
+				low=mid+1;
+			else if(c>0)
+				high=mid-1;
+			else
+				return readValues(buf,buf.getInt(pos+16));
+		}
+
+		return null;
+	}
+
+	private static Value[] readValues(ByteBuffer buf,int offset){
+		buf.position(offset);
+
+		int n=buf.getInt();
+		Value[] values=new Value[n];
+		for(int i=0;i<n;i++){
+			double x=buf.getDouble();
+			double dxu=buf.getDouble();
+			double dxl=buf.getDouble();
+			values[i]=new Value(x,dxu,dxl,readString(buf),readString(buf),readString(buf),readString(buf));
+		}
+
+		return values;
+	}
+
+	private static String readString(ByteBuffer buf){
+		byte[] bytes=new byte[buf.getInt()];
+		buf.get(bytes);
+
+		return new String(bytes,StandardCharsets.UTF_8);
+	}
+
+	private static void writeString(DataOutputStream out,String s) throws IOException{
+		byte[] bytes=(s==null?"":s).getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static byte[] toBytes(Value[] values) throws IOException{
+		ByteArrayOutputStream bytes=new ByteArrayOutputStream();
+		DataOutputStream out=new DataOutputStream(bytes);
+
+		out.writeInt(values.length);
+		for(Value v:values){
+			out.writeDouble(v.x);
+			out.writeDouble(v.dxu);
+			out.writeDouble(v.dxl);
+			writeString(out,v.label);
+			writeString(out,v.s);
+			writeString(out,v.ds);
+			writeString(out,v.unit);
+		}
+		out.flush();
+
+		return bytes.toByteArray();
+	}
+
+	/*
+	 * read the cache file saved in last session, ignored if it is from a different version
+	 */
+	public synchronized void load(String filename){
+		this.filename=filename;
+
+		fileData=null;
+		nInFile=0;
+
+		File f=new File(filename);
+		if(!f.exists() || f.length()<headerSize)
+			return;
+
+		try{
+			ByteBuffer buf=ByteBuffer.wrap(Files.readAllBytes(f.toPath()));
+
+			if(buf.getInt()!=magic || buf.getInt()!=cacheFormatVersion)
+				return;
+
+			if(!readString(buf).equals(CheckControl.version) || buf.getInt()!=Util.commentParserVersion)
+				return;
+
+			int n=buf.getInt();
+			if(n<0 || buf.position()+(long)n*indexEntrySize>buf.limit())
+				return;
+
+			indexStart=buf.position();
+			nInFile=n;
+			fileData=buf;
+		}catch(Exception e){
+			fileData=null;
+			nInFile=0;
+		}
+	}
+
+	/*
+	 * save entries of the loaded file and new entries of this session to the file set in load(),
+	 * written to a temporary file first, which then replaces the file (see Util.replaceFile())
+	 * If the file can not be replaced, it is left unchanged and new entries are kept in memory
+	 */
+	public synchronized void save(){
+		if(filename.isEmpty() || newEntryMap.isEmpty())
+			return;
+
+		ArrayList<Key> keys=new ArrayList<Key>(newEntryMap.keySet());
+		HashMap<Key,byte[]> dataMap=new HashMap<Key,byte[]>();
+
+		DataOutputStream out=null;
+		File f=new File(filename);
+		File tmp=new File(filename+".tmp");
+		boolean isSaved=false;
+		try{
+			for(Key key:keys)
+				dataMap.put(key, toBytes(newEntryMap.get(key)));
+
+			//raw data of entries in the loaded file, kept unless replaced
+			if(fileData!=null){
+				ByteBuffer buf=fileData.duplicate();
+				for(int i=0;i<nInFile;i++){
+					int pos=indexStart+i*indexEntrySize;
+					Key key=new Key(buf.getLong(pos),buf.getLong(pos+8));
+					if(dataMap.containsKey(key))
+						continue;
+
+					int offset=buf.getInt(pos+16);
+					int end=endOfValues(buf,offset);
+
+					byte[] bytes=new byte[end-offset];
+					buf.position(offset);
+					buf.get(bytes);
+
+					keys.add(key);
+					dataMap.put(key, bytes);
+				}
+			}
+
+			Collections.sort(keys);
+
+			byte[] versionBytes=CheckControl.version.getBytes(StandardCharsets.UTF_8);
+			int offset=headerSize+4+versionBytes.length+keys.size()*indexEntrySize;
+
+			out=new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp),1<<16));
+			out.writeInt(magic);
+			out.writeInt(cacheFormatVersion);
+			out.writeInt(versionBytes.length);
+			out.write(versionBytes);
+			out.writeInt(Util.commentParserVersion);
+			out.writeInt(keys.size());
+
+			for(Key key:keys){
+				out.writeLong(key.h1);
+				out.writeLong(key.h2);
+				out.writeInt(offset);
+				offset+=dataMap.get(key).length;
+			}
+			for(Key key:keys)
+				out.write(dataMap.get(key));
+
+			out.close();
+			out=null;
+
+			Util.replaceFile(tmp, f);
+
+			newEntryMap.clear();
+			isSaved=true;
+		}catch(Exception e){
+			//old file is unchanged and new entries are kept for next save in this session
+			e.printStackTrace();
+		}
+
+		try{
+			if(out!=null)
+				out.close();
+		}catch(Exception e){}
+
+		//left only if saving failed
+		if(tmp.exists())
+			tmp.delete();
+
+		if(isSaved)
+			load(filename);
+	}
+
+	//end of data of an entry starting at offset
+	private static int endOfValues(ByteBuffer buf,int offset){
+		buf.position(offset);
+
+		int n=buf.getInt();
+		for(int i=0;i<n;i++){
+			buf.position(buf.position()+3*8);
+			for(int j=0;j<4;j++){
+				int len=buf.getInt();
+				buf.position(buf.position()+len);
+			}
+		}
+
+		return buf.position();
+	}
+}
@@ -0,0 +1,57 @@
+package consistency.base;
+
+/*
+ * immutable token stream of a piece of comment text, made once and shared by the extractors
+ * of values quoted from Adopted datasets in comments (see extractAdoptedValueInComment() in
+ * ConsistencyCheck), instead of each extractor checking and splitting the same text again
+ *
+ * Tokens are the same as split by CommentClassifier.spacePattern. Sentences of a comment
+ * are tokenized once per Comment and cached in CommentClassifier.
+ */
+final class CommentTokens {
+
+	static final CommentTokens EMPTY=new CommentTokens("");
+
+	private final String text;
+	private final String[] tokens;
+	private final boolean hasDigit;//if text contains any of "0123456789"
+	private final int firstDigit,lastDigit;//positions of first and last Character.isDigit(), -1 if none
+
+	CommentTokens(String text){
+		this.text=text;
+
+		boolean hasDigit=false;
+		int firstDigit=-1,lastDigit=-1;
+		for(int i=0;i<text.length();i++){
+			char c=text.charAt(i);
+			if(c>='0' && c<='9')
+				hasDigit=true;
+
+			if(Character.isDigit(c)){
+				if(firstDigit<0)
+					firstDigit=i;
+				lastDigit=i;
+			}
+		}
+
+		this.hasDigit=hasDigit;
+		this.firstDigit=firstDigit;
+		this.lastDigit=lastDigit;
+
+		tokens=CommentClassifier.spacePattern.split(text);
+	}
+
+	String text(){return text;}
+	boolean hasDigit(){return hasDigit;}
+	int firstDigit(){return firstDigit;}
+	int lastDigit(){return lastDigit;}
+	boolean isEmpty(){return text.isEmpty();}
+
+	int nTokens(){return tokens.length;}
+	String tokenAt(int i){return tokens[i];}
+
+	//tokens of this text and other text joined by a space
+	CommentTokens join(CommentTokens other){
+		return new CommentTokens(text+" "+other.text);
+	}
+}
@@ -9,9 +9,12 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.Callable;
 
 import ame.base.AMEEntry;
 import ame.base.AMERun;
@@ -98,6 +101,26 @@ public class ConsistencyCheck {
 	private HashMap<ENSDF,HashMap<String,String>> mapOfensFromAdoptedRecordNameMap=new HashMap<ENSDF,HashMap<String,String>>();
 	private HashMap<ENSDF,HashMap<String,String>> mapOfensFootnoteRecordNameMap=new HashMap<ENSDF,HashMap<String,String>>();
 	
+	//flag indexes of the two maps above of each dataset, and of the two current maps (see flagIndexOf())
+	private IdentityHashMap<HashMap<String,String>,FootnoteFlagIndex> footnoteFlagIndexMap=new IdentityHashMap<HashMap<String,String>,FootnoteFlagIndex>();
+	private FootnoteFlagIndex currentFromAdoptedFlagIndex=new FootnoteFlagIndex(null);
+	private FootnoteFlagIndex currentFootnotedFlagIndex=new FootnoteFlagIndex(null);
+	
+	//minimum number of bands in a dataset for checking bands in parallel
+	private static final int minBandsForParallelCheck=8;
+	
+	//results of previous run for incremental re-check; null for a full check
+	private EnsdfCheckCache checkCache=null;
+	
+	//time (in ms) spent in each stage of the current run, key=stage name
+	private LinkedHashMap<String,Long> stageTimeMap=new LinkedHashMap<String,Long>();
+	
+	//classification of comments for "from Adopted", each comment is classified only once
+	private CommentClassifier commentClassifier=new CommentClassifier();
+	
+	//results of averaging stage for the output being written, see makeAverageResults()
+	private AverageResults averageResults=null;
+	
     public ConsistencyCheck(){
 		scannedLevelXRefMap=new HashMap<String,String>();
 		dsidXTagMapFromXREF=new HashMap<String,String>();
@@ -181,7 +204,7 @@ public class ConsistencyCheck {
 		    if(name.equals("E"))
 		    	name=name+rec.recordLine().charAt(7);
 		    
-			if(currentFromAdoptedRecordNameMap.get(name).trim().isEmpty())
+			if(currentFromAdoptedFlagIndex.isGeneralOnly(name))
 				return true;
 		}catch(Exception e){}
 		
@@ -201,7 +224,9 @@ public class ConsistencyCheck {
 		    if(name.equals("E"))
 		    	name=name+rec.recordLine().charAt(7);
 		    
-			String fromAdoptedFlags=currentFromAdoptedRecordNameMap.get(name).trim();			
+			if(!currentFromAdoptedFlagIndex.hasName(name))
+				return false;
+			
 			String recordFlags=rec.flag();
 			
 			//if(recordName.equals("J") && recordFlags.equals("B")){
@@ -212,13 +237,11 @@ public class ConsistencyCheck {
 			//if fromAdoptedFlags contains " ", it means recordName is in fromAdoptedRecordNameMap and there is
 			//a general comment (no flag) for this kind of record that they are from Adopted
 			//if fromAdoptedFlags=null if it is not in fromAdoptedRecordNameMap
-			if(fromAdoptedFlags.isEmpty())
+			if(currentFromAdoptedFlagIndex.isGeneralOnly(name))
 				return true;
 			
-			
-			for(int i=0;i<recordFlags.length();i++)
-				if(fromAdoptedFlags.contains(recordFlags.substring(i,i+1)))
-					return true;
+			if(currentFromAdoptedFlagIndex.hasAnyFlag(name,recordFlags,true))
+				return true;
 		}catch(Exception e){}
 		
 		return false;
@@ -226,6 +249,10 @@ public class ConsistencyCheck {
 	
 	
 	public boolean isRecordFromAdopted(Record rec,String recordName,HashMap<String,String> fromAdoptedRecordNameMap){
+		return isRecordFromAdopted(rec,recordName,fromAdoptedRecordNameMap,currentFootnotedRecordNameMap);
+	}
+	
+	private boolean isRecordFromAdopted(Record rec,String recordName,HashMap<String,String> fromAdoptedRecordNameMap,HashMap<String,String> footnotedRecordNameMap){
 		try{
 			
 			if(rec==null || recordName.isEmpty())
@@ -294,9 +321,9 @@ public class ConsistencyCheck {
 	    	//if the record has other flagged comments, it is considered that it is the source/argument for the record,
 	    	//in another word, the record is not from adopted, otherwise (has other in-line comments or no comment), 
 		    //the record is still considered from adopted as stated in the general footnote
-			if(hasGeneralFootnote && !hasFlaggedCommentFor(rec, recordName)){
+			if(hasGeneralFootnote && !hasFlaggedCommentFor(rec,recordName,footnotedRecordNameMap)){
 			    
-	            if(hasCommentFor(rec,recordName)) {
+	            if(hasCommentFor(rec,recordName,footnotedRecordNameMap)) {
 	                //there is a general footnote stating "from Adopted" but also in-line comment 
 	                //has other in-line comments starting with words "FROM","DEDUCED","PROPOSED".
 	                
@@ -305,7 +332,7 @@ public class ConsistencyCheck {
 	                    if(!c.hasHead(recordName))
 	                        continue;
 	                    
-	                    String s=c.body().trim().toUpperCase();
+	                    String s=commentClassifier.upperBody(c);
 	                    while(true) {
 	                        int n=s.indexOf(".");
 	                        if(n<=0 || n==s.length()-1)
@@ -318,8 +345,8 @@ public class ConsistencyCheck {
 	                        
 	                        break;
 	                    }
-	                    String[] lines=s.split("[\\s+;,]+");
-	                    s=lines[0].toUpperCase().trim();
+	                    String[] lines=CommentClassifier.wordPattern.split(s);
+	                    s=lines[0].trim();
 	                    if(!s.contains("ADOPTED") && (s.startsWith("FROM") || s.startsWith("DEDUCED") || s.startsWith("PROPOSED") || s.startsWith("VALUE FROM")) )
 	                        return false;
 	                }
@@ -356,6 +383,38 @@ public class ConsistencyCheck {
 		return isRecordFromAdopted(rec,recordName,currentFromAdoptedRecordNameMap);
 	}
 	
+	/*
+	 * same as isRecordFromAdopted(rec,recordName,ens) but safe to be called from parallel averaging:
+	 * footnote maps of ens are made only once and then only read, without changing maps
+	 * of the current dataset in check
+	 */
+	private boolean isRecordFromAdoptedForAverage(Record rec,String recordName,ENSDF ens){
+		HashMap<String,String> fromAdoptedMap=null,footnotedMap=null;
+		synchronized(mapOfensFromAdoptedRecordNameMap){
+			fromAdoptedMap=mapOfensFromAdoptedRecordNameMap.get(ens);
+			if(fromAdoptedMap==null){
+				HashMap<String,String> currentMap1=new HashMap<String,String>(currentFromAdoptedRecordNameMap);
+				HashMap<String,String> currentMap2=new HashMap<String,String>(currentFootnotedRecordNameMap);
+				FootnoteFlagIndex currentIndex1=currentFromAdoptedFlagIndex;
+				FootnoteFlagIndex currentIndex2=currentFootnotedFlagIndex;
+				
+				findFromAdopted(ens);
+				fromAdoptedMap=mapOfensFromAdoptedRecordNameMap.get(ens);
+				
+				//restore maps of current dataset
+				currentFromAdoptedRecordNameMap.clear();
+				currentFromAdoptedRecordNameMap.putAll(currentMap1);
+				currentFootnotedRecordNameMap.clear();
+				currentFootnotedRecordNameMap.putAll(currentMap2);
+				currentFromAdoptedFlagIndex=currentIndex1;
+				currentFootnotedFlagIndex=currentIndex2;
+			}
+			footnotedMap=mapOfensFootnoteRecordNameMap.get(ens);
+		}
+		
+		return isRecordFromAdopted(rec,recordName,fromAdoptedMap,footnotedMap);
+	}
+	
 	public void setDeltaE(float del,float deg){
 		deltaEL=del;
 		deltaEG=deg;
@@ -386,12 +445,9 @@ public class ConsistencyCheck {
 		currentENSDFXTag=dsidXTagMapFromXREF.get(currentENSDF.DSId0());
 		
 		if(currentENSDFXTag==null){
-			try{
-				int i=currentEnsdfGroup.datasetDSID0sV().indexOf(ensdf.DSId0());
-				currentENSDFXTag=currentEnsdfGroup.datasetXTagsV().get(i);
-			}catch(Exception e){
+			currentENSDFXTag=currentEnsdfGroup.getDatasetXTagByDSID0(ensdf.DSId0());
+			if(currentENSDFXTag==null)
 				currentENSDFXTag="?";
-			}				
 		}
 		
 		findFromAdopted(currentENSDF);
@@ -413,6 +469,11 @@ public class ConsistencyCheck {
 	public Vector<EnsdfGroup> ensdfGroupsV(){return ensdfGroupsV;}
 	public MassChain getChain(){return chain;}
 	
+	public LinkedHashMap<String,Long> stageTimeMap(){return stageTimeMap;}
+	
+	public void setCheckCache(EnsdfCheckCache cache){checkCache=cache;}
+	public EnsdfCheckCache getCheckCache(){return checkCache;}
+	
 	///////////////////////////////////////
 	// All checking and related functions
 	///////////////////////////////////////
@@ -731,8 +792,6 @@ public class ConsistencyCheck {
 		String msgText="";
 		String msgType="E";
 		
-		Vector<String> dsid0sV=currentEnsdfGroup.datasetDSID0sV();
-		Vector<String> dsidsV=currentEnsdfGroup.datasetDSIDsV();
 		String xrefPrefix=adopted.nucleus().nameENSDF()+"  X";
 		
 		for(XRef xref:adopted.XRefV()) {
@@ -740,7 +799,7 @@ public class ConsistencyCheck {
 			//but datasetDSID0sV() consists of DSId0 of all ENSDF datasets in a group
 			String xrefDSID0=xref.DSId0();
 			String xrefDSID=xref.DSId();
-			if(dsid0sV.contains(xrefDSID0) || dsidsV.contains(xrefDSID))
+			if(currentEnsdfGroup.getDatasetEntryByDSID0(xrefDSID0)!=null || currentEnsdfGroup.getDatasetEntryByDSID(xrefDSID)!=null)
 				continue;
 			//System.out.println(" hello2 "+xrefDSID);
 			
@@ -3511,7 +3570,7 @@ public class ConsistencyCheck {
 		return BXLMap;
 	}
 	
-	private String checkBands(ENSDF ens) {
+	private String checkBands(final ENSDF ens) {
 
 		if(ens.nBands()==0)
 			return "";
@@ -3519,131 +3578,165 @@ public class ConsistencyCheck {
 		String currentMsg="";
 		String previousMsg=message;
 		
+		//each band is checked independently; in parallel if there are many bands, 
+		//and messages are put together in the order of bands
+		Vector<String> bandMsgsV=new Vector<String>();
+		if(ens.nBands()<minBandsForParallelCheck) {
+			for(int i=0;i<ens.nBands();i++)
+				bandMsgsV.add(checkBand(ens,ens.bandAt(i)));
+		}else {
+			Vector<Callable<String>> tasks=new Vector<Callable<String>>();
+			for(int i=0;i<ens.nBands();i++){
+				final Band b=ens.bandAt(i);
+				tasks.add(new Callable<String>() {
+					public String call() {
+						return checkBand(ens,b);
+					}
+				});
+			}
+			
+			try {
+				bandMsgsV=ParallelTasks.invokeAll(tasks);
+			}catch(Exception e) {
+				//check all bands again one by one, so that no band message is lost and any 
+				//error in checking a band is thrown as in checking a few bands
+				e.printStackTrace();
+				bandMsgsV=new Vector<String>();
+				for(int i=0;i<ens.nBands();i++)
+					bandMsgsV.add(checkBand(ens,ens.bandAt(i)));
+			}
+		}
 		
+		for(String bandMsg:bandMsgsV)
+			currentMsg+=bandMsg;
+
+		message=previousMsg+currentMsg;
+		return currentMsg;
+	}
+	
+	/*
+	 * return messages from checking a band (band comment line is at the top)
+	 * Note: messages are not put in the global message here, since it could be called in parallel
+	 */
+	private String checkBand(ENSDF ens,Band b) {
+		String bandMsg="";
 		String msgText="";
 		boolean isSEQ=false;
-		for(int i=0;i<ens.nBands();i++){
-			Band b=ens.bandAt(i);
-			
-			clearMessage();
-			msgText="";
-			
-			//check levels in each band
-			int prevDJ=-100;
-			boolean isValidBand=true;
-			
-			//check if JPI of band head quoted in band comment is consistent with JPI of the level as band head
-			String line=b.comment().cbody();
-			String[] temp=Str.trimArray(line.split("\\.[\\s]+"));
-			if(temp.length>0)
-				line=temp[0].toUpperCase().trim();
-			
-			line=Str.removeEndPeriod(line).trim();
-			
-			
-			int n=line.indexOf("BASED ON");
-			String JPS="";
-			
-			
-			String name="band";
-			if(b.comment().head().startsWith("SEQ")) {
-				isSEQ=true;
-				name="seq.";
-			}else {
-				isSEQ=false;
+		
+		//check levels in each band
+		int prevDJ=-100;
+		boolean isValidBand=true;
+		
+		//check if JPI of band head quoted in band comment is consistent with JPI of the level as band head
+		String line=b.comment().cbody();
+		String[] temp=Str.trimArray(line.split("\\.[\\s]+"));
+		if(temp.length>0)
+			line=temp[0].toUpperCase().trim();
+		
+		line=Str.removeEndPeriod(line).trim();
+		
+		
+		int n=line.indexOf("BASED ON");
+		String JPS="";
+		
+		
+		String name="band";
+		if(b.comment().head().startsWith("SEQ")) {
+			isSEQ=true;
+			name="seq.";
+		}else {
+			isSEQ=false;
+		}
+		
+		//System.out.println("#1 n="+n+"  line="+line);
+		
+		if(n>=0) {//e.g., comment=20NA cL BAND(A)$Band based on 5/2+, ....
+			line=line.substring(n+8).trim();
+			temp=Str.trimArray(line.split(",[\\s]+|[;]"));//not split "3/2+,5/2+" but "3/2+, 5/2+"
+			if(temp.length>0) {
+				if(temp.length==2 && EnsdfUtil.isJPIStr(temp[1]) && !EnsdfUtil.isJPIStr(temp[0]))
+					JPS=temp[1];
+				else 
+					JPS=temp[0];
+				
+				temp=Str.trimArray(JPS.split("[\\s]+"));
+				if(temp.length>0)
+					JPS=temp[0];
 			}
-			
-			//System.out.println("#1 n="+n+"  line="+line);
-			
-			if(n>=0) {//e.g., comment=20NA cL BAND(A)$Band based on 5/2+, ....
-				line=line.substring(n+8).trim();
-				temp=Str.trimArray(line.split(",[\\s]+|[;]"));//not split "3/2+,5/2+" but "3/2+, 5/2+"
-				if(temp.length>0) {
-					if(temp.length==2 && EnsdfUtil.isJPIStr(temp[1]) && !EnsdfUtil.isJPIStr(temp[0]))
-						JPS=temp[1];
-					else 
-						JPS=temp[0];
-					
-					temp=Str.trimArray(JPS.split("[\\s]+"));
-					if(temp.length>0)
-						JPS=temp[0];
-				}
-			}else {
-				n=line.indexOf("BAND");
-				if(n>0) {//e.g., comment=20NA cL BAND(A)$5/2+ band
-					line=line.substring(0,n).trim();
-					temp=Str.trimArray(line.split("[\\s]+"));
-					if(temp.length>0)
-						JPS=temp[temp.length-1].trim();
-				}else if(!line.contains(" ")) {//e.g., comment=20NA cL BAND(A)$5/2+
-					JPS=line;
-				}
+		}else {
+			n=line.indexOf("BAND");
+			if(n>0) {//e.g., comment=20NA cL BAND(A)$5/2+ band
+				line=line.substring(0,n).trim();
+				temp=Str.trimArray(line.split("[\\s]+"));
+				if(temp.length>0)
+					JPS=temp[temp.length-1].trim();
+			}else if(!line.contains(" ")) {//e.g., comment=20NA cL BAND(A)$5/2+
+				JPS=line;
 			}
-				
-			//System.out.println("#2 n="+n+"  line="+line);
-			
-			if(!JPS.isEmpty() && EnsdfUtil.isJPIStr(JPS)) {
-				String levelJPS=b.firstLevel().JPiS();
-				if(!JPS.equals(levelJPS)) {
-					String msg="JPI of "+name+" head quoted in "+name+" comment is inconsistent:\n";
-					msg+="   JPI="+JPS+" in "+name+" comment    JPI="+levelJPS+" in level\n";
-					printToMessage(10,msg,"E");
-				}
+		}
+			
+		//System.out.println("#2 n="+n+"  line="+line);
+		
+		if(!JPS.isEmpty() && EnsdfUtil.isJPIStr(JPS)) {
+			String levelJPS=b.firstLevel().JPiS();
+			if(!JPS.equals(levelJPS)) {
+				String msg="JPI of "+name+" head quoted in "+name+" comment is inconsistent:\n";
+				msg+="   JPI="+JPS+" in "+name+" comment    JPI="+levelJPS+" in level\n";
+				bandMsg+=makeMessageLines(10,msg,"E")+"\n";
 			}
+		}
+		
+		//System.out.println("#3 n="+n+"  line="+line);
+		
+		for(int j=b.nLevels()-1;j>0;j--) {
+			Level li=b.levelAt(j);
+			Level lf=b.levelAt(j-1);
+			Vector<Integer> DJV=EnsdfUtil.deltaJ(li.JPiS(),lf.JPiS());
+			if(DJV.size()>1 && li.JPiS().contains(",") && !isSEQ) 
+				msgText+="Check JPI="+li.JPiS()+" of member level="+li.ES()+"\n";
 			
-			//System.out.println("#3 n="+n+"  line="+line);
+			int DJ=-100;
+			if(DJV.size()==1)
+				DJ=DJV.get(0);
 			
-			for(int j=b.nLevels()-1;j>0;j--) {
-				Level li=b.levelAt(j);
-				Level lf=b.levelAt(j-1);
-				Vector<Integer> DJV=EnsdfUtil.deltaJ(li.JPiS(),lf.JPiS());
-				if(DJV.size()>1 && li.JPiS().contains(",") && !isSEQ) 
-					msgText+="Check JPI="+li.JPiS()+" of member level="+li.ES()+"\n";
+			boolean hasFeedingGamma=false;
+			for(int k=0;k<li.nGammas();k++) {
+				Gamma g=li.gammaAt(k);
 				
-				int DJ=-100;
-				if(DJV.size()==1)
-					DJ=DJV.get(0);
+				//System.out.println("  l="+li.ES()+"  gam="+g.ES()+"  g.FLI="+g.FLI()+" index="+ens.levelsV().indexOf(li)+" nlevels="+ens.nLevels()+" lf="+lf.ES());
 				
-				boolean hasFeedingGamma=false;
-				for(int k=0;k<li.nGammas();k++) {
-					Gamma g=li.gammaAt(k);
-					
-					//System.out.println("  l="+li.ES()+"  gam="+g.ES()+"  g.FLI="+g.FLI()+" index="+ens.levelsV().indexOf(li)+" nlevels="+ens.nLevels()+" lf="+lf.ES());
-					
-					if(g.FLI()>=0 && ens.levelAt(g.FLI())==lf) {
-						hasFeedingGamma=true;
-						break;
-					}
+				if(g.FLI()>=0 && ens.levelAt(g.FLI())==lf) {
+					hasFeedingGamma=true;
+					break;
 				}
-				
-				if(!hasFeedingGamma && !isSEQ) 
-					msgText+="No in-band transition from member level="+li.ES()+" to "+lf.ES()+"\n";
-				
-				if(DJ>0 && prevDJ>0 && DJ!=prevDJ)
-					isValidBand=false;
-				
-				prevDJ=DJ;
-			}
-			
-			if(!isValidBand && b.comment().head().contains("BAND")) {
-				msgText+="Not a band due to different deltaJ for in-band transitions.\n";
-				msgText+="     Please use \"SEQ\" instead of \"BAND\" in band comments\n";
 			}
 			
-			if(msgText.length()>0) {
-				printToMessage(10,msgText,"W");
-			}
+			if(!hasFeedingGamma && !isSEQ) 
+				msgText+="No in-band transition from member level="+li.ES()+" to "+lf.ES()+"\n";
 			
-			//System.out.println("#4 n="+n+"  line="+line);
+			if(DJ>0 && prevDJ>0 && DJ!=prevDJ)
+				isValidBand=false;
 			
-			if(message.length()>0) {
-				line=b.comment().lineAt(0);
-				currentMsg+=line+"\n"+message;
-			}
-		}//end band loop
-
-		message=previousMsg+currentMsg;
-		return currentMsg;
+			prevDJ=DJ;
+		}
+		
+		if(!isValidBand && b.comment().head().contains("BAND")) {
+			msgText+="Not a band due to different deltaJ for in-band transitions.\n";
+			msgText+="     Please use \"SEQ\" instead of \"BAND\" in band comments\n";
+		}
+		
+		if(msgText.length()>0) {
+			bandMsg+=makeMessageLines(10,msgText,"W")+"\n";
+		}
+		
+		//System.out.println("#4 n="+n+"  line="+line);
+		
+		if(bandMsg.length()>0) {
+			line=b.comment().lineAt(0);
+			return line+"\n"+bandMsg;
+		}
+		
+		return "";
 	}
 	
 	//for Adopted Gammas only
@@ -4055,7 +4148,11 @@ public class ConsistencyCheck {
 	//check if there is any comment of recordName in the given record
 	@SuppressWarnings("unused")
 	private boolean hasCommentFor(Record rec,String recordName){
-		return (hasInLineCommentFor(rec,recordName)||hasFlaggedCommentFor(rec,recordName));
+		return hasCommentFor(rec,recordName,currentFootnotedRecordNameMap);
+	}
+	
+	private boolean hasCommentFor(Record rec,String recordName,HashMap<String,String> footnotedRecordNameMap){
+		return (hasInLineCommentFor(rec,recordName)||hasFlaggedCommentFor(rec,recordName,footnotedRecordNameMap));
 	}
 	
 	//check if there is any comment of recordName in the given record
@@ -4069,7 +4166,7 @@ public class ConsistencyCheck {
 		return false;
 	}
 	
-	private boolean hasFlaggedCommentFor(Record rec,String recordName){
+	private boolean hasFlaggedCommentFor(Record rec,String recordName,HashMap<String,String> footnotedRecordNameMap){
         
 		try{		
 			String recordFlags=rec.flag().trim();
@@ -4081,23 +4178,36 @@ public class ConsistencyCheck {
 		    if(name.equals("E"))
 		    	name=name+type;
 		    	    
-			String flagsInMap=currentFootnotedRecordNameMap.get(name);//Note: DON'T TRIM, since " " is added for footnote without flag
-			
-			//if(recordName.equals("J") && rec.ES().trim().equals("3483.97")){
-			//	for(String key:currentFootnotedRecordNameMap.keySet()) System.out.println(key+"    "+currentFootnotedRecordNameMap.get(key));
-			//	System.out.println(" flagsInMap="+flagsInMap+" "+flagsInMap.isEmpty());
-			//}
-			
-			
-			for(int i=0;i<recordFlags.length();i++)
-				if(flagsInMap.contains(recordFlags.substring(i,i+1)))
-					return true;
+			//Note: flags are not trimmed, since " " is added for footnote without flag
+			if(flagIndexOf(footnotedRecordNameMap).hasAnyFlag(name,recordFlags,false))
+				return true;
 	        
 		}catch(Exception e){}
 			
 		return false;
 	}
 	
+	/*
+	 * flag index of a (record name, flags) map of footnotes: maps of each dataset are not changed
+	 * once made (see findFromAdopted()), so their indexes are made once and kept
+	 */
+	private FootnoteFlagIndex flagIndexOf(HashMap<String,String> nameFlagsMap){
+		if(nameFlagsMap==currentFootnotedRecordNameMap)
+			return currentFootnotedFlagIndex;
+		if(nameFlagsMap==currentFromAdoptedRecordNameMap)
+			return currentFromAdoptedFlagIndex;
+		
+		synchronized(footnoteFlagIndexMap){
+			FootnoteFlagIndex index=footnoteFlagIndexMap.get(nameFlagsMap);
+			if(index==null){
+				index=new FootnoteFlagIndex(nameFlagsMap);
+				footnoteFlagIndexMap.put(nameFlagsMap, index);
+			}
+			
+			return index;
+		}
+	}
+	
 	///////////////////////////////////////
 	//All search functions
 	///////////////////////////////////////
@@ -4709,6 +4819,8 @@ public class ConsistencyCheck {
 		if(tempMap1!=null) {
 			currentFromAdoptedRecordNameMap.putAll(tempMap1);
 			currentFootnotedRecordNameMap.putAll(tempMap2);
+			currentFromAdoptedFlagIndex=flagIndexOf(tempMap1);
+			currentFootnotedFlagIndex=flagIndexOf(tempMap2);
 			
 			return currentFromAdoptedRecordNameMap;
 		}
@@ -4793,6 +4905,8 @@ public class ConsistencyCheck {
 		tempMap2.putAll(currentFootnotedRecordNameMap);
 		mapOfensFromAdoptedRecordNameMap.put(ens, tempMap1);		
 		mapOfensFootnoteRecordNameMap.put(ens,tempMap2);
+		currentFromAdoptedFlagIndex=flagIndexOf(tempMap1);
+		currentFootnotedFlagIndex=flagIndexOf(tempMap2);
 		
 		return currentFromAdoptedRecordNameMap;
 	}
@@ -4805,10 +4919,18 @@ public class ConsistencyCheck {
 	 *   "From XXXX. Values from the Adopted Gammas are the same".
 	 */
 	public boolean isCommentIndicateQuotedFromAdopted(Comment c) {
-		String s=c.body().trim().toUpperCase();		
-		if(!s.contains("ADOPTED"))
+		CommentClassifier.CommentInfo info=commentClassifier.getInfo(c);
+		if(!info.hasAdopted)
 			return false;
 		
+		if(info.isQuotedFromAdopted==null)
+			info.isQuotedFromAdopted=Boolean.valueOf(classifyQuotedFromAdopted(c,info.upperBody));
+		
+		return info.isQuotedFromAdopted.booleanValue();
+	}
+	
+	//s: trimmed and upper-cased comment body containing "ADOPTED"
+	private boolean classifyQuotedFromAdopted(Comment c,String s) {
 		if(s.indexOf("FROM ADOPTED")==0 || s.indexOf("FROM THE ADOPTED")==0)
 			return true;
 		
@@ -4840,7 +4962,7 @@ public class ConsistencyCheck {
 		}
 		*/
 		
-		String[] lines=s.split("[.;]+");
+		String[] lines=CommentClassifier.sentencePattern.split(s);
 		for(int i=0;i<lines.length;i++) {
 			s=lines[i].trim();
 			
@@ -4874,7 +4996,7 @@ public class ConsistencyCheck {
 					
 					if(c.head().equals("M")){
 						s=(s1+" "+s2).replace("MULT","").replace("=", "").replace("(", "").replace(")","").trim();
-						List<String> ms=Arrays.asList(s.split("[,\\s]+"));
+						List<String> ms=Arrays.asList(CommentClassifier.multPattern.split(s));
 						if(ms.contains("D") || ms.contains("Q") || ms.contains("D+Q") || ms.contains("Q+D"))
 							return false;
 					}
@@ -4900,7 +5022,7 @@ public class ConsistencyCheck {
 					
 					if(c.head().equals("M")){
 						s=(s1+" "+s2).replace("MULT","").replace("=", "").replace("(", "").replace(")","").trim();
-						List<String> ms=Arrays.asList(s.split("[,\\s]+"));
+						List<String> ms=Arrays.asList(CommentClassifier.multPattern.split(s));
 						if(ms.contains("D") || ms.contains("Q") || ms.contains("D+Q") || ms.contains("Q+D"))
 							return false;
 					}
@@ -4921,18 +5043,22 @@ public class ConsistencyCheck {
 	 * 123.4 US 12
 	 * 123.4 12
 	 */
-	private String extractNumericalValue(String s) {
-		String s0=s;
-		if(!Str.containAny(s, "0123456789"))
+	private String extractNumericalValue(CommentTokens tokens) {
+		String s0=tokens.text();
+		String s=s0;
+		if(!tokens.hasDigit())
 			return "";
 		
-		for(int i=0;i<s0.length();i++) {
+		int offset=0;//position of s in s0
+		for(int i=tokens.firstDigit();i<s0.length();i++) {
 			char c=s0.charAt(i);
 			if(Character.isDigit(c)) {
 				if(i>0 && "+-(".indexOf(s0.charAt(i-1))>=0) 
-					s=s0.substring(i-1);
+					offset=i-1;
 				else
-					s=s0.substring(i);
+					offset=i;
+				
+				s=s0.substring(offset);
 				
 				int p1=s0.indexOf("{",i-3);
 				int p2=s0.indexOf("}",i-3);
@@ -4945,7 +5071,8 @@ public class ConsistencyCheck {
 			}
 		}
 		
-		for(int i=s.length()-1;i>=0;i--) {
+		//last digit in s is the last digit in s0
+		for(int i=tokens.lastDigit()-offset;i>=0;i--) {
 						
 			char c=s.charAt(i);
 			if(Character.isDigit(c)) {
@@ -4964,7 +5091,7 @@ public class ConsistencyCheck {
 			}
 		}
 
-        String[] a=s.split("[\\s]+");
+        String[] a=CommentClassifier.spacePattern.split(s);
         if(a.length<=3 && a.length>0) {
             if(Str.isNumeric(a[0]) || a.length==1)
                 return s;
@@ -4975,45 +5102,47 @@ public class ConsistencyCheck {
 	}
 	
 	
-	private String extractMULTValue(String s) {
-		ArrayList<String> list=new ArrayList<String>(Arrays.asList(
-				"M1","M2","M3","E1","E2","E3","M1+E2","E2+M1","E1+M2","M2+E1","M2+E3","E3+M2",
-				"D","Q","O","D+Q","Q+D","Q+O"
-				));
-		
-		s=s.replace("MULT", "").replace("=", "").replace(":", "");
-		
-		String[] ms=s.split("[\\s]+");//not split "," because there is MULT like M1,E2
-		for(int i=0;i<ms.length;i++) {
-			String tempS=ms[i].replace("(", "").replace(")","").trim();
-			if(list.contains(tempS))
-				return ms[i].trim();
+	private static final List<String> multValuesList=Arrays.asList(
+			"M1","M2","M3","E1","E2","E3","M1+E2","E2+M1","E1+M2","M2+E1","M2+E3","E3+M2",
+			"D","Q","O","D+Q","Q+D","Q+O"
+			);
+	
+	//tokens are not split by "," because there is MULT like M1,E2
+	private String extractMULTValue(CommentTokens tokens) {
+		for(int i=0;i<tokens.nTokens();i++) {
+			String ms=tokens.tokenAt(i).replace("MULT", "").replace("=", "").replace(":", "");
+			String tempS=ms.replace("(", "").replace(")","").trim();
+			if(multValuesList.contains(tempS))
+				return ms.trim();
 		}
 				
 		return "";
 	}
 	
-	private String extractJPIValue(String s) {
-		if(!Str.containAny(s, "0123456789"))
+	private String extractJPIValue(CommentTokens tokens) {
+		if(!tokens.hasDigit())
 			return "";
 		
-		return JPI.extractJPS(s);
+		return JPI.extractJPS(tokens.text());
 	}
 	
 	public String extractAdoptedValueInComment(Comment c) {
-		String s=c.body().trim().toUpperCase();
-
-		if(!s.contains("ADOPTED"))
+		CommentClassifier.CommentInfo info=commentClassifier.getInfo(c);
+		if(!info.hasAdopted)
 			return "";
 		
-		//String[] lines=s.split("\\.[\\s]+");
-		String[] lines=Str.specialSplit(s, "[.;]+");
-		
-		//System.out.println("  **"+lines.length+"  "+lines[0]);
+		if(info.adoptedValue==null)
+			info.adoptedValue=extractAdoptedValueInComment(c,commentClassifier.sentenceTokens(c));
 		
+		return info.adoptedValue;
+	}
+	
+	//sentences: tokens of trimmed sentences of upper-cased comment body containing "ADOPTED"
+	private String extractAdoptedValueInComment(Comment c,CommentTokens[] sentences) {
+		String s="";
 		String s1="",s2="";
-		for(int i=0;i<lines.length;i++) {
-			s=lines[i].trim();
+		for(int i=0;i<sentences.length;i++) {
+			s=sentences[i].text();
 			
 			//System.out.println("1 line="+s);
 			int n=-1;
@@ -5082,19 +5211,21 @@ public class ConsistencyCheck {
 			if("J,T".contains(head)&&s.contains("ADOPTED GAMMAS"))
 				return "";
 			
-			//extracting values
+			//extracting values from tokens of s1 and s2 made once for all extractors
+			CommentTokens tokens1=s1.isEmpty()?CommentTokens.EMPTY:new CommentTokens(s1);
+			CommentTokens tokens2=s2.isEmpty()?CommentTokens.EMPTY:new CommentTokens(s2);
 			if(head.equals("M")) {
-				s=extractMULTValue(s1);
+				s=extractMULTValue(tokens1);
 				if(s.isEmpty())
-					s=extractMULTValue(s2);
+					s=extractMULTValue(tokens2);
 				
 				return s;
 			}else if(head.equals("J")){
-				s=extractJPIValue(s1);
-				if(s.isEmpty() && !s2.isEmpty())
-					s=extractJPIValue(s2);
-			}else if(Str.containAny(s1,"0123456789")!=Str.containAny(s2, "0123456789")){
-				s=extractNumericalValue(s1+" "+s2);
+				s=extractJPIValue(tokens1);
+				if(s.isEmpty() && !tokens2.isEmpty())
+					s=extractJPIValue(tokens2);
+			}else if(tokens1.hasDigit()!=tokens2.hasDigit()){
+				s=extractNumericalValue(tokens1.join(tokens2));
 				
 				//System.out.println("s1="+s1+" s2="+s2+" s="+s);
 				
@@ -5309,12 +5440,10 @@ public class ConsistencyCheck {
         if(deepGrouping){
         	for(int i=0;i<groups.size();i++){
         		EnsdfGroup g=groups.get(i);
-        		g.setDeltaEG(deltaEG);
-        		g.setDeltaEL(deltaEL);
         		
         		//System.out.println(" ConsitencyCheck 4568: #1 igroup="+i+" size="+groups.size());
         		
-        		g.doGrouping();      		
+        		doGrouping(g);      		
     
         		//System.out.println(" ConsitencyCheck 4568: #2 igroup="+i+" size="+groups.size());
         		//test
@@ -5330,6 +5459,24 @@ public class ConsistencyCheck {
         return groups;
     }
     
+    /*
+     * group levels and gammas of a nuclide, or restore the grouping saved in the grouping 
+     * snapshot in last run if datasets of the nuclide and grouping parameters are unchanged
+     */
+    private void doGrouping(EnsdfGroup g) throws Exception{
+    	g.setDeltaEG(deltaEG);
+    	g.setDeltaEL(deltaEL);
+    	
+    	GroupingSnapshot snapshot=GroupingSnapshot.shared();
+    	if(snapshot!=null && snapshot.restore(g))
+    		return;
+    	
+    	g.doGrouping();
+    	
+    	if(snapshot!=null)
+    		snapshot.put(g);
+    }
+    
     public  Vector<EnsdfGroup> sortEnsdfGroups(Vector<EnsdfGroup> ensdfGroupsV){
 
     	try{
@@ -5383,15 +5530,7 @@ public class ConsistencyCheck {
      	String groupLabelPrefix0=CheckControl.groupLabelPrefix;
      	String groupLabelPostfix0=CheckControl.groupLabelPosfix;
      	
-     	boolean placeLabelInBracket=true;
-     	for(int i=0;i<ensdfGroup.nENSDF();i++) {
-     		String dsid=ensdfGroup.ensdfV().get(i).DSId0().trim();
-     		if(!EnsdfReferences.checkIfKeyno(dsid) && !dsid.contains("ADOPTED")) {
-     			placeLabelInBracket=false;
-     			break;
-     		}
-     	}
-     	if(placeLabelInBracket) {
+     	if(isGroupLabelInBracket(ensdfGroup)) {
      		CheckControl.groupLabelPrefix="(";
      		CheckControl.groupLabelPosfix=")";
      	}
@@ -5449,6 +5588,17 @@ public class ConsistencyCheck {
     	
     }
     
+    //labels of datasets in averaging reports are placed in brackets if all DSIDs are keynumbers
+    private boolean isGroupLabelInBracket(EnsdfGroup ensdfGroup){
+     	for(int i=0;i<ensdfGroup.nENSDF();i++) {
+     		String dsid=ensdfGroup.ensdfV().get(i).DSId0().trim();
+     		if(!EnsdfReferences.checkIfKeyno(dsid) && !dsid.contains("ADOPTED"))
+     			return false;
+     	}
+     	
+     	return true;
+    }
+    
     private String printAverageReportOfLevelGroup(RecordGroup levelGroup,String title,String prefixL){
     	String out="";
  		
@@ -5648,7 +5798,6 @@ public class ConsistencyCheck {
     	String out="";
  		
 	    String s="";
-     	AverageReport ar;
       		 
      	try{
      		String recordLine=recordGroup.getRecord(0).recordLine();
@@ -5674,8 +5823,8 @@ public class ConsistencyCheck {
      	    
      	    cleanDecayDSID(recordGroup);
      	    
-     		ar=new AverageReport(recordGroup,entryType,prefix,weightLimit);
-     		s=ar.getReport();
+     		RecordGroupView view=new RecordGroupView(recordGroup);
+     		s=AverageCache.shared().getReport(AverageReport.dataPointsOf(view,entryType),entryType,prefix,weightLimit,"");
      		if(s.length()>0){
      			out+=s+"\n";
      		}
@@ -6500,9 +6649,6 @@ public class ConsistencyCheck {
     	
     	HashMap<String,String> newDSIDXTagMap=ensdfGroup.newDSIDXTagMap();
     	
-    	//when adopted dataset is present, the dsidXTagMap is made from old XREF list in the adopted dataset
-    	HashMap<String,String> oldDSIDXTagMap=ensdfGroup.dsidXTagMapFromAdopted();
-    	
     	out+=String.format("%8s%-33s%s"," ","new XREFs","old XREFs")+"\n";
     	for(int i=0;i<size;i++){
     		ENSDF ens=ensdfGroup.ensdfV().get(i);   
@@ -6516,41 +6662,13 @@ public class ConsistencyCheck {
     			xtag="?";
     		
             String oldXREF=xtag+"-";
-    		int index=ensdfGroup.datasetDSID0sV().indexOf(dsid0);//see datasetDSIDsV in makeAdoptedXTagMap() in EnsdfGroup.java
-    		
-    		if(index>=0){
-    			String oldXTag=ensdfGroup.datasetXTagsV().get(index);
-                boolean foundMatch=false;
-        		for(String oldDSID:oldDSIDXTagMap.keySet()){
-        			
-        			//System.out.println("ConsistencyCheck 5840: dsid="+dsid0+"  index="+index+" oldDSID="+oldDSID+" "+oldDSIDXTagMap.get(oldDSID)+" oldXTag="+oldXTag);
-        			
-        			if(oldDSIDXTagMap.get(oldDSID).equals(oldXTag)){
-        				oldXREF+=oldXTag+" "+oldDSID;
-        				foundMatch=true;
-        				break;
-        			}
-        		}
-        		
-        		if(!foundMatch)
-        			oldXREF+="?";
-    		}else 
-    			oldXREF+="?";
-    		
-    		/*
-            boolean foundMatch=false;
-    		for(String oldDSID:oldDSIDXTagMap.keySet()){
-    			String oldXTag=oldDSIDXTagMap.get(oldDSID);
-    			if(oldDSID.contains(dsid0)){
-    				oldXREF+=oldXTag+" "+oldDSID;
-    				foundMatch=true;
-    				break;
-    			}
-    		}
+    		EnsdfGroup.DatasetEntry entry=ensdfGroup.getDatasetEntryByDSID0(dsid0);//see datasetDSIDsV in makeAdoptedXTagMap() in EnsdfGroup.java
     		
-    		if(!foundMatch)
+    		//entry.xref is the XREF in old XREF list with the same old tag as the dataset
+    		if(entry!=null && entry.xref!=null)
+    			oldXREF+=entry.xtag+" "+entry.xref.DSId0();
+    		else 
     			oldXREF+="?";
-    		*/
     		
     		out+=prefix+xtag+String.format("%-30s", dsid0)+oldXREF+"\n";
     	}
@@ -7226,6 +7344,63 @@ public class ConsistencyCheck {
     	return false;
     }
     
+    /*
+     * input group for averaging level values in the new Adopted dataset (.adp):
+     * adopted record and records with "?" or "*" XREF markers are removed;
+     * return null if no record can be used
+     */
+    private RecordGroup makeLevelGroupForAdoptedAverage(RecordGroup levelGroup){
+		RecordGroup tempGroup=levelGroup.lightCopy();
+ 	    if(levelGroup.getDSID(0).contains("ADOPTED"))
+ 	    	tempGroup.remove(0);
+ 	    
+ 	    for(int i=tempGroup.nRecords()-1;i>=0;i--) {
+ 	        String xtag=tempGroup.xtagsV().get(i);
+ 	        String xtagMarker=Util.getXTagMarker(xtag);
+ 	        
+ 	        /*
+    		//debug
+    		if(Math.abs(tempGroup.recordsV().get(i).EF()-6697)<2){
+        		System.out.println("In ConsistencyCheck line 6616: i="+i+" dsid="+tempGroup.dsidsV().get(i)+" xtag="+xtag+" xtagMarker="+xtagMarker+" group size="+tempGroup.nRecords());
+    		}
+    		*/
+ 	        
+ 	        if(xtagMarker.contains("?") || xtagMarker.contains("*"))
+ 	            tempGroup.remove(i);
+ 	    }
+ 	    
+ 	    if(tempGroup.nRecords()==0) {
+ 	    	Record refRecord=levelGroup.getReferenceRecord();
+ 	    	if(refRecord==null && levelGroup.nRecords()>0)
+ 	    		refRecord=levelGroup.getRecord(0);
+ 	    	
+ 	    	if(refRecord==null)
+ 	    		return null;
+            int index=levelGroup.recordsV().indexOf(refRecord);
+            
+ 	    	if(index<0)	
+ 	    	    return null;
+ 	    	
+ 	    	String dsid=levelGroup.dsidsV().get(index);
+ 	    	String xtag=levelGroup.xtagsV().get(index);
+ 	    	
+ 	    	tempGroup.addRecord(refRecord, dsid, xtag);
+ 	    }
+ 	    
+ 	    return tempGroup;
+    }
+    
+    //input group for averaging gamma values in the new Adopted dataset (.adp)
+    private RecordGroup makeGammaGroupForAdoptedAverage(RecordGroup gammaGroup){
+		RecordGroup tempGroup=gammaGroup;
+ 	    if(gammaGroup.getDSID(0).contains("ADOPTED")){
+ 	    	tempGroup=gammaGroup.lightCopy();
+ 	    	tempGroup.remove(0);
+ 	    }
+ 	    
+ 	    return tempGroup;
+    }
+    
     /*
      * print adopted level based on all data from the levelGroup
      */
@@ -7394,42 +7569,9 @@ public class ConsistencyCheck {
 			newXTagLinesV.add(newXTags);
 			
 		//get averaging comments if available, removing adopted dataset only for averaging
-		RecordGroup tempGroup=levelGroup.lightCopy();
- 	    if(levelGroup.getDSID(0).contains("ADOPTED"))
- 	    	tempGroup.remove(0);
- 	    
- 	    for(int i=tempGroup.nRecords()-1;i>=0;i--) {
- 	        String xtag=tempGroup.xtagsV().get(i);
- 	        String xtagMarker=Util.getXTagMarker(xtag);
- 	        
- 	        /*
-    		//debug
-    		if(Math.abs(tempGroup.recordsV().get(i).EF()-6697)<2){
-        		System.out.println("In ConsistencyCheck line 6616: i="+i+" dsid="+tempGroup.dsidsV().get(i)+" xtag="+xtag+" xtagMarker="+xtagMarker+" group size="+tempGroup.nRecords());
-    		}
-    		*/
- 	        
- 	        if(xtagMarker.contains("?") || xtagMarker.contains("*"))
- 	            tempGroup.remove(i);
- 	    }
- 	    
- 	    if(tempGroup.nRecords()==0) {
- 	    	Record refRecord=levelGroup.getReferenceRecord();
- 	    	if(refRecord==null && levelGroup.nRecords()>0)
- 	    		refRecord=levelGroup.getRecord(0);
- 	    	
- 	    	if(refRecord==null)
- 	    		return "";
-            int index=levelGroup.recordsV().indexOf(refRecord);
-            
- 	    	if(index<0)	
- 	    	    return "";
- 	    	
- 	    	String dsid=levelGroup.dsidsV().get(index);
- 	    	String xtag=levelGroup.xtagsV().get(index);
- 	    	
- 	    	tempGroup.addRecord(refRecord, dsid, xtag);
- 	    }
+		RecordGroup tempGroup=makeLevelGroupForAdoptedAverage(levelGroup);
+		if(tempGroup==null)
+			return "";
  	    
  	    Vector<Comment> newCommentsV=new Vector<Comment>();
 	    String commentS="",tempS="",s="",ds="",unit="";
@@ -7839,11 +7981,7 @@ public class ConsistencyCheck {
 
 						
 		//get averaging comments if available
-		RecordGroup tempGroup=gammaGroup;
- 	    if(gammaGroup.getDSID(0).contains("ADOPTED")){
- 	    	tempGroup=gammaGroup.lightCopy();
- 	    	tempGroup.remove(0);
- 	    }
+		RecordGroup tempGroup=makeGammaGroupForAdoptedAverage(gammaGroup);
 
 	    String commentS="",tempS="",s="",ds="";	    
 	    Vector<Comment> newCommentsV=new Vector<Comment>();
@@ -8868,7 +9006,12 @@ public class ConsistencyCheck {
     private AverageReport getAverageReport(RecordGroup recordGroup,String recFieldName){
     	if(recordGroup.nRecords()==0)
     		return null;
-    	
+    
+ 	    return getAverageReport(recordGroup,recFieldName,averagePrefixOf(recordGroup));
+    }
+    
+    //ENSDF line prefix for averaging comments of a non-empty record group
+    private String averagePrefixOf(RecordGroup recordGroup){
     	Record r0=recordGroup.getRecord(0);
  		String recordLine=r0.recordLine();
  		String NUCID=recordLine.substring(0,5);
@@ -8878,17 +9021,39 @@ public class ConsistencyCheck {
     		prefix=Str.makeENSDFLinePrefix(NUCID, "cL");
     	else if(r0 instanceof Gamma)
     		prefix=Str.makeENSDFLinePrefix(NUCID, "cG");
-    
- 	    return getAverageReport(recordGroup,recFieldName,prefix);
+    	
+    	return prefix;
     }
     
-    
+    /*
+     * take the result from the averaging stage if available (see makeAverageResults()),
+     * otherwise make the average here
+     */
     private AverageReport getAverageReport(RecordGroup recordGroup,String recFieldName,String prefix){
 
         if(recordGroup==null || recordGroup.nRecords()==0)
             return null;
         
-        recordGroup=recordGroup.lightCopy();    
+        if(averageResults!=null){
+        	AverageResults.Key key=new AverageResults.Key(recordGroup,recFieldName,prefix);
+        	if(averageResults.contains(key))
+        		return averageResults.get(key);
+        }
+        
+        return makeAverageReport(recordGroup,recFieldName,prefix);
+    }
+    
+    /*
+     * NOTE: this is called in parallel in the averaging stage, so only thread-safe
+     *       lookups should be used here (see isRecordFromAdoptedForAverage())
+     */
+    private AverageReport makeAverageReport(RecordGroup recordGroup,String recFieldName,String prefix){
+
+        if(recordGroup==null || recordGroup.nRecords()==0)
+            return null;
+        
+        //members are filtered in a view of the group instead of a cleaned copy of the group
+        RecordGroupView view=new RecordGroupView(recordGroup);
         
         //System.out.println("1 size="+recordGroup.nRecords()+" name="+recFieldName+" E="+recordGroup.getRecord(0).ES());
 
@@ -8900,7 +9065,7 @@ public class ConsistencyCheck {
         */
         
     	
-        cleanRecordGroupForAverage(recordGroup,recFieldName);
+        cleanRecordGroupForAverage(view,recFieldName);
 
         /*
         for(int i=0;i<recordGroup.nRecords();i++) {
@@ -8928,7 +9093,7 @@ public class ConsistencyCheck {
          
             //code to get all data points for recFieldName
             //If there is no comment value for a record, use the value in the record field
-            Vector<DataPoint> dpsV=findCommentValues(recordGroup,recFieldName);
+            Vector<DataPoint> dpsV=findCommentValues(view,recFieldName);
             
             /*
             if(recFieldName.equals("T") && recordGroup.nRecords()>0 && Math.abs(recordGroup.getRecord(0).EF()-942)<1) {
@@ -8940,7 +9105,7 @@ public class ConsistencyCheck {
             //if(recordGroup.nRecords()>0 && Math.abs(recordGroup.getRecord(0).EF()-942)<1) 
             //    System.out.println("2 E="+recordGroup.getRecord(0).ES()+" name="+recFieldName+" size="+dpsV.size()+"  record size="+recordGroup.nRecords());
             
-            ar=new AverageReport(dpsV,recFieldName,prefix); 
+            ar=AverageCache.shared().getAverageReport(dpsV,recFieldName,prefix,AverageReport.defaultWeightLowerLimit,""); 
             
         }else {   
         	/*
@@ -8954,7 +9119,8 @@ public class ConsistencyCheck {
             }
             */
             
-            ar=new AverageReport(recordGroup,recFieldName,prefix); 
+            Vector<DataPoint> dpsV=AverageReport.dataPointsOf(view,recFieldName);
+            ar=AverageCache.shared().getAverageReport(dpsV,recFieldName,prefix,AverageReport.defaultWeightLowerLimit,""); 
         }
                   
         return ar;
@@ -8962,14 +9128,17 @@ public class ConsistencyCheck {
     
     //assuming each ENSDF dataset has a different DSID.
     //If no comment value, use record value
-    private Vector<DataPoint> findCommentValues(RecordGroup recordGroup, String recFieldName){
+    //view: members cleaned for average, including DSIDs (see cleanRecordGroupForAverage())
+    //values of records and in comments are extracted once in DataPointTable of the EnsdfGroup
+    private Vector<DataPoint> findCommentValues(RecordGroupView view, String recFieldName){
         Vector<DataPoint> dpsV=new Vector<DataPoint>();
 
         boolean isLevel=false,isGamma=false;
         String recName=recFieldName;
+        DataPointTable table=null;
         
         try {
-            Record rec=recordGroup.getRecord(0);
+            Record rec=view.firstRecord();
             if(rec instanceof Level) {
                 isLevel=true;
                 isGamma=false;
@@ -8982,148 +9151,159 @@ public class ConsistencyCheck {
                 	recName="EG";
  
             }
+            
+            EnsdfGroup ensdfGroup=getEnsdfGroupByNUCID(rec.recordLine().substring(0,5));
+            if(ensdfGroup!=null) {
+            	table=ensdfGroup.dataPointTable();
+            	table.validate(CheckControl.errorLimit, CheckControl.convertRIForAdopted, ensdfCommentDataMap);
+            }
         }catch(Exception e) {
             return dpsV;
         }
 
-        recordGroup=recordGroup.lightCopy();
+        //name of comment value for recFieldName, null if not available in comments
+        String comName=null;
+        if(recName.equals("EL") || recName.equals("EG") || (isLevel && recName.equals("T")) || (isGamma && recName.equals("RI")))
+        	comName=recName;
         
-        cleanDecayDSID(recordGroup);
-        
-        for(int i=0;i<recordGroup.nRecords();i++) {
-            Record rec=recordGroup.getRecord(i);
-            String dsid=recordGroup.getDSID(i);
-            
-            ENSDF ens=findENSDFForRecord(rec,dsid);
-            
-            boolean isUseComValue=false,isOmitValue=false;
-            boolean isDatasetSelected=true;
-            boolean isReadComValue=false;
-            
-            Vector<CommentENSDF> censV=null;
-            EnsdfAverageSetting setting=null;
-
-            if(ens!=null) {
-                censV=ensdfCommentDataMap.get(ens);
-                setting=ensdfAverageSettingMap.get(ens);
- 
-                if(setting!=null) {
-                    if(!setting.isSelected()) {
-                        isDatasetSelected=false;
-                    }else {
-                    	if(setting.isOmitValue(recName)) {
-                        	isOmitValue=true;
-                        }else if(censV!=null && setting.isUseComValue(recName)) {
-                            isReadComValue=true;
-                        } 
-                    }
-                }
-                
-                /*
-                if(dsid.contains("D,2NG") && recFieldName.equals("E")) {
-                     System.out.println("ConsistencyCheck 8147: DSID="+dsid+"  isReadComValue="+isReadComValue+" isOmitValue="+isOmitValue);
-                     for(String s:setting.isOmitValueMap().keySet())
-                    	 System.out.println("    key="+s+" v="+setting.isOmitValue(s));
-                }
-                */
-                //for(ENSDF ensdf:ensdfCommentDataMap.keySet())
-                //    System.out.println("ens.dsid="+ens.DSId0()+" ensdf.dsid="+ensdf.DSId0()+" CommentENSDF size="+ensdfCommentDataMap.get(ensdf).size()+" contain="+ensdfCommentDataMap.containsKey(ens));
-
-                
-            }
-            
-            if(isReadComValue) {
-                
-                //for(ENSDF ensdf:ensdfCommentDataMap.keySet())
-                //    System.out.println("ens.dsid="+ens.DSId0()+" ensdf.dsid="+ensdf.DSId0()+" CommentENSDF size="+ensdfCommentDataMap.get(ensdf).size()+" contain="+ensdfCommentDataMap.containsKey(ens));
-                
-                if(isLevel) {
-                    rec=(Level)rec;
-                    int il=ens.levelsV().indexOf(rec);
-                    for(CommentENSDF cens:censV) {
-                        CommentLevel CLev=cens.CLevels.get(il);
-                        if(recFieldName.equals("E") && setting.isUseComValue("EL")) {
-                            if(!CLev.ES.isEmpty()) {
-                                isUseComValue=true;
-                                SDS2XDX s2x=new SDS2XDX(CLev.ES,CLev.DES);
-                                s2x.setErrorLimit(CheckControl.errorLimit);
-                                DataPoint dp=new DataPoint(s2x.x(),s2x.dxu(),s2x.dxl(),cens.ref,cens.ref2);
-                                
-                                dp.setS(s2x.s(), s2x.ds());
-                                dpsV.add(dp);
-                            }
-
-                        }else if(recFieldName.equals("T") && setting.isUseComValue("T")) {
-                            if(!CLev.TS.isEmpty()) {
-                                isUseComValue=true;
-                                SDS2XDX s2x=new SDS2XDX(CLev.TS,CLev.DTS);
-                                s2x.setErrorLimit(CheckControl.errorLimit);
-                                DataPoint dp=new DataPoint(s2x.x(),s2x.dxu(),s2x.dxl(),cens.ref,cens.ref2);
-                                dp.setUnit(CLev.TU);
-
-                                dp.setS(s2x.s(), s2x.ds());
-                                dpsV.add(dp);
-                            }
-
-                        } 
-                    } 
-                }else if(isGamma) {
-                    rec=(Gamma)rec;
-                    int ig=ens.gammasV().indexOf(rec);
-                    for(CommentENSDF cens:censV) {
-                        CommentGamma CGam=cens.allCGammas.get(ig);
-                        if(recFieldName.equals("E") && setting.isUseComValue("EG")) {
-                            if(!CGam.ES.isEmpty()) {
-                                isUseComValue=true;
-                                SDS2XDX s2x=new SDS2XDX(CGam.ES,CGam.DES);
-                                s2x.setErrorLimit(CheckControl.errorLimit);
-                                DataPoint dp=new DataPoint(s2x.x(),s2x.dxu(),s2x.dxl(),cens.ref,cens.ref2);
-                                
-                                dp.setS(s2x.s(), s2x.ds());
-                                dpsV.add(dp);
-                            }
-
-                        }else if(recFieldName.equals("RI") && setting.isUseComValue("RI")) {
-                            if(!CGam.RI.isEmpty()) {
-                                isUseComValue=true;
-                                SDS2XDX s2x=null;
-                                if(CheckControl.convertRIForAdopted)
-                                    s2x=new SDS2XDX(CGam.BR,CGam.DBR);
-                                else
-                                    s2x=new SDS2XDX(CGam.RI,CGam.DRI);
-           
-                                s2x.setErrorLimit(CheckControl.errorLimit);
-                                DataPoint dp=new DataPoint(s2x.x(),s2x.dxu(),s2x.dxl(),cens.ref,cens.ref2);
-                                
-                                //System.out.println(" RI="+CGam.RI+" DRI="+CGam.DRI+" BR="+CGam.BR+" DBR="+CGam.DBR);
-                                
-                                dp.setS(s2x.s(), s2x.ds());
-                                dpsV.add(dp);
-                            }
-
-                        } 
-                    }
-                }
-
-            }
+        for(int i=0;i<view.size();i++) {
+        	if(!view.isSelected(i))
+        		continue;
+        	
+            Record rec=view.getRecord(i);
+            String dsid=view.getDSID(i);
             
-            if(isDatasetSelected && !isUseComValue && !isOmitValue) { 
-                //System.out.println(" selected, use record: E="+rec.ES()+" recFieldName="+recFieldName+" dsid="+dsid);
-                
-                DataPoint dp=findRecordDataPoint(rec,recFieldName);
-                if(dp!=null) {
-                    dp.setLabel(dsid);
-                    dpsV.add(dp); 
-                }
-
+            DataPointTable.RecordEntry entry=(table==null)?new DataPointTable.RecordEntry():table.entry(rec);
+            synchronized(entry) {
+	            if(entry.dsid==null || !entry.dsid.equals(dsid)) {
+	            	entry.ens=findENSDFForRecord(rec,dsid);
+	            	entry.dsid=dsid;
+	            	entry.index=-2;
+	            }
+	            
+	            ENSDF ens=entry.ens;
+	            
+	            boolean isUseComValue=false,isOmitValue=false;
+	            boolean isDatasetSelected=true;
+	            boolean isReadComValue=false;
+	            
+	            Vector<CommentENSDF> censV=null;
+	            EnsdfAverageSetting setting=null;
+	
+	            if(ens!=null) {
+	                censV=ensdfCommentDataMap.get(ens);
+	                setting=ensdfAverageSettingMap.get(ens);
+	 
+	                if(setting!=null) {
+	                    if(!setting.isSelected()) {
+	                        isDatasetSelected=false;
+	                    }else {
+	                    	if(setting.isOmitValue(recName)) {
+	                        	isOmitValue=true;
+	                        }else if(censV!=null && setting.isUseComValue(recName)) {
+	                            isReadComValue=true;
+	                        } 
+	                    }
+	                }
+	            }
+	            
+	            if(isReadComValue && comName!=null) {
+	            	DataPointTable.Value[] values=DataPointTable.getCommentValues(entry,comName);
+	            	if(values==null) {
+	            		values=makeCommentValues(entry,rec,censV,comName);
+	            		DataPointTable.putCommentValues(entry,comName,values);
+	            	}
+	            	
+	            	for(DataPointTable.Value v:values) {
+	            		if(v!=null) {
+	            			isUseComValue=true;
+	            			dpsV.add(v.toDataPoint());
+	            		}
+	            	}
+	            }
+	            
+	            if(isDatasetSelected && !isUseComValue && !isOmitValue) { 
+	                //System.out.println(" selected, use record: E="+rec.ES()+" recFieldName="+recFieldName+" dsid="+dsid);
+	                
+	            	if(!DataPointTable.hasRecordValue(entry,recFieldName))
+	            		DataPointTable.putRecordValue(entry,recFieldName,makeRecordValue(rec,recFieldName));
+	            	
+	            	DataPointTable.Value v=DataPointTable.getRecordValue(entry,recFieldName);
+	                if(v!=null) {
+	                	DataPoint dp=v.toDataPoint();
+	                    dp.setLabel(dsid);
+	                    dpsV.add(dp); 
+	                }
+	
+	            }
             }
-            
         }
         
 
         return dpsV;
     }
     
+    /*
+     * values of comName (EL, T, EG or RI) of rec in each comment dataset of entry.ens, null for
+     * none in a comment dataset
+     */
+    private DataPointTable.Value[] makeCommentValues(DataPointTable.RecordEntry entry,Record rec,Vector<CommentENSDF> censV,String comName) {
+    	ENSDF ens=entry.ens;
+    	DataPointTable.Value[] values=new DataPointTable.Value[censV.size()];
+    	
+    	boolean isLevel=(rec instanceof Level);
+    	if(entry.index==-2) {
+    		if(isLevel)
+    			entry.index=ens.levelsV().indexOf(rec);
+    		else
+    			entry.index=ens.gammasV().indexOf(rec);
+    	}
+    	
+    	for(int i=0;i<censV.size();i++) {
+    		CommentENSDF cens=censV.get(i);
+    		String s="",ds="",unit=null;
+    		if(isLevel) {
+    			CommentLevel CLev=cens.CLevels.get(entry.index);
+    			if(comName.equals("EL")) {
+    				s=CLev.ES;
+    				ds=CLev.DES;
+    			}else if(comName.equals("T")) {
+    				s=CLev.TS;
+    				ds=CLev.DTS;
+    				unit=CLev.TU;
+    			}
+    		}else {
+    			CommentGamma CGam=cens.allCGammas.get(entry.index);
+    			if(comName.equals("EG")) {
+    				s=CGam.ES;
+    				ds=CGam.DES;
+    			}else if(comName.equals("RI")) {
+    				if(CGam.RI.isEmpty())
+    					continue;
+    				
+                    if(CheckControl.convertRIForAdopted) {
+                    	s=CGam.BR;
+                    	ds=CGam.DBR;
+                    }else {
+                    	s=CGam.RI;
+                    	ds=CGam.DRI;
+                    }
+                    
+                    //System.out.println(" RI="+CGam.RI+" DRI="+CGam.DRI+" BR="+CGam.BR+" DBR="+CGam.DBR);
+    			}
+    		}
+    		
+    		if(s.isEmpty() && !comName.equals("RI"))
+    			continue;
+    		
+            SDS2XDX s2x=new SDS2XDX(s,ds);
+            s2x.setErrorLimit(CheckControl.errorLimit);
+            values[i]=new DataPointTable.Value(s2x.x(),s2x.dxu(),s2x.dxl(),s2x.s(),s2x.ds(),unit,cens.ref,cens.ref2);
+    	}
+    	
+    	return values;
+    }
+    
     private ENSDF findENSDFForRecord(Record rec,String dsid){
         try {
             Vector<ENSDF> ensV=new Vector<ENSDF>();
@@ -9169,8 +9349,9 @@ public class ConsistencyCheck {
         return null;
     }
     
-    private DataPoint findRecordDataPoint(Record rec,String recFieldName) {
-        DataPoint dp=null;
+    //value in record field, null if not numerical
+    private DataPointTable.Value makeRecordValue(Record rec,String recFieldName) {
+        DataPointTable.Value v=null;
         
         try{
             String name=recFieldName.toUpperCase();
@@ -9229,15 +9410,12 @@ public class ConsistencyCheck {
                 return null;
 
             
-            dp=new DataPoint(x,dxu,dxl);
-            dp.setS(s, ds);
-            if(unit.length()>0)
-                dp.setUnit(unit);
+            v=new DataPointTable.Value(x,dxu,dxl,s,ds,unit.length()>0?unit:null,null,null);
              
         }catch(Exception e){
         }    
         
-        return dp;
+        return v;
     }
     
     
@@ -9274,40 +9452,58 @@ public class ConsistencyCheck {
      //remove (T12) in decay dataset dsid if it is the only dataset of its type
     private void cleanDecayDSID(RecordGroup recordGroup) {
     	for(int i=0;i<recordGroup.recordsV().size();i++) {
-    		ENSDF ens=getENSDFByDSID(recordGroup.getDSID(i));
-    		
-    		//System.out.println("ConsistencyCheck 8372: dsid="+recordGroup.getDSID(i)+" ens==null "+(ens==null));
-    		if(ens==null)
+    		String s=cleanDecayDSID(recordGroup.getDSID(i));
+    		if(s!=null) {        			
+    			recordGroup.dsidsV().remove(i);
+    			recordGroup.dsidsV().add(i,s);
+    		}
+    	}
+    }
+    
+    private void cleanDecayDSID(RecordGroupView view) {
+    	for(int i=0;i<view.size();i++) {
+    		if(!view.isSelected(i))
     			continue;
     		
-        	String dsid=ens.DSId0();
-        	if(!dsid.contains(" DECAY") || (!dsid.contains("(")&&!dsid.contains(":")) )
-        		continue;
-        		
-    		String s="DECAY";
-    		int n=dsid.indexOf(s);               		
-    		if(n>0) {
-    			s=dsid.substring(0,n+s.length());
-    			
-    			String NUCID=ens.nucleus().nameENSDF().trim();
-    			
-    			String s1=NUCID+"_"+s;//key in labelENSDFMap=NUCID+"_"+dsid+"_"+id, id for datasets with same dsid starting from 0
-    			
-    			
-    			n=0;
-        		for(String key:labelENSDFMap.keySet()) {                   			
-        			if(key.contains(s1))
-        				n++;
-        		}  
-        		
-        		if(n==1) {        			
-        			recordGroup.dsidsV().remove(i);
-        			recordGroup.dsidsV().add(i,s);
-        		}
-    		}
-        	
+    		String s=cleanDecayDSID(view.getDSID(i));
+    		if(s!=null)
+    			view.setDSID(i,s);
     	}
-   	
+    }
+    
+    //return decay dsid without (T12) if it is the only dataset of its type, otherwise null
+    private String cleanDecayDSID(String recordDSID) {
+		ENSDF ens=getENSDFByDSID(recordDSID);
+		
+		//System.out.println("ConsistencyCheck 8372: dsid="+recordDSID+" ens==null "+(ens==null));
+		if(ens==null)
+			return null;
+		
+    	String dsid=ens.DSId0();
+    	if(!dsid.contains(" DECAY") || (!dsid.contains("(")&&!dsid.contains(":")) )
+    		return null;
+    		
+		String s="DECAY";
+		int n=dsid.indexOf(s);               		
+		if(n>0) {
+			s=dsid.substring(0,n+s.length());
+			
+			String NUCID=ens.nucleus().nameENSDF().trim();
+			
+			String s1=NUCID+"_"+s;//key in labelENSDFMap=NUCID+"_"+dsid+"_"+id, id for datasets with same dsid starting from 0
+			
+			
+			n=0;
+    		for(String key:labelENSDFMap.keySet()) {                   			
+    			if(key.contains(s1))
+    				n++;
+    		}  
+    		
+    		if(n==1)
+    			return s;
+		}
+		
+		return null;
     }    
     
     /*
@@ -9315,31 +9511,43 @@ public class ConsistencyCheck {
      * Adopted dataset not the local datasets 
      */
     public String cleanRecordGroupForAverage(RecordGroup recGroup,String recFieldName){
+    	RecordGroupView view=new RecordGroupView(recGroup);
+    	String msg=cleanRecordGroupForAverage(view,recFieldName);
+    	view.applyTo(recGroup);
+    	
+    	return msg;
+    }
+    
+    /*
+     * same as above but records are only excluded from the view and DSIDs
+     * replaced in the view, without changing or copying the group
+     */
+    private String cleanRecordGroupForAverage(RecordGroupView view,String recFieldName){
     	String msg="";
     	
     	try{
     
     	    /*
-    		if(recFieldName.equals("T") && Math.abs(recGroup.getRecord(0).EF()-50)<2) {
+    		if(recFieldName.equals("T") && Math.abs(view.getRecord(0).EF()-50)<2) {
   
-                for(int j=0;j<recGroup.nRecords();j++) {
-                	System.out.println("In CleanRecord  in recordgroup j="+j+" E="+recGroup.getRecord(j).ES());
+                for(int j=0;j<view.size();j++) {
+                	System.out.println("In CleanRecord  in recordgroup j="+j+" E="+view.getRecord(j).ES());
                 }
     		}
             */
-    	    //System.out.println("$$$$$recFieldName="+recFieldName+" null group "+(recGroup==null)+" "+recGroup.nRecords());
+    	    //System.out.println("$$$$$recFieldName="+recFieldName+" size="+view.size());
 
-    	    String recType=recGroup.getRecord(0).recordLine().substring(7,8).trim();
+    	    String recType=view.getRecord(0).recordLine().substring(7,8).trim();
     	    
-    		int i=recGroup.nRecords()-1;
+    		int i=view.size()-1;
     		while(i>=0){
-    			ENSDF ens=getENSDFByDSID(recGroup.getDSID(i));
+    			ENSDF ens=getENSDFByDSID(view.getDSID(i));
     			
     			/*
     		    //debug
-    		    if(Math.abs(recGroup.getRecord(i).EF()-85)<2 && recFieldName.equals("T")){
-    		    	System.out.println("1 size="+recGroup.nRecords()+" i="+i+" recFieldName="+recFieldName+" E="+recGroup.getRecord(i).ES()+"  isRecordFromAdopted="+
-    		    isRecordFromAdopted(recGroup.getRecord(i),recFieldName,ens)+" DSID="+recGroup.getDSID(i));
+    		    if(Math.abs(view.getRecord(i).EF()-85)<2 && recFieldName.equals("T")){
+    		    	System.out.println("1 size="+view.nSelected()+" i="+i+" recFieldName="+recFieldName+" E="+view.getRecord(i).ES()+"  isRecordFromAdopted="+
+    		    isRecordFromAdopted(view.getRecord(i),recFieldName,ens)+" DSID="+view.getDSID(i));
     		    }
     		    */
     		    
@@ -9359,16 +9567,16 @@ public class ConsistencyCheck {
     			    }
     			}
     			
-    			if(!isUseComValue && isRecordFromAdopted(recGroup.getRecord(i),recFieldName,ens)) {
+    			if(!isUseComValue && isRecordFromAdoptedForAverage(view.getRecord(i),recFieldName,ens)) {
     				msg+=recFieldName+" from "+ens.DSId()+" is taken from Adopted dataset\n";
-    				recGroup.remove(i);
+    				view.exclude(i);
     			}
     			
     			i--;
     			
     		}
 
-    		cleanDecayDSID(recGroup);		
+    		cleanDecayDSID(view);		
 
     	}catch(Exception e){
     		e.printStackTrace();
@@ -9937,6 +10145,157 @@ public class ConsistencyCheck {
 			out.write("\n\n\n"+printAllStatistics());
     }
     
+    /*
+     * averaging stage before writing .avg (fileType="AVG") or .adp (fileType="ADP"):
+     * all (record group, field) averages needed by the writer are collected for each EnsdfGroup
+     * and evaluated in parallel (see ParallelTasks). Results are kept in averageResults, from
+     * which getAverageReport() takes them while writing, so that writers only format results.
+     * Results are made again before writing each of these outputs, since averaging settings
+     * and flags (e.g., CheckControl.convertRIForAdopted) can be changed in between.
+     */
+    public void makeAverageResults(String fileType){
+    	long t0=System.currentTimeMillis();
+    	
+    	averageResults=null;
+    	AverageResults results=new AverageResults();
+    	
+     	String groupLabelPrefix0=CheckControl.groupLabelPrefix;
+     	String groupLabelPostfix0=CheckControl.groupLabelPosfix;
+     	
+    	for(int i=0;i<ensdfGroupsV.size();i++){
+    		EnsdfGroup ensdfGroup=ensdfGroupsV.get(i);
+    		Vector<RecordGroup> inputsV=new Vector<RecordGroup>();
+    		Vector<String> fieldsV=new Vector<String>();
+    		
+    		if(fileType.equals("AVG")){
+    			collectAverageReportInputs(ensdfGroup,inputsV,fieldsV);
+    			
+    			//labels in reports are made in AverageReport with these static settings, 
+    			//so they are set for the whole EnsdfGroup before averaging in parallel
+    	     	if(isGroupLabelInBracket(ensdfGroup)) {
+    	     		CheckControl.groupLabelPrefix="(";
+    	     		CheckControl.groupLabelPosfix=")";
+    	     	}
+    		}else if(fileType.equals("ADP")){
+    			if(ensdfGroup.nENSDF()==1 && ensdfGroup.adopted()!=null)
+    				continue;
+    			
+    			collectAdoptedAverageInputs(ensdfGroup,inputsV,fieldsV);
+    		}
+    		
+    		Vector<AverageResults.Key> keysV=new Vector<AverageResults.Key>();
+    		Vector<Callable<AverageReport>> tasks=new Vector<Callable<AverageReport>>();
+    		HashSet<AverageResults.Key> keySet=new HashSet<AverageResults.Key>();
+    		for(int j=0;j<inputsV.size();j++){
+    			final RecordGroup recordGroup=inputsV.get(j);
+    			final String field=fieldsV.get(j);
+    			if(recordGroup==null || recordGroup.nRecords()==0)
+    				continue;
+    			
+    			final String prefix=averagePrefixOf(recordGroup);
+    			AverageResults.Key key=new AverageResults.Key(recordGroup,field,prefix);
+    			if(!keySet.add(key) || results.contains(key))
+    				continue;
+    			
+    			keysV.add(key);
+				tasks.add(new Callable<AverageReport>() {
+					public AverageReport call() {
+						return makeAverageReport(recordGroup,field,prefix);
+					}
+				});
+    		}
+    		
+    		try{
+    			results.putAll(keysV,ParallelTasks.invokeAll(tasks));
+    		}catch(Exception e){
+    			e.printStackTrace();
+    		}
+    		
+         	CheckControl.groupLabelPrefix=groupLabelPrefix0;
+         	CheckControl.groupLabelPosfix=groupLabelPostfix0;
+    	}
+    	
+    	averageResults=results;
+    	stageTimeMap.put("averaging ."+fileType.toLowerCase(), System.currentTimeMillis()-t0);
+    }
+    
+    //inputs in the same order of averaging in printAverageReport(ensdfGroup)
+    private void collectAverageReportInputs(EnsdfGroup ensdfGroup,Vector<RecordGroup> inputsV,Vector<String> fieldsV){
+    	String[] levelFields={"E","T","S"};
+    	String[] gammaFields={"E","RI","TI"};
+    	
+    	Vector<RecordGroup> gammaGroupsV=new Vector<RecordGroup>();
+    	Vector<RecordGroup> levelGroupsV=new Vector<RecordGroup>();
+    	
+    	if(!CheckControl.convertRIForAdopted)
+    		gammaGroupsV.addAll(ensdfGroup.unpGammaGroupsV());
+    	
+     	for(int i=0;i<ensdfGroup.levelGroupsV().size();i++){
+     		RecordGroup levelGroup=ensdfGroup.levelGroupsV().get(i);
+     		levelGroupsV.add(levelGroup);
+     		gammaGroupsV.addAll(levelGroup.subgroups());
+     	}
+     	
+     	for(RecordGroup levelGroup:levelGroupsV)
+     		addAverageInputs(levelGroup,levelFields,inputsV,fieldsV);
+     	
+     	for(RecordGroup gammaGroup:gammaGroupsV)
+     		addAverageInputs(gammaGroup,gammaFields,inputsV,fieldsV);
+    }
+    
+    //same group copy without Adopted record as in printAverageReportOfLevelGroup() and printAverageReportOfGammaGroup()
+    private void addAverageInputs(RecordGroup recordGroup,String[] fields,Vector<RecordGroup> inputsV,Vector<String> fieldsV){
+    	int n=recordGroup.nRecords();
+        if(n<1 || (n==1&&!CheckControl.isUseAverageSettings))
+            return;
+        
+        recordGroup=recordGroup.lightCopy();
+ 	    if(recordGroup.getDSID(0).contains("ADOPTED"))
+ 	    	recordGroup.remove(0);
+ 	    
+ 	    for(String field:fields){
+ 	    	inputsV.add(recordGroup);
+ 	    	fieldsV.add(field);
+ 	    }
+    }
+    
+    //inputs for averaging in printAdoptedLevelRecord() and printAdoptedGammaRecord()
+    private void collectAdoptedAverageInputs(EnsdfGroup ensdfGroup,Vector<RecordGroup> inputsV,Vector<String> fieldsV){
+    	String[] levelFields={"T","E","S"};
+    	String[] gammaFields={"E","RI","TI"};
+    	
+    	Vector<RecordGroup> gammaGroupsV=new Vector<RecordGroup>();
+    	if(CheckControl.createCombinedDataset)
+    		gammaGroupsV.addAll(ensdfGroup.unpGammaGroupsV());
+    	
+		for(int i=0;i<ensdfGroup.levelGroupsV().size();i++){
+    		RecordGroup levelGroup=ensdfGroup.levelGroupsV().get(i);
+    		if(levelGroup.nRecords()==0 || (levelGroup.nRecords()==1 && levelGroup.hasAdoptedRecord()))
+    			continue;
+    		
+    		RecordGroup tempGroup=makeLevelGroupForAdoptedAverage(levelGroup);
+    		if(tempGroup!=null){
+    			for(String field:levelFields){
+    				inputsV.add(tempGroup);
+    				fieldsV.add(field);
+    			}
+    		}
+    		
+    		gammaGroupsV.addAll(levelGroup.subgroups());
+		}
+		
+		for(RecordGroup gammaGroup:gammaGroupsV){
+			if(gammaGroup.nRecords()==0 || (gammaGroup.nRecords()==1 && gammaGroup.hasAdoptedRecord()))
+				continue;
+			
+			RecordGroup tempGroup=makeGammaGroupForAdoptedAverage(gammaGroup);
+			for(String field:gammaFields){
+				inputsV.add(tempGroup);
+				fieldsV.add(field);
+			}
+		}
+    }
+    
     //write output file for averaging results of records if values of record from different
     //datasets are available and their average can be performed.
     private void writeAverageReport(PrintWriter out){
@@ -9947,8 +10306,34 @@ public class ConsistencyCheck {
     
     private void writeAdoptedWithNewXREFOnly(PrintWriter out){
     	writeHeader(out,"tentative Adopted levels with tentative new XREF flags");
-    	for(int i=0;i<ensdfGroupsV.size();i++)
-    		out.write(printAdoptedWithNewXREFOnly(ensdfGroupsV.get(i))+"\n\n");
+    	for(int i=0;i<ensdfGroupsV.size();i++){
+    		EnsdfGroup ensdfGroup=ensdfGroupsV.get(i);
+    		String xrf=null;
+    		if(checkCache!=null)
+    			xrf=checkCache.getXRF(ensdfGroup);
+    		
+    		if(xrf==null){
+    			try{
+    				if(!ensdfGroup.isLevelGrouped()){//unchanged nuclide in incremental check with no cached result
+    					doGrouping(ensdfGroup);
+    				}
+    			}catch(Exception e){
+    				e.printStackTrace();
+    			}
+    			
+    			xrf=printAdoptedWithNewXREFOnly(ensdfGroup);
+    			if(checkCache!=null)
+    				checkCache.putXRF(ensdfGroup, xrf);
+    		}
+    		
+    		out.write(xrf+"\n\n");
+    	}
+    }
+    
+    //B(E2) ratios from Adopted datasets of all groups, calculated in parallel
+    private void writeBE2Ratios(PrintWriter out) throws Exception{
+    	writeHeader(out,"B(E2) ratios of even-even nuclides");
+    	out.write(BE2RatioCalculator.printReport(BE2RatioCalculator.calculateForGroups(ensdfGroupsV)));
     }
     
     private void writeAdoptedWithAllData(PrintWriter out){
@@ -9960,6 +10345,7 @@ public class ConsistencyCheck {
     
     public void writeFile(String filename,String fileType){
     	PrintWriter out=null;
+    	long t0=System.currentTimeMillis();
     	try{
     		boolean good=true;
     		out=new PrintWriter(new File(filename));
@@ -9976,14 +10362,20 @@ public class ConsistencyCheck {
         		writeGammaSummaryByLevel(out);
         	else if(fileType.equals("MRG"))
         		writeGroupedLines(out);
-        	else if(fileType.equals("AVG"))
+        	else if(fileType.equals("AVG")){
+        		AverageOutputFile.invalidate(filename);
+        		makeAverageResults(fileType);
         		writeAverageReport(out);
+        	}
         	else if(fileType.equals("XRF"))
         		writeAdoptedWithNewXREFOnly(out);
            	else if(fileType.equals("ADP")){
+           		makeAverageResults(fileType);
         		writeAdoptedWithAllData(out);
            	}else if(fileType.equals("FED"))
            		writeFeedingGammas(out);
+           	else if(fileType.equals("BE2"))
+           		writeBE2Ratios(out);
            	else
         		good=false;
         	
@@ -9999,6 +10391,8 @@ public class ConsistencyCheck {
     	if(out!=null)
     		out.close();
     	
+    	averageResults=null;
+    	
     	//convert upper-case "C" comments to lower-case "c" comments
     	if(fileType.equals("ADP")) {
     		EnsdfUtil.cleanENSDFFile(filename,true);
@@ -10015,6 +10409,8 @@ public class ConsistencyCheck {
 				}
     		}
     	}
+    	
+    	stageTimeMap.put("writing ."+fileType.toLowerCase(), System.currentTimeMillis()-t0);
     }
     
     private void writeHeader(PrintWriter out,String title){
@@ -10032,12 +10428,19 @@ public class ConsistencyCheck {
     
     
     public void writeOutputs(String filename){
+    	if(CheckControl.errorsOnly){
+    		writeFile(filename+".err","ERR");
+    		writeFile(filename+".wrn","WRN");
+    		return;
+    	}
+    	
     	if(CheckControl.writeLEV) writeFile(filename+".lev","LEV");
     	if(CheckControl.writeGAM) writeFile(filename+".gam","GAM");
     	if(CheckControl.writeGLE) writeFile(filename+".gle","GLE");
     	if(CheckControl.writeMRG) writeFile(filename+".mrg","MRG");
     	if(CheckControl.writeAVG) writeFile(filename+".avg","AVG");
     	if(CheckControl.writeFED) writeFile(filename+".fed","FED");
+    	if(CheckControl.writeBE2) writeFile(filename+".be2","BE2");
     	if(CheckControl.writeRPT){
     		writeFile(filename+".err","ERR");
     		writeFile(filename+".wrn","WRN");
@@ -10050,7 +10453,6 @@ public class ConsistencyCheck {
      * dataType="E" for level and gamma energies, "RI" for gamma intensities, "T" for half-life
      */
     public void updateAverageOutput(String avgOutfileName,RecordGroup recordGroup,String newResults,String dataType){
-    	Vector<String> lines=null;
     	try{
     		if(!avgOutfileName.contains(".avg"))
     			avgOutfileName+=".avg";
@@ -10063,128 +10465,13 @@ public class ConsistencyCheck {
     		if(resultLines.length==0)
     			return;
     		
-    		lines=Str.readFile(new File(avgOutfileName));
-    		if(lines==null || lines.size()==0)
+    		if(!new File(avgOutfileName).exists())
     			return;
     		
-    		String line="";
-    		Vector<Vector<String>> blocksV=new Vector<Vector<String>>();
-    		Vector<String> block=new Vector<String>();
-    		
-
-    		int n=0;
-    		for(int i=0;i<lines.size();i++){
-    			line=lines.get(i);
-    			if(line.contains("**************") && line.contains("=")){//title line in .avg file for a block of a level or gamma results 
-    				n=i;
-    				break;
-    			}
-    		}
-    		
-    		
-    		Vector<String> matchedBlock=null;
-    		
-    		for(int i=n;i<lines.size();i++){
-    			line=lines.get(i);
-    			if(line.contains("**************") && line.contains("=")){//title line in .avg file for a block of a level or gamma results 
-    				if(block.size()>0)
-    					blocksV.add(block);
-    				
-    				block=new Vector<String>();
-    				
-    				String tempID="";
-    				try{
-    					tempID=line.substring(line.indexOf("ID#=")).substring(4).trim();
-    				}catch(Exception e){}
-    				
-    				if(id.equals(tempID))
-    					matchedBlock=block;
-    			}
-    			
-    			block.add(line);
-    		}
-    		
-			if(block.size()>0){
-				blocksV.add(block);
-			}
-
 			//the first line of a block is the block title, e.g., "**************** Level=26.1 in 190IR     *******************"
 			//the first line of newResults should be the sub-title line, e.g., "------ average E------"
-			if(matchedBlock==null)
-				return;
-
-			Vector<String> newBlock=new Vector<String>();
-			
-			String subtitle=resultLines[0];
-			for(int i=0;i<resultLines.length;i++){
-				subtitle=resultLines[i].trim();
-				if(subtitle.length()>0)
-					break;
-			}
-			
-			if(subtitle.length()==0)
-				return;
-			
-			
-			int size=matchedBlock.size();
-			int istart=size,iend=size;
-			
-			for(int i=0;i<size;i++){
-				line=matchedBlock.get(i);
-				if(line.contains(subtitle)){
-					istart=i;
-					break;
-				}
-			}
-			for(int i=istart+1;i<size;i++){
-				line=matchedBlock.get(i);
-				if(line.contains("------ average") || line.contains("****************")){
-					iend=i;
-					break;
-				}
-			}
-			
-			if(istart<iend){
-				
-				//System.out.println("  start="+istart+"   end="+iend+" matchedBlock.size="+size+" subtitle="+subtitle);
-				//System.out.println(newResults);
-				//for(String s:matchedBlock)
-				//	System.out.println("****old"+s);
-				
-				newBlock.addAll(matchedBlock.subList(0, istart));
-				
-				//for(String s:newBlock)
-				//	System.out.println("****new1"+s);
-				
-				for(int j=0;j<resultLines.length;j++)
-					newBlock.add(resultLines[j]);
-				
-				//for(String s:newBlock)
-				//	System.out.println("****new2"+s);
-				
-				newBlock.addAll(matchedBlock.subList(iend,size));
-				
-				//for(String s:newBlock)
-				//	System.out.println("****new3"+s);
-				
-				matchedBlock.clear();
-				matchedBlock.addAll(newBlock);
-				matchedBlock.add("\n");
-				
-				//for(String s:matchedBlock)
-				//	System.out.println("****final"+s);
-				
-				PrintWriter out=new PrintWriter(new File(avgOutfileName));
-				writeHeader(out, "averaging results for gamma energies and intensities (update)");
-				for(int i=0;i<blocksV.size();i++){
-					for(int j=0;j<blocksV.get(i).size();j++)
-						out.write(blocksV.get(i).get(j)+"\n");
-				}
-				
-	
-				out.flush();
-				out.close();
-			}			
+    		//only the block of the record group is read and written, see AverageOutputFile
+    		AverageOutputFile.of(avgOutfileName).replaceResults(id, resultLines);
     		
     	}catch(Exception e){
     		
@@ -10383,15 +10670,109 @@ public class ConsistencyCheck {
     	
     	//System.out.println("1  size="+ensdfGroupsV.size());
     	
+    	if(checkCache!=null){
+    		startIncremental();
+    		return;
+    	}
+    	
+    	if(CheckControl.errorsOnly){
+    		startErrorsOnly();
+    		return;
+    	}
+    	
+    	long t0=System.currentTimeMillis();
+    	
         ensdfGroupsV=groupENSDFs(chain,true);
 
         //System.out.println("2  size="+ensdfGroupsV.size());
         
+        long t1=System.currentTimeMillis();
+        
         //all messages will be stored in the global variable=message
         for(int i=0;i<ensdfGroupsV.size();i++){
         	checkEnsdfGroup(ensdfGroupsV.get(i));
         }
 
+        stageTimeMap.put("grouping", t1-t0);
+        stageTimeMap.put("checking", System.currentTimeMillis()-t1);
+    }
+    
+    /*
+     * same grouping and checking as start() but nuclides are grouped and checked one by one,
+     * timing the two stages separately; other outputs and averaging are skipped by caller
+     */
+    private void startErrorsOnly() throws Exception{
+    	long tGrouping=0,tChecking=0;
+    	long t0=System.currentTimeMillis();
+    	
+    	ensdfGroupsV=groupENSDFs(chain,false);
+    	
+        for(int i=0;i<ensdfGroupsV.size();i++){
+        	EnsdfGroup g=ensdfGroupsV.get(i);
+        	
+        	doGrouping(g);
+        	
+        	long t1=System.currentTimeMillis();
+        	tGrouping+=t1-t0;
+        	
+        	checkEnsdfGroup(g);
+        	
+        	t0=System.currentTimeMillis();
+        	tChecking+=t0-t1;
+        }
+        
+        stageTimeMap.put("grouping", tGrouping);
+        stageTimeMap.put("checking", tChecking);
+    }
+    
+    /*
+     * same as start() but only nuclides (EnsdfGroup) having any dataset changed since last run
+     * are grouped and checked; messages of unchanged nuclides are taken from checkCache.
+     * Unchanged nuclides are still grouped if any output using level/gamma groups is requested,
+     * but their grouping is restored from the grouping snapshot (see GroupingSnapshot) saved in
+     * last run instead of being done again
+     */
+    private void startIncremental() throws Exception{
+    	ensdfGroupsV=groupENSDFs(chain,false);
+    	
+    	boolean needAllGrouping=CheckControl.writeLEV||CheckControl.writeGAM||CheckControl.writeGLE
+    			              ||CheckControl.writeMRG||CheckControl.writeAVG||CheckControl.writeFED;
+    	
+        for(int i=0;i<ensdfGroupsV.size();i++){
+        	EnsdfGroup g=ensdfGroupsV.get(i);
+        	
+        	Vector<ENSDF> parentAdoptedV=new Vector<ENSDF>();
+        	for(ENSDF ens:g.ensdfV()){
+        		ENSDF parent=findParent(ens);
+        		if(parent!=null && !parentAdoptedV.contains(parent))
+        			parentAdoptedV.add(parent);
+        	}
+        	
+        	String hash=checkCache.makeGroupHash(g, parentAdoptedV, deltaEL, deltaEG);
+        	boolean isUnchanged=checkCache.setGroupHash(g, hash);
+        	
+        	if(!isUnchanged || needAllGrouping){
+        		doGrouping(g);
+        	}
+        	
+        	if(isUnchanged){
+        		message+=checkCache.getMessage(g);
+        		XREFWarningMsg+=checkCache.getXREFWarning(g);
+        		continue;
+        	}
+        	
+        	String prevXREFWarningMsg=XREFWarningMsg;
+        	String groupMessage=checkEnsdfGroup(g);
+        	checkCache.putMessage(g, groupMessage, XREFWarningMsg.substring(prevXREFWarningMsg.length()));
+        }
+    }
+    
+    /*
+     * called after all outputs have been written, so that all cached results are available
+     */
+    public void saveCheckCache(){
+    	if(checkCache!=null)
+    		checkCache.save();
     }
     
 }
@@ -0,0 +1,135 @@
+package consistency.base;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+import ensdfparser.calc.DataPoint;
+import ensdfparser.ensdf.ENSDF;
+import ensdfparser.ensdf.Record;
+
+/*
+ * data points for averaging with values in comments (see findCommentValues() in ConsistencyCheck),
+ * extracted once per (record, field) of an EnsdfGroup and reused in all averages of the group:
+ * the dataset of each record, the value in the record field, and the values for the field in
+ * comment datasets (see AverageValuesInComments)
+ *
+ * Values are kept in compact form and a new DataPoint is made for each use, since callers
+ * change labels of data points.
+ *
+ * The table is cleared when any of the settings used in extracting values changes: error limit,
+ * RI conversion, or comment data (which are parsed again when custom keywords in
+ * EnsdfAverageSetting change). Settings of using or omitting values are not in the table but
+ * checked in each use.
+ */
+public class DataPointTable {
+
+	//values of a data point
+	public static class Value{
+		final double x,dxu,dxl;
+		final String s,ds;
+		final String unit;//null for no unit set
+		final String ref,ref2;//null for data point of record value
+
+		Value(double x,double dxu,double dxl,String s,String ds,String unit,String ref,String ref2){
+			this.x=x;
+			this.dxu=dxu;
+			this.dxl=dxl;
+			this.s=s;
+			this.ds=ds;
+			this.unit=unit;
+			this.ref=ref;
+			this.ref2=ref2;
+		}
+
+		public DataPoint toDataPoint(){
+			DataPoint dp=null;
+			if(ref==null)
+				dp=new DataPoint(x,dxu,dxl);
+			else
+				dp=new DataPoint(x,dxu,dxl,ref,ref2);
+
+			if(unit!=null)
+				dp.setUnit(unit);
+
+			dp.setS(s, ds);
+
+			return dp;
+		}
+	}
+
+	private static final Value noValue=new Value(0,0,0,"","",null,null,null);
+	private static final Value[] noValues=new Value[0];
+
+	//all extracted for a record, access is synchronized on the entry
+	public static class RecordEntry{
+		String dsid=null;//DSID used for finding ens
+		ENSDF ens=null;
+		int index=-2;//index of record in ens, -2 if not found yet
+
+		private HashMap<String,Value> recordValueMap=new HashMap<String,Value>();
+		private HashMap<String,Value[]> commentValuesMap=new HashMap<String,Value[]>();
+	}
+
+	private IdentityHashMap<Record,RecordEntry> entryMap=new IdentityHashMap<Record,RecordEntry>();
+
+	private int errorLimit=-1;
+	private boolean convertRI=false;
+	private Object commentData=null;
+
+	public DataPointTable(){
+	}
+
+	/*
+	 * clear the table if settings are different from those when values are extracted
+	 * commentData: comment data of datasets (see ensdfCommentDataMap in ConsistencyCheck)
+	 */
+	public synchronized void validate(int errorLimit,boolean convertRI,Object commentData){
+		if(errorLimit!=this.errorLimit || convertRI!=this.convertRI || commentData!=this.commentData)
+			entryMap.clear();
+
+		this.errorLimit=errorLimit;
+		this.convertRI=convertRI;
+		this.commentData=commentData;
+	}
+
+	public synchronized RecordEntry entry(Record rec){
+		RecordEntry entry=entryMap.get(rec);
+		if(entry==null){
+			entry=new RecordEntry();
+			entryMap.put(rec, entry);
+		}
+
+		return entry;
+	}
+
+	public synchronized void clear(){
+		entryMap.clear();
+	}
+
+	public synchronized int size(){return entryMap.size();}
+
+	//caller must hold the lock of entry for all methods below
+	static boolean hasRecordValue(RecordEntry entry,String field){
+		return entry.recordValueMap.containsKey(field);
+	}
+
+	//null if no numerical value
+	static Value getRecordValue(RecordEntry entry,String field){
+		Value v=entry.recordValueMap.get(field);
+		return v==noValue?null:v;
+	}
+
+	//value=null for no numerical value
+	static void putRecordValue(RecordEntry entry,String field,Value value){
+		entry.recordValueMap.put(field, value==null?noValue:value);
+	}
+
+	//values in comment datasets, in the same order as comment datasets, null for none in a dataset
+	static Value[] getCommentValues(RecordEntry entry,String field){
+		return entry.commentValuesMap.get(field);
+	}
+
+	static void putCommentValues(RecordEntry entry,String field,Value[] values){
+		entry.commentValuesMap.put(field, values==null?noValues:values);
+	}
+}
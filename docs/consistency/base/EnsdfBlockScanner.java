@@ -0,0 +1,285 @@
+package consistency.base;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/*
+ * streaming scanner of ENSDF blocks (datasets separated by blank lines) in files, for
+ * processing a whole library without reading all lines into memory (see countBlocks() in Util)
+ *
+ * Each file is read in chunks through its channel (not memory-mapped, so that a file is not
+ * kept locked after it is read) and split into lines and blocks on raw bytes. Blocks are
+ * processed in parallel in batches of a fixed number of blocks (see ParallelTasks), so that
+ * only one batch of blocks is held at a time, and results are collected in the order of
+ * blocks in files, the same as processing them one by one.
+ *
+ * Lines of several files can also be read in parallel, one file per task, for loading them
+ * into a MassChain at once (see readFiles() and loadFiles() in MasterFrame). Lines of all files
+ * are still joined and parsed by MassChain.load(), since the parser has no way of adding
+ * datasets parsed separately.
+ */
+public class EnsdfBlockScanner {
+
+	//process a block in a worker thread, and collect its result in the calling thread in block order
+	public interface BlockProcessor<T>{
+		public T process(ArrayList<String> block) throws Exception;
+		public void collect(T result) throws Exception;
+	}
+	
+	//called in the calling thread for each file read by readFiles(), in the order of files
+	public interface FileListener{
+		public void fileRead(File f,int nLines,int nBlocks);
+	}
+	
+	private interface LineHandler{
+		public void line(byte[] line,int len) throws Exception;
+	}
+	
+	//separator added after a file not ending with a blank line, see readFiles()
+	private static final String fileSeparatorLine="    \n";
+
+	private static final int readBufferSize=1<<16;
+
+	private int batchSize=256;
+	private long nLines=0,nBlocks=0;
+
+	private ArrayList<String> block=null;//block of current file being scanned
+
+	public EnsdfBlockScanner(){
+	}
+
+	public EnsdfBlockScanner(int batchSize){
+		this.batchSize=Math.max(batchSize,1);
+	}
+
+	//lines and blocks scanned so far
+	public long nLines(){return nLines;}
+	public long nBlocks(){return nBlocks;}
+
+	/*
+	 * scan all files in order and process their blocks; a block never spans two files
+	 */
+	public <T> void scan(List<File> files,BlockProcessor<T> processor) throws Exception{
+		Vector<ArrayList<String>> batch=new Vector<ArrayList<String>>();
+
+		for(File f:files)
+			scanFile(f,processor,batch);
+
+		flush(processor,batch);
+	}
+
+	private <T> void scanFile(File f,final BlockProcessor<T> processor,final Vector<ArrayList<String>> batch) throws Exception{
+		block=new ArrayList<String>();
+
+		readLines(f,new LineHandler(){
+			public void line(byte[] line,int len) throws Exception{
+				block=endLine(line,len,block,processor,batch);
+			}
+		});
+
+		endBlock(block,processor,batch);
+	}
+
+	/*
+	 * split a file into lines on raw bytes, ended by "\n", "\r" or "\r\n"
+	 * (same lines as from BufferedReader.readLine())
+	 */
+	private static void readLines(File f,LineHandler handler) throws Exception{
+		RandomAccessFile raf=new RandomAccessFile(f,"r");
+		try{
+			FileChannel channel=raf.getChannel();
+			ByteBuffer buf=ByteBuffer.allocate(readBufferSize);
+
+			byte[] line=new byte[256];
+			int len=0;
+			boolean isPreCR=false;
+
+			while(channel.read(buf)>=0){
+				buf.flip();
+
+				while(buf.hasRemaining()){
+					byte b=buf.get();
+
+					if(b=='\n' && isPreCR){//"\r\n", line already ended at "\r"
+						isPreCR=false;
+						continue;
+					}
+
+					isPreCR=(b=='\r');
+					if(b=='\n' || b=='\r'){
+						handler.line(line,len);
+						len=0;
+						continue;
+					}
+
+					if(len==line.length)
+						line=Arrays.copyOf(line,len*2);
+
+					line[len++]=b;
+				}
+
+				buf.clear();
+			}
+
+			if(len>0)
+				handler.line(line,len);
+		}finally{
+			raf.close();
+		}
+	}
+
+	/*
+	 * all lines of files in the order of files, with a blank line added after a file not ending
+	 * with a blank line, so that the last block of a file is not joined to the first block of
+	 * the next file; files are read in parallel, one file per task, and listener is called for
+	 * each file in order once it and all files before it are read
+	 * 
+	 * At most ParallelTasks.nThreads() files are read ahead of the file being added, so that
+	 * lines of only a few files are held besides the lines of all files; reading of files not
+	 * yet added is cancelled if reading any file fails
+	 */
+	public static Vector<String> readFiles(List<File> files,FileListener listener) throws Exception{
+		int nAhead=0;
+		if(files.size()>1 && ParallelTasks.nThreads()>1)
+			nAhead=ParallelTasks.nThreads();
+
+		Vector<Future<Vector<String>>> futures=new Vector<Future<Vector<String>>>();
+		Vector<String> lines=new Vector<String>();
+		try{
+			for(int i=0;i<files.size();i++){
+				while(futures.size()<Math.min(files.size(),i+nAhead))
+					futures.add(ParallelTasks.pool().submit(readFileTask(files.get(futures.size()))));
+
+				Vector<String> fileLines=null;
+				if(nAhead==0){
+					fileLines=readFile(files.get(i));
+				}else{
+					try{
+						fileLines=futures.get(i).get();
+						futures.set(i,null);//lines are dropped once added below
+					}catch(ExecutionException e){
+						if(e.getCause() instanceof Exception)
+							throw (Exception)e.getCause();
+
+						throw e;
+					}
+				}
+
+				int nLines=fileLines.size();
+				int nBlocks=addLines(lines,fileLines);
+				fileLines=null;
+
+				if(listener!=null)
+					listener.fileRead(files.get(i), nLines, nBlocks);
+			}
+		}finally{
+			for(Future<Vector<String>> f:futures){
+				if(f!=null)
+					f.cancel(true);
+			}
+		}
+
+		return lines;
+	}
+
+	private static Callable<Vector<String>> readFileTask(final File f){
+		return new Callable<Vector<String>>(){
+			public Vector<String> call() throws Exception{
+				return readFile(f);
+			}
+		};
+	}
+
+	//add lines of a file to lines of all files and return the number of blocks in the file
+	private static int addLines(Vector<String> lines,Vector<String> fileLines){
+		int nBlocks=0;
+		boolean isPreBlank=true;
+		for(String line:fileLines){
+			boolean isBlank=line.trim().isEmpty();
+			if(!isBlank && isPreBlank)
+				nBlocks++;
+
+			isPreBlank=isBlank;
+		}
+
+		lines.addAll(fileLines);
+		if(!fileLines.isEmpty() && !fileLines.lastElement().trim().isEmpty())
+			lines.add(fileSeparatorLine);
+
+		return nBlocks;
+	}
+
+	//all lines of a file
+	public static Vector<String> readFile(File f) throws Exception{
+		final Vector<String> lines=new Vector<String>();
+		readLines(f,new LineHandler(){
+			public void line(byte[] line,int len){
+				lines.add(new String(line,0,len,StandardCharsets.ISO_8859_1));
+			}
+		});
+
+		return lines;
+	}
+
+	private <T> ArrayList<String> endLine(byte[] line,int len,ArrayList<String> block,BlockProcessor<T> processor,Vector<ArrayList<String>> batch) throws Exception{
+		nLines++;
+
+		if(isBlank(line,len)){
+			endBlock(block,processor,batch);
+			return new ArrayList<String>();
+		}
+
+		block.add(new String(line,0,len,StandardCharsets.ISO_8859_1));
+
+		return block;
+	}
+
+	private <T> void endBlock(ArrayList<String> block,BlockProcessor<T> processor,Vector<ArrayList<String>> batch) throws Exception{
+		if(block.isEmpty())
+			return;
+
+		nBlocks++;
+		batch.add(block);
+		if(batch.size()>=batchSize)
+			flush(processor,batch);
+	}
+
+	private <T> void flush(final BlockProcessor<T> processor,Vector<ArrayList<String>> batch) throws Exception{
+		if(batch.isEmpty())
+			return;
+
+		Vector<Callable<T>> tasks=new Vector<Callable<T>>();
+		for(final ArrayList<String> block:batch){
+			tasks.add(new Callable<T>(){
+				public T call() throws Exception{
+					return processor.process(block);
+				}
+			});
+		}
+
+		batch.clear();
+
+		for(T result:ParallelTasks.invokeAll(tasks))
+			processor.collect(result);
+	}
+
+	//same as trim().isEmpty() for a line of ASCII characters
+	private static boolean isBlank(byte[] line,int len){
+		for(int i=0;i<len;i++){
+			if((line[i]&0xff)>' ')
+				return false;
+		}
+
+		return true;
+	}
+}
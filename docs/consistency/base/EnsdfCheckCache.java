@@ -0,0 +1,300 @@
+package consistency.base;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Vector;
+
+import ensdfparser.ensdf.ENSDF;
+
+/*
+ * store results of consistency check of each EnsdfGroup (all datasets of a nuclide)
+ * from a previous run, keyed by content hashes of the datasets in the group, so that
+ * only groups with edited datasets need to be re-grouped and re-checked in next run
+ *
+ * hash of a group is made of:
+ *   1, content hashes of all datasets in the group (in the order of the group)
+ *   2, content hashes of Adopted datasets of parent nuclides of decay datasets in the group,
+ *      since decay datasets are checked against them (see findParent() in ConsistencyCheck)
+ *   3, program version and grouping parameters (deltaEL, deltaEG)
+ *   4, settings in CheckControl that change check messages (see checkSettingsKey())
+ *
+ * cached results for each group: error/warning messages (.err), XREF warnings (.wrn),
+ * and Adopted levels with new XREF flags (.xrf)
+ *
+ * cache is saved in a binary file next to the output files with extension ".chk"
+ */
+public class EnsdfCheckCache {
+
+	private static final int cacheFormatVersion=1;
+
+	private String filename="";
+
+	//from previous run, key=NUCID
+	private HashMap<String,String> oldGroupHashMap=new HashMap<String,String>();
+	private HashMap<String,String[]> oldGroupResultsMap=new HashMap<String,String[]>();//{message,XREFWarning,XRF}
+
+	//for current run, key=NUCID
+	private LinkedHashMap<String,String> groupHashMap=new LinkedHashMap<String,String>();
+	private LinkedHashMap<String,String[]> groupResultsMap=new LinkedHashMap<String,String[]>();
+
+	//content hash of each dataset in current run, computed once per run
+	private HashMap<ENSDF,String> ensdfHashMap=new HashMap<ENSDF,String>();
+
+	//NUCIDs of groups unchanged since last run
+	private HashSet<String> reusedNUCIDs=new HashSet<String>();
+
+	private int nChecked=0;
+
+	public EnsdfCheckCache(){
+	}
+
+	/*
+	 * outfilename: path+name of output files without extension
+	 */
+	public EnsdfCheckCache(String outfilename){
+		filename=outfilename+".chk";
+		load();
+	}
+
+	public String filename(){return filename;}
+
+	/*
+	 * content hash of an ENSDF dataset from all its lines
+	 */
+	public String hashOf(ENSDF ens){
+		if(ens==null)
+			return "";
+
+		String hash=ensdfHashMap.get(ens);
+		if(hash!=null)
+			return hash;
+
+		try{
+			MessageDigest md=MessageDigest.getInstance("SHA-1");
+			Vector<String> lines=ens.lines();
+			for(int i=0;i<lines.size();i++){
+				md.update(lines.get(i).getBytes(StandardCharsets.UTF_8));
+				md.update((byte)'\n');
+			}
+
+			hash=toHex(md.digest());
+		}catch(Exception e){
+			hash="";
+		}
+
+		ensdfHashMap.put(ens, hash);
+		return hash;
+	}
+
+	/*
+	 * parentAdoptedV: Adopted datasets of parent nuclides of decay datasets in the group
+	 */
+	public String makeGroupHash(EnsdfGroup group,Vector<ENSDF> parentAdoptedV,float deltaEL,float deltaEG){
+		StringBuilder sb=new StringBuilder();
+		sb.append(CheckControl.version).append("|").append(deltaEL).append("|").append(deltaEG);
+		sb.append("|S").append(checkSettingsKey());
+
+		for(int i=0;i<group.nENSDF();i++)
+			sb.append("|D").append(hashOf(group.ensdfV().get(i)));
+
+		for(int i=0;i<parentAdoptedV.size();i++)
+			sb.append("|P").append(hashOf(parentAdoptedV.get(i)));
+
+		try{
+			MessageDigest md=MessageDigest.getInstance("SHA-1");
+			return toHex(md.digest(sb.toString().getBytes(StandardCharsets.UTF_8)));
+		}catch(Exception e){
+			return "";
+		}
+	}
+
+	/*
+	 * all settings in CheckControl used in making check messages, so that cached messages
+	 * are not reused after any of them is changed
+	 */
+	static String checkSettingsKey(){
+		StringBuilder sb=new StringBuilder();
+		sb.append(CheckControl.errorLimit).append(",").append(CheckControl.convertRIForAdopted)
+		  .append(",").append(CheckControl.createCombinedDataset).append(",").append(CheckControl.isUseAnyComValue)
+		  .append(",").append(CheckControl.isUseAverageSettings).append(",").append(CheckControl.forceAverageAll)
+		  .append(",").append(CheckControl.averageC2S).append(",").append(CheckControl.alwaysAverageEL)
+		  .append(",").append(CheckControl.groupLabelPrefix).append(",").append(CheckControl.groupLabelPosfix);
+
+		return sb.toString();
+	}
+
+	/*
+	 * set hash of group for current run and return true if the group is unchanged
+	 * since last run, in which case the cached results can be reused
+	 */
+	public boolean setGroupHash(EnsdfGroup group,String hash){
+		String NUCID=group.NUCID();
+		groupHashMap.put(NUCID, hash);
+
+		String oldHash=oldGroupHashMap.get(NUCID);
+		String[] oldResults=oldGroupResultsMap.get(NUCID);
+		if(hash.isEmpty() || oldHash==null || oldResults==null || !oldHash.equals(hash)){
+			nChecked++;
+			return false;
+		}
+
+		groupResultsMap.put(NUCID, oldResults);
+		reusedNUCIDs.add(NUCID);
+		return true;
+	}
+
+	public boolean isReused(EnsdfGroup group){
+		return reusedNUCIDs.contains(group.NUCID());
+	}
+
+	public void putMessage(EnsdfGroup group,String message,String XREFWarning){
+		String[] results=getResults(group);
+		results[0]=message;
+		results[1]=XREFWarning;
+	}
+
+	public void putXRF(EnsdfGroup group,String xrf){
+		getResults(group)[2]=xrf;
+	}
+
+	public String getMessage(EnsdfGroup group){return getResults(group)[0];}
+	public String getXREFWarning(EnsdfGroup group){return getResults(group)[1];}
+
+	//return null if not available
+	public String getXRF(EnsdfGroup group){
+		String[] results=groupResultsMap.get(group.NUCID());
+		if(results==null)
+			return null;
+
+		return results[2];
+	}
+
+	private String[] getResults(EnsdfGroup group){
+		String[] results=groupResultsMap.get(group.NUCID());
+		if(results==null){
+			results=new String[]{"","",null};
+			groupResultsMap.put(group.NUCID(), results);
+		}
+
+		return results;
+	}
+
+	public int nChecked(){return nChecked;}
+	public int nReused(){return reusedNUCIDs.size();}
+
+	public String getStatistics(){
+		return "re-checked nuclides: "+nChecked+", unchanged nuclides with reused results: "+reusedNUCIDs.size();
+	}
+
+	private void load(){
+		File f=new File(filename);
+		if(!f.exists())
+			return;
+
+		DataInputStream in=null;
+		try{
+			in=new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+			if(in.readInt()!=cacheFormatVersion || !in.readUTF().equals(CheckControl.version))
+				return;//discard cache from a different version of program
+
+			int n=in.readInt();
+			for(int i=0;i<n;i++){
+				String NUCID=in.readUTF();
+				String hash=in.readUTF();
+				String[] results=new String[3];
+				for(int j=0;j<3;j++){
+					if(in.readBoolean())
+						results[j]=readString(in);
+				}
+
+				oldGroupHashMap.put(NUCID, hash);
+				oldGroupResultsMap.put(NUCID, results);
+			}
+		}catch(Exception e){
+			oldGroupHashMap.clear();
+			oldGroupResultsMap.clear();
+		}
+
+		try{
+			if(in!=null)
+				in.close();
+		}catch(Exception e){}
+	}
+
+	/*
+	 * only groups in current run are saved
+	 */
+	public void save(){
+		if(filename.isEmpty())
+			return;
+
+		DataOutputStream out=null;
+		File tmp=new File(filename+".tmp");
+		try{
+			out=new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			out.writeInt(cacheFormatVersion);
+			out.writeUTF(CheckControl.version);
+
+			Vector<String> NUCIDsV=new Vector<String>();
+			for(String NUCID:groupHashMap.keySet()){
+				if(groupResultsMap.containsKey(NUCID))
+					NUCIDsV.add(NUCID);
+			}
+
+			out.writeInt(NUCIDsV.size());
+			for(String NUCID:NUCIDsV){
+				out.writeUTF(NUCID);
+				out.writeUTF(groupHashMap.get(NUCID));
+				String[] results=groupResultsMap.get(NUCID);
+				for(int j=0;j<3;j++){
+					out.writeBoolean(results[j]!=null);
+					if(results[j]!=null)
+						writeString(out,results[j]);
+				}
+			}
+
+			out.close();
+			out=null;
+
+			Util.replaceFile(tmp, new File(filename));
+		}catch(Exception e){
+			e.printStackTrace();
+		}
+
+		try{
+			if(out!=null)
+				out.close();
+		}catch(Exception e){}
+	}
+
+	//writeUTF() is limited to 64K bytes, too short for messages of a large nuclide
+	private void writeString(DataOutputStream out,String s) throws Exception{
+		byte[] bytes=s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private String readString(DataInputStream in) throws Exception{
+		byte[] bytes=new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes,StandardCharsets.UTF_8);
+	}
+
+	private String toHex(byte[] bytes){
+		StringBuilder sb=new StringBuilder();
+		for(byte b:bytes)
+			sb.append(String.format("%02x", b));
+
+		return sb.toString();
+	}
+}
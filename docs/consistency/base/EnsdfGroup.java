@@ -2,6 +2,8 @@ package consistency.base;
 
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.Vector;
 
@@ -67,6 +69,32 @@ public class EnsdfGroup {
 	
 	private HashMap<ENSDF,SpinParityParser> ensJPIParserMap=new HashMap<ENSDF,SpinParityParser>();
 	
+	//resolution table of all datasets in this group, made once in makeXTagMaps() from 
+	//datasetDSID0sV, datasetDSIDsV, datasetXTagsV and the XREF list in Adopted dataset
+	//so that DSID and XTag of a dataset are found by map lookup instead of searching
+	private LinkedHashMap<ENSDF,DatasetEntry> datasetEntryMap=new LinkedHashMap<ENSDF,DatasetEntry>();
+	private HashMap<String,DatasetEntry> xtagEntryMap=new HashMap<String,DatasetEntry>();//key=xtag
+	private HashMap<String,DatasetEntry> dsid0EntryMap=new HashMap<String,DatasetEntry>();//key=DSID0 of dataset
+	private HashMap<String,DatasetEntry> dsidEntryMap=new HashMap<String,DatasetEntry>();//key=DSID of dataset
+	
+	public static class DatasetEntry{
+		public ENSDF ens;
+		public String dsid0="",dsid="";
+		public String shortID="";//for DSID like A(B,C)D, short ID=(B,C)
+		public boolean hasDuplicateShortID=false;//if short ID is shared with another dataset in this group
+		public String xtag="";//see datasetXTagsV
+		public XRef xref=null;//entry in XREF list in Adopted dataset for this dataset; null if not in the list
+	}
+	
+	//index from each level to level groups containing it, and from each band to level groups 
+	//of its member levels; made on first use after level grouping and cleared by clearBandIndex()
+	//whenever datasets or level groups are changed
+	private IdentityHashMap<Record,Vector<RecordGroup>> levelGroupIndexMap=null;
+	private IdentityHashMap<Band,Vector<RecordGroup>> bandLevelGroupsMap=new IdentityHashMap<Band,Vector<RecordGroup>>();
+	
+	//data points extracted from records and comments for averaging, see DataPointTable
+	private DataPointTable dataPointTable=new DataPointTable();
+	
 	public EnsdfGroup(){
 	}
 	
@@ -83,6 +111,7 @@ public class EnsdfGroup {
 		if(ensdfV.isEmpty() || id.equals(NUCID)){
     		ensdfV.insertElementAt(ens,index);
     		NUCID=id;
+    		clearBandIndex();
     		if(ens.DSId().contains("ADOPTED")){
     			adopted=ens;
     			dsidXTagMapFromAdopted=makeXTagMapFromAdopted();
@@ -129,46 +158,44 @@ public class EnsdfGroup {
 	public String getXTagInAdopted(ENSDF ens){return dsidXTagMapFromAdopted.get(ens.DSId0());}
 	
 	public ENSDF getENSDFByXTag(String xtag){
-		try{
-			int i=datasetXTagsV.indexOf(xtag);
-			return ensdfV.get(i);
-		}catch (Exception e){
-		}	
-		return null;
+		return ensdfOf(xtagEntryMap.get(xtag));
 	}
 	
 	public ENSDF getENSDFByDSID0(String dsid0){
-		try{
-			int i=datasetDSID0sV.indexOf(dsid0);
-			return ensdfV.get(i);
-		}catch (Exception e){
-		}	
-		return null;
+		return ensdfOf(dsid0EntryMap.get(dsid0));
 	}
 	public ENSDF getENSDFByDSID(String dsid){
-		try{
-			int i=datasetDSIDsV.indexOf(dsid);
-			return ensdfV.get(i);
-		}catch (Exception e){
-		}	
-		return null;
+		return ensdfOf(dsidEntryMap.get(dsid));
 	}
 	
 	public SpinParityParser getJPIParserByDSID0(String dsid0){
-		try{
-			int i=datasetDSID0sV.indexOf(dsid0);
-			return getJPIParser(ensdfV.get(i));
-		}catch (Exception e){
-		}	
-		return null;
+		return getJPIParser(getENSDFByDSID0(dsid0));
 	}
 	public SpinParityParser getJPIParserByDSID(String dsid){
-		try{
-			int i=datasetDSIDsV.indexOf(dsid);
-			return getJPIParser(ensdfV.get(i));
-		}catch (Exception e){
-		}	
-		return null;
+		return getJPIParser(getENSDFByDSID(dsid));
+	}
+	
+	public DataPointTable dataPointTable(){return dataPointTable;}
+	
+	public DatasetEntry getDatasetEntry(ENSDF ens){return datasetEntryMap.get(ens);}
+	public DatasetEntry getDatasetEntryByXTag(String xtag){return xtagEntryMap.get(xtag);}
+	public DatasetEntry getDatasetEntryByDSID0(String dsid0){return dsid0EntryMap.get(dsid0);}
+	public DatasetEntry getDatasetEntryByDSID(String dsid){return dsidEntryMap.get(dsid);}
+	
+	//xtag of dataset assigned in makeXTagMaps(); return null if not available
+	public String getDatasetXTagByDSID0(String dsid0){
+		DatasetEntry entry=dsid0EntryMap.get(dsid0);
+		if(entry==null)
+			return null;
+		
+		return entry.xtag;
+	}
+	
+	private ENSDF ensdfOf(DatasetEntry entry){
+		if(entry==null)
+			return null;
+		
+		return entry.ens;
 	}
 	public SpinParityParser getJPIParser(ENSDF ens) {
 		if(ens==null)
@@ -181,6 +208,8 @@ public class EnsdfGroup {
 		this.levelGroupsV=levelGroupsV;
 		isLevelGrouped=true;
 		
+		clearBandIndex();
+		
 		//System.out.println("EnsdfGroup 173: "+dsidsVWithDuplicateShortID.size());
 		
 		for(RecordGroup g:levelGroupsV) {
@@ -224,6 +253,9 @@ public class EnsdfGroup {
 		HashMap<String,String> map0=new HashMap<String,String>();
 		map0.putAll(map);
 		
+		//parsed DSIDs in XREF list, parsed only once for all datasets not exactly matched
+		HashMap<String,DatasetID> xrefDSIDMap=new HashMap<String,DatasetID>();
+		
 		datasetDSIDsV.clear();
 		datasetDSID0sV.clear();
 		datasetXTagsV.clear();
@@ -237,7 +269,7 @@ public class EnsdfGroup {
 			if(xtag==null){
 				
 				//in cases, the DSID has been updated (e.g., updated T1/2 in DSID of decay datasets)
-				String temp=findMatchedDSIDInXREFMap(dsid0,map);				
+				String temp=findMatchedDSIDInXREFMap(dsid0,map,xrefDSIDMap);				
 				if(temp.isEmpty()){
 					xtag="?"+n;
 					n++;	
@@ -271,7 +303,7 @@ public class EnsdfGroup {
 	 * that matches the given dsid exactly or mostly (for the latter, in cases, the
 	 * DSID has been updated, e.g., updated T1/2 in DSID of decay datasets)
 	 */
-	private String findMatchedDSIDInXREFMap(String dsid,HashMap<String,String> map){
+	private String findMatchedDSIDInXREFMap(String dsid,HashMap<String,String> map,HashMap<String,DatasetID> parsedDSIDMap){
 		String match="";
 		try{
 			match=map.get(dsid);
@@ -282,7 +314,11 @@ public class EnsdfGroup {
 			Vector<String> similarDSIDs=new Vector<String>();
 			float diff=-1,min=10000;
 			for(String s:map.keySet()){	
-				DatasetID tempDID=new DatasetID(s);
+				DatasetID tempDID=parsedDSIDMap.get(s);
+				if(tempDID==null){
+					tempDID=new DatasetID(s);
+					parsedDSIDMap.put(s, tempDID);
+				}
 				if(DID.isSameDecayType(tempDID) && DID.decayTimeUnit.equals(tempDID.decayTimeUnit)) {
 				//if(DID.isSameDSID(tempDID) || DID.isSameDecayType(tempDID)){
 					if(Str.isNumeric(DID.decayTimeS)) {
@@ -453,7 +489,66 @@ public class EnsdfGroup {
     
     public void doGrouping() throws Exception{
 
-	
+    	clearBandIndex();
+    	
+    	makeXTagMaps();
+
+    	groupUnpGammas();
+
+    	groupLevels();
+
+    }
+    
+    /*
+     * set XTag maps and level/gamma groups made by doGrouping() for the same datasets in a
+     * previous run (see GroupingSnapshot), instead of grouping them again.
+     * JPI parsers are still made the same as in grouping, since they are used in checking, and
+     * then alternative JPIs of all levels are set to those at the end of that grouping, which 
+     * depend on the order levels were inserted into groups and can't be made again from the groups.
+     */
+    void restoreGrouping(Vector<String> xtagsV,Vector<String> dsid0sV,Vector<String> dsidsV,HashMap<String,String> fromAdoptedMap,
+    		HashMap<String,String> newMap,Vector<RecordGroup> levelGroupsV,Vector<RecordGroup> unpGammaGroupsV,Vector<Level> firstLevelsV,
+    		Vector<Vector<String>> altJPSVV) throws Exception{
+    	
+    	datasetXTagsV=xtagsV;
+    	datasetDSID0sV=dsid0sV;
+    	datasetDSIDsV=dsidsV;
+    	dsidXTagMapFromAdopted=fromAdoptedMap;
+    	newDSIDXTagMap=newMap;
+    	
+    	makeDatasetEntries();
+    	
+    	for(int i=0;i<ensdfV.size();i++){
+    		ENSDF ens=ensdfV.get(i);
+    		if(!ensJPIParserMap.containsKey(ens)) {
+    			SpinParityParser jpiParser=new SpinParityParser(ens);
+    			jpiParser.parseJPIsFromAllData();//altJPis of each level in ens is set in this call
+    			ensJPIParserMap.put(ens, jpiParser);
+    		}
+    	}
+    	
+    	for(int i=0;i<ensdfV.size();i++){
+    		ENSDF ens=ensdfV.get(i);
+    		Vector<String> altJPSV=altJPSVV.get(i);
+    		for(int j=0;j<ens.nLevels();j++)
+    			ens.levelAt(j).setAltJPiS(altJPSV.get(j));
+    	}
+    	
+    	firstLevelInGroupV.clear();
+    	firstLevelInGroupV.addAll(firstLevelsV);
+    	
+    	this.unpGammaGroupsV=unpGammaGroupsV;
+    	setLevelGroups(levelGroupsV);
+    }
+    
+    //for saving grouping in a snapshot
+    Vector<Level> firstLevelInGroupV(){return firstLevelInGroupV;}
+    
+    /*
+     * make (DSID,XTag) maps and dataset DSID and XTag lists only, no grouping for levels and gammas;
+     * called in doGrouping() and enough for checking datasets of a nuclide with no Adopted dataset
+     */
+    public void makeXTagMaps(){
     	if(adopted!=null){    
     		newDSIDXTagMap=makeNewXTagMap();//dsidsV,xtagsV also made in this call, so this one has to be called first	
     		dsidXTagMapFromAdopted=makeXTagMapFromAdopted();//dsidsV,xtagsV also made in this call	
@@ -461,11 +556,46 @@ public class EnsdfGroup {
     		dsidXTagMapFromAdopted=makeNewXTagMap();//dsidsV,xtagsV also made in this call	
     		newDSIDXTagMap.putAll(dsidXTagMapFromAdopted);;
     	}
-
-    	groupUnpGammas();
-
-    	groupLevels();
-
+    	
+    	makeDatasetEntries();
+    }
+    
+    /*
+     * make the resolution table of datasets from datasetDSID0sV, datasetDSIDsV, datasetXTagsV
+     * which are in the same order as ensdfV
+     * For duplicated keys, the first dataset is kept, same as indexOf() on the vectors 
+     */
+    private void makeDatasetEntries(){
+    	datasetEntryMap.clear();
+    	xtagEntryMap.clear();
+    	dsid0EntryMap.clear();
+    	dsidEntryMap.clear();
+    	
+    	HashMap<String,XRef> xtagXRefMap=new HashMap<String,XRef>();
+    	if(adopted!=null){
+    		for(XRef xref:adopted.XRefV())
+    			xtagXRefMap.put(xref.oldTag(), xref);
+    	}
+    	
+    	int size=Math.min(ensdfV.size(), datasetXTagsV.size());
+    	for(int i=0;i<size;i++){
+    		DatasetEntry entry=new DatasetEntry();
+    		entry.ens=ensdfV.get(i);
+    		entry.dsid0=datasetDSID0sV.get(i);
+    		entry.dsid=datasetDSIDsV.get(i);
+    		entry.xtag=datasetXTagsV.get(i);
+    		entry.shortID=EnsdfUtil.getShortDSID(entry.dsid0);
+    		entry.hasDuplicateShortID=dsidsVWithDuplicateShortID.contains(entry.dsid0);
+    		entry.xref=xtagXRefMap.get(entry.xtag);
+    		
+    		datasetEntryMap.put(entry.ens, entry);
+    		if(!xtagEntryMap.containsKey(entry.xtag))
+    			xtagEntryMap.put(entry.xtag, entry);
+    		if(!dsid0EntryMap.containsKey(entry.dsid0))
+    			dsid0EntryMap.put(entry.dsid0, entry);
+    		if(!dsidEntryMap.containsKey(entry.dsid))
+    			dsidEntryMap.put(entry.dsid, entry);
+    	}
     }
     
     
@@ -7209,12 +7339,14 @@ public class EnsdfGroup {
             if(refBandsV.contains(band))
                 return true;
             
-            Vector<RecordGroup> levelGroups=findLevelGroupsForBand(band);
+            HashSet<RecordGroup> levelGroups=new HashSet<RecordGroup>(findLevelGroupsForBand(band));
+            if(levelGroups.isEmpty())
+            	return false;
             
             for(Band b:refBandsV) {
                 Vector<RecordGroup> tempLevelGroups=findLevelGroupsForBand(b);
-                for(RecordGroup group:levelGroups) {
-                    if(tempLevelGroups.contains(group)) 
+                for(RecordGroup group:tempLevelGroups) {
+                    if(levelGroups.contains(group)) 
                         return true;
                   
                 }
@@ -7227,19 +7359,55 @@ public class EnsdfGroup {
         return false;
     }
         
-     
+    /*
+     * level groups of all member levels of the band, in the order of member levels
+     * and then the order of level groups. Result is kept for each band
+     */ 
     public Vector<RecordGroup> findLevelGroupsForBand(Band band){
-        Vector<RecordGroup> levelGroups=new Vector<RecordGroup>();
+        Vector<RecordGroup> levelGroups=bandLevelGroupsMap.get(band);
+        if(levelGroups!=null)
+        	return levelGroups;
+        
+        if(levelGroupIndexMap==null)
+        	makeLevelGroupIndex();
+        
+        levelGroups=new Vector<RecordGroup>();
         for(Level l:band.levels()) {
             //this.findLevelGroupIndexesOfLevel(l);
-            for(RecordGroup levGroup:levelGroupsV) {
-                if(levGroup.recordsV().contains(l))
-                    levelGroups.add(levGroup);
-            }
+        	Vector<RecordGroup> groupsV=levelGroupIndexMap.get(l);
+        	if(groupsV!=null)
+        		levelGroups.addAll(groupsV);
         }
         
+        bandLevelGroupsMap.put(band, levelGroups);
         return levelGroups;
     }
+    
+    //index from each level in level groups to the groups containing it
+    private void makeLevelGroupIndex() {
+    	levelGroupIndexMap=new IdentityHashMap<Record,Vector<RecordGroup>>();
+    	for(RecordGroup levGroup:levelGroupsV) {
+    		for(Record r:levGroup.recordsV()) {
+    			Vector<RecordGroup> groupsV=levelGroupIndexMap.get(r);
+    			if(groupsV==null) {
+    				groupsV=new Vector<RecordGroup>();
+    				levelGroupIndexMap.put(r, groupsV);
+    			}
+    			
+    			if(groupsV.isEmpty() || groupsV.lastElement()!=levGroup)
+    				groupsV.add(levGroup);
+    		}
+    	}
+    }
+    
+    /*
+     * must be called if datasets (and so bands) or members of level groups are changed after
+     * grouping; called in addENSDF(), doGrouping() and setLevelGroups()
+     */
+    public void clearBandIndex() {
+    	levelGroupIndexMap=null;
+    	bandLevelGroupsMap.clear();
+    }
         
     /*
      * wrap of record (level/gamma)
@@ -1,5 +1,6 @@
 package consistency.base;
 
+import java.util.Arrays;
 import java.util.Vector;
 
 import ensdfparser.ensdf.*;
@@ -23,13 +24,17 @@ import ensdfparser.ensdf.*;
  */
 public class EnsdfLineFinder {
 
-	Vector<Integer> lIndexV=new Vector<Integer>();//level line indexes
+	//line indexes are kept in flat arrays: those of gammas (decays/delays) of level n are
+	//gIndexes[gOffsets[n]] to gIndexes[gOffsets[n+1]-1], so that a lookup is two array reads
+	int[] lIndexes=new int[0];//level line indexes
 	
-	Vector<Vector<Integer>> gIndexVV=new Vector<Vector<Integer>>();//gamma line indexes
-	Vector<Vector<Integer>> dIndexVV=new Vector<Vector<Integer>>();//decay or delay line indexes
+	int[] gIndexes=new int[0];//gamma line indexes
+	int[] gOffsets=new int[1];
+	int[] dIndexes=new int[0];//decay or delay line indexes
+	int[] dOffsets=new int[1];
 	
-	Vector<Integer> ugIndexV=new Vector<Integer>();//unplaced gamma line indexes
-	Vector<Integer> udIndexV=new Vector<Integer>();//unplaced decay/delay line indexes
+	int[] ugIndexes=new int[0];//unplaced gamma line indexes
+	int[] udIndexes=new int[0];//unplaced decay/delay line indexes
 	
 	EnsdfLineFinder(){}
 	
@@ -37,107 +42,125 @@ public class EnsdfLineFinder {
 		parseLineIndex(ens);
 	}
 	
-	public void parseLineIndex(ENSDF ens){
-		lIndexV=ens.poslev();
+	/*
+	 * record type of a line from columns 6-9 without making substrings:
+	 * 'G' for gamma, 'D' for decay/delay (E,B,A,DP,DN), or 0 for other lines
+	 * (comment, continuation, or other records with non-blank columns 6-7)
+	 */
+	static char recordTypeOf(String line){
+		if(line.length()<9 || line.charAt(5)!=' ' || line.charAt(6)!=' ')
+			return 0;
+		
+		char c7=line.charAt(7),c8=line.charAt(8);
+		if((c7=='G' && c8<=' ') || (c7<=' ' && c8=='G'))
+			return 'G';
 		
+		return 'D';
+	}
+	
+	public void parseLineIndex(ENSDF ens){
 		Vector<String> lines=ens.lines();
-		int start=ens.firstURadLineNo();
-		int end=0;
+		Vector<Integer> poslev=ens.poslev();
+		int size=poslev.size();//equal to nLevels()
+		
+		lIndexes=new int[size];
+		for(int nl=0;nl<size;nl++)
+			lIndexes[nl]=poslev.get(nl);
 		
-
 		//unplaced gamma/decay/delay
-		start=ens.firstURadLineNo();
-		end=ens.firstLevelLineNo();		
+		int start=ens.firstURadLineNo();
+		int end=ens.firstLevelLineNo();
+		
+		int[] ug=new int[Math.max(end-start,0)];
+		int[] ud=new int[ug.length];
+		int nug=0,nud=0;
 		for(int i=start;i<end;i++){
-			String type=lines.get(i).substring(5,9);
-			if(!type.substring(0,2).equals("  "))
-				continue;
-			
-			type=type.trim();
-			
-			if(type.equals("G"))
-				ugIndexV.add(i);
-			else
-				udIndexV.add(i);//decay/decay type: E,B,A,DP,DN (there can be only one in one ENSDF file)
+			char type=recordTypeOf(lines.get(i));
+			if(type=='G')
+				ug[nug++]=i;
+			else if(type=='D')
+				ud[nud++]=i;//decay/decay type: E,B,A,DP,DN (there can be only one in one ENSDF file)
 		}
 		
-		Vector<Integer> poslev=ens.poslev();
-		int size=poslev.size();//equal to nLevels()
+		ugIndexes=Arrays.copyOf(ug,nug);
+		udIndexes=Arrays.copyOf(ud,nud);
+		
+		int nLines=lines.size();
+		int first=(size>0)?lIndexes[0]:nLines;
+		int[] g=new int[Math.max(nLines-first,0)];
+		int[] d=new int[g.length];
+		int ng=0,nd=0;
+		
+		gOffsets=new int[size+1];
+		dOffsets=new int[size+1];
 		for(int nl=0;nl<size;nl++){
-			start=poslev.get(nl);
+			start=lIndexes[nl];
 			if(nl==size-1)
-				end=lines.size();
+				end=nLines;
 			else
-				end=poslev.get(nl+1);
+				end=lIndexes[nl+1];
 			
-			Vector<Integer> gIndexV=new Vector<Integer>();
-			Vector<Integer> dIndexV=new Vector<Integer>();
+			gOffsets[nl]=ng;
+			dOffsets[nl]=nd;
 			for(int i=start;i<end;i++){
-				String type=lines.get(i).substring(5,9);
-				if(!type.substring(0,2).equals("  "))
-					continue;
-				
-				type=type.trim();
-				
-				if(type.equals("G"))
-					gIndexV.add(i);
-				else
-					dIndexV.add(i);//decay/decay type: E,B,A,DP,DN (there can be only one in one ENSDF file)
+				char type=recordTypeOf(lines.get(i));
+				if(type=='G')
+					g[ng++]=i;
+				else if(type=='D')
+					d[nd++]=i;//decay/decay type: E,B,A,DP,DN (there can be only one in one ENSDF file)
 			}
-			
-			gIndexVV.add(gIndexV);
-			dIndexVV.add(dIndexV);
 		}
+		gOffsets[size]=ng;
+		dOffsets[size]=nd;
 		
+		gIndexes=Arrays.copyOf(g,ng);
+		dIndexes=Arrays.copyOf(d,nd);
 	}
 	
 	public int indexOfLevelLine(int levelIndex){
-		return getInt(lIndexV,levelIndex);
+		return getInt(lIndexes,levelIndex);
 	}
 	
 	public int indexOfGammaLine(int levelIndex,int gammaIndex){
-		return getInt(gIndexVV,levelIndex,gammaIndex);
+		return getInt(gIndexes,gOffsets,levelIndex,gammaIndex);
 	}
 	
 	public int indexOfDecayLine(int levelIndex,int decayIndex){
-		return getInt(dIndexVV,levelIndex,decayIndex);
+		return getInt(dIndexes,dOffsets,levelIndex,decayIndex);
 	}
 	
 	public int indexOfDelayLine(int levelIndex,int delayIndex){
-		return getInt(dIndexVV,levelIndex,delayIndex);
+		return getInt(dIndexes,dOffsets,levelIndex,delayIndex);
 	}
 	
 	public int indexOfUnpGammaLine(int unGammaIndex){
-		return getInt(ugIndexV,unGammaIndex);
+		return getInt(ugIndexes,unGammaIndex);
 	}
 	
 	public int indexOfUnpDecayLine(int unDecayIndex){
-		return getInt(udIndexV,unDecayIndex);
+		return getInt(udIndexes,unDecayIndex);
 	}
 	
 	public int indexOfUnpDelayLine(int unDelayIndex){
-		return getInt(udIndexV,unDelayIndex);
+		return getInt(udIndexes,unDelayIndex);
 	}
 		
-	private int getInt(Vector<Integer> indexes,int n){
-		if(indexes==null)
-			return -1;
-		
-		int size=indexes.size();
-		if(size==0 || n<0 || n>size-1)
+	private int getInt(int[] indexes,int n){
+		if(n<0 || n>=indexes.length)
 			return -1;
 		
-		return indexes.get(n).intValue();
+		return indexes[n];
 	}
 	
-	private int getInt(Vector<Vector<Integer>> indexes,int n,int m){
-		if(indexes==null)
+	//m-th index of level n
+	private int getInt(int[] indexes,int[] offsets,int n,int m){
+		if(n<0 || m<0 || n>=offsets.length-1)
 			return -1;
 		
-		int size=indexes.size();
-		if(size==0 || n<0 || m<0 || n>size-1)
+		int i=offsets[n]+m;
+		if(i>=offsets[n+1])
 			return -1;
 		
-		return getInt(indexes.get(n),m);
+		return indexes[i];
 	}
 }
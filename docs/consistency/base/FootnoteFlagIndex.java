@@ -0,0 +1,95 @@
+package consistency.base;
+
+import java.util.HashMap;
+
+/*
+ * index of footnote flags of a dataset, made once from a map of (record name, flags of
+ * footnotes for the record name) (see findFromAdopted() in ConsistencyCheck), where a flag
+ * " " is for a general footnote without flag
+ *
+ * Flags of each record name are kept as a bit set of ASCII characters, so that checking if
+ * any flag of a record has a footnote for a record name is a few bit tests, instead of
+ * making a substring for each flag of the record and searching it in the flags string.
+ * Flags are also kept as trimmed, as used in checking footnotes stating "From Adopted".
+ */
+class FootnoteFlagIndex {
+
+	private static class Flags{
+		long low=0,high=0;//bits of ASCII characters 0-63 and 64-127
+		long trimmedLow=0,trimmedHigh=0;
+		String flags="",trimmedFlags="";//for non-ASCII characters
+	}
+
+	private HashMap<String,Flags> flagsMap=new HashMap<String,Flags>();
+
+	FootnoteFlagIndex(HashMap<String,String> nameFlagsMap){
+		if(nameFlagsMap==null)
+			return;
+
+		for(String name:nameFlagsMap.keySet()){
+			String s=nameFlagsMap.get(name);
+			if(s==null)
+				continue;
+
+			Flags f=new Flags();
+			f.flags=s;
+			f.trimmedFlags=s.trim();
+
+			for(int i=0;i<s.length();i++){
+				char c=s.charAt(i);
+				if(c<64)
+					f.low|=(1L<<c);
+				else if(c<128)
+					f.high|=(1L<<(c-64));
+			}
+			for(int i=0;i<f.trimmedFlags.length();i++){
+				char c=f.trimmedFlags.charAt(i);
+				if(c<64)
+					f.trimmedLow|=(1L<<c);
+				else if(c<128)
+					f.trimmedHigh|=(1L<<(c-64));
+			}
+
+			flagsMap.put(name, f);
+		}
+	}
+
+	//if record name has any footnote
+	boolean hasName(String name){
+		return flagsMap.containsKey(name);
+	}
+
+	//if record name has only general footnotes (trimmed flags are empty)
+	boolean isGeneralOnly(String name){
+		Flags f=flagsMap.get(name);
+		return f!=null && f.trimmedFlags.isEmpty();
+	}
+
+	/*
+	 * if any character in recordFlags is a footnote flag of record name
+	 * trimmed=true for checking in trimmed flags of record name (without " " of general footnotes
+	 * at beginning or end)
+	 */
+	boolean hasAnyFlag(String name,String recordFlags,boolean trimmed){
+		Flags f=flagsMap.get(name);
+		if(f==null || recordFlags==null)
+			return false;
+
+		long low=trimmed?f.trimmedLow:f.low;
+		long high=trimmed?f.trimmedHigh:f.high;
+		for(int i=0;i<recordFlags.length();i++){
+			char c=recordFlags.charAt(i);
+			if(c<64){
+				if((low&(1L<<c))!=0)
+					return true;
+			}else if(c<128){
+				if((high&(1L<<(c-64)))!=0)
+					return true;
+			}else if((trimmed?f.trimmedFlags:f.flags).indexOf(c)>=0){
+				return true;
+			}
+		}
+
+		return false;
+	}
+}
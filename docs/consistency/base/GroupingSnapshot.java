@@ -0,0 +1,479 @@
+package consistency.base;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Vector;
+
+import ensdfparser.ensdf.ENSDF;
+import ensdfparser.ensdf.Level;
+import ensdfparser.ensdf.Record;
+
+/*
+ * binary snapshot of level and gamma grouping of each EnsdfGroup (all datasets of a nuclide)
+ * made by EnsdfGroup.doGrouping(), saved after a check and restored in next check of the same
+ * datasets instead of grouping them again (see doGrouping() in ConsistencyCheck)
+ *
+ * saved for each group:
+ *   1, hash of the group, made of program version, grouping parameters (deltaEL, deltaEG)
+ *      and content hashes of all datasets in the group (in the order of the group), so that
+ *      the snapshot of a group is not used once any of them is changed
+ *   2, DSIDs and XTags of datasets and the two (DSID,XTag) maps
+ *   3, level groups with their gamma subgroups, groups of unplaced gammas, and the first
+ *      level of each level group, where each record is saved as its position in the datasets
+ *      of the group (dataset index, level index, gamma index)
+ *   4, alternative JPIs (altJPiS) of all levels in each dataset at the end of grouping, which
+ *      are set while levels are inserted into groups and are restored as they are
+ *
+ * Parsed datasets (MassChain) are not in the snapshot: they are objects of the ENSDF parser
+ * with no binary form, so files are still parsed and records of a restored group are the
+ * records of the parsed datasets found by their positions.
+ *
+ * File format: format version, program version (CheckControl.version), number of groups,
+ * and for each: NUCID, hash, length and data of the grouping. A file from a different format
+ * or program version is ignored. Only groups in current run are saved, to a temporary file
+ * which then replaces the old one.
+ *
+ * file is set by CheckControl.groupingSnapshotFile (empty for no snapshot)
+ */
+public class GroupingSnapshot {
+
+	private static final int snapshotFormatVersion=2;
+
+	//kinds of records saved in snapshot
+	private static final byte NULL_RECORD=0;
+	private static final byte LEVEL=1;
+	private static final byte GAMMA=2;
+	private static final byte UNP_GAMMA=3;
+
+	private static GroupingSnapshot shared=null;
+
+	private String filename="";
+
+	//key=NUCID, {hash,data}
+	private HashMap<String,Object[]> oldEntryMap=new HashMap<String,Object[]>();
+	private LinkedHashMap<String,Object[]> entryMap=new LinkedHashMap<String,Object[]>();
+
+	//content hashes of datasets, computed once per run
+	private EnsdfCheckCache hasher=new EnsdfCheckCache();
+
+	private int nRestored=0,nGrouped=0;
+
+	public GroupingSnapshot(){
+	}
+
+	/*
+	 * snapshot shared in this session, loaded from CheckControl.groupingSnapshotFile, or null if no file is set
+	 */
+	public static synchronized GroupingSnapshot shared(){
+		if(CheckControl.groupingSnapshotFile.isEmpty())
+			return null;
+
+		//file may be set for each check (see incremental check in Run)
+		if(shared==null || !shared.filename.equals(CheckControl.groupingSnapshotFile)){
+			shared=new GroupingSnapshot();
+			shared.load(CheckControl.groupingSnapshotFile);
+		}
+
+		return shared;
+	}
+
+	public synchronized String makeGroupHash(EnsdfGroup group){
+		StringBuilder sb=new StringBuilder();
+		sb.append(CheckControl.version).append("|").append(snapshotFormatVersion).append("|").append(group.getDeltaEL())
+		  .append("|").append(group.getDeltaEG());
+
+		for(int i=0;i<group.nENSDF();i++)
+			sb.append("|D").append(hasher.hashOf(group.ensdfV().get(i)));
+
+		try{
+			MessageDigest md=MessageDigest.getInstance("SHA-1");
+			byte[] bytes=md.digest(sb.toString().getBytes(StandardCharsets.UTF_8));
+
+			StringBuilder out=new StringBuilder();
+			for(byte b:bytes)
+				out.append(String.format("%02x", b));
+
+			return out.toString();
+		}catch(Exception e){
+			return "";
+		}
+	}
+
+	/*
+	 * restore grouping of the group from snapshot of last run and return true, or return false
+	 * if the group is not in the snapshot or any of its datasets or grouping parameters is changed
+	 * deltaEL and deltaEG must be set in the group before calling it
+	 */
+	public boolean restore(EnsdfGroup group){
+		String hash=makeGroupHash(group);
+
+		byte[] data=null;
+		synchronized(this){
+			Object[] entry=oldEntryMap.get(group.NUCID());
+			if(hash.isEmpty() || entry==null || !hash.equals(entry[0]))
+				return false;
+
+			data=(byte[])entry[1];
+		}
+
+		try{
+			DataInputStream in=new DataInputStream(new ByteArrayInputStream(data));
+			Vector<ENSDF> ensdfV=group.ensdfV();
+			if(in.readInt()!=ensdfV.size())
+				return false;
+
+			//read all before changing the group
+			Vector<String> xtagsV=readStrings(in);
+			Vector<String> dsid0sV=readStrings(in);
+			Vector<String> dsidsV=readStrings(in);
+			HashMap<String,String> fromAdoptedMap=readMap(in);
+			HashMap<String,String> newMap=readMap(in);
+
+			Vector<RecordGroup> levelGroupsV=readGroups(in,ensdfV);
+			Vector<RecordGroup> unpGammaGroupsV=readGroups(in,ensdfV);
+
+			Vector<Level> firstLevelsV=new Vector<Level>();
+			int n=in.readInt();
+			for(int i=0;i<n;i++)
+				firstLevelsV.add((Level)readRecord(in,ensdfV));
+
+			Vector<Vector<String>> altJPSVV=new Vector<Vector<String>>();
+			for(ENSDF ens:ensdfV){
+				Vector<String> altJPSV=readStrings(in);
+				if(altJPSV.size()!=ens.nLevels())
+					return false;
+
+				altJPSVV.add(altJPSV);
+			}
+
+			group.restoreGrouping(xtagsV, dsid0sV, dsidsV, fromAdoptedMap, newMap, levelGroupsV, unpGammaGroupsV, firstLevelsV, altJPSVV);
+		}catch(Exception e){
+			return false;
+		}
+
+		synchronized(this){
+			entryMap.put(group.NUCID(), new Object[]{hash,data});
+			nRestored++;
+		}
+
+		return true;
+	}
+
+	/*
+	 * save grouping of the group made by doGrouping() in this run; a group having any record
+	 * not found in its datasets is not saved
+	 */
+	public void put(EnsdfGroup group){
+		String hash=makeGroupHash(group);
+		if(hash.isEmpty())
+			return;
+
+		byte[] data=null;
+		try{
+			IdentityHashMap<Record,int[]> positionMap=makePositionMap(group.ensdfV());
+
+			ByteArrayOutputStream bytes=new ByteArrayOutputStream();
+			DataOutputStream out=new DataOutputStream(bytes);
+
+			out.writeInt(group.nENSDF());
+			writeStrings(out,group.datasetXTagsV());
+			writeStrings(out,group.datasetDSID0sV());
+			writeStrings(out,group.datasetDSIDsV());
+			writeMap(out,group.dsidXTagMapFromAdopted());
+			writeMap(out,group.newDSIDXTagMap());
+
+			writeGroups(out,group.levelGroupsV(),positionMap);
+			writeGroups(out,group.unpGammaGroupsV(),positionMap);
+
+			Vector<Level> firstLevelsV=group.firstLevelInGroupV();
+			out.writeInt(firstLevelsV.size());
+			for(Level lev:firstLevelsV)
+				writeRecord(out,lev,positionMap);
+
+			for(ENSDF ens:group.ensdfV()){
+				Vector<String> altJPSV=new Vector<String>();
+				for(int i=0;i<ens.nLevels();i++)
+					altJPSV.add(ens.levelAt(i).altJPiS());
+
+				writeStrings(out,altJPSV);
+			}
+
+			out.flush();
+			data=bytes.toByteArray();
+		}catch(Exception e){
+			return;
+		}
+
+		synchronized(this){
+			entryMap.put(group.NUCID(), new Object[]{hash,data});
+			nGrouped++;
+		}
+	}
+
+	public synchronized String getStatistics(){
+		return "grouping snapshot: restored nuclides="+nRestored+", grouped nuclides="+nGrouped;
+	}
+
+	//position of each level, gamma and unplaced gamma in datasets: {dataset index, kind, index, gamma index}
+	private IdentityHashMap<Record,int[]> makePositionMap(Vector<ENSDF> ensdfV){
+		IdentityHashMap<Record,int[]> positionMap=new IdentityHashMap<Record,int[]>();
+		for(int d=0;d<ensdfV.size();d++){
+			ENSDF ens=ensdfV.get(d);
+			for(int i=0;i<ens.nLevels();i++){
+				Level lev=ens.levelAt(i);
+				positionMap.put(lev, new int[]{d,LEVEL,i,-1});
+
+				for(int j=0;j<lev.nGammas();j++)
+					positionMap.put(lev.gammaAt(j), new int[]{d,GAMMA,i,j});
+			}
+
+			for(int i=0;i<ens.unpGammas().size();i++)
+				positionMap.put(ens.unpGammas().get(i), new int[]{d,UNP_GAMMA,i,-1});
+		}
+
+		return positionMap;
+	}
+
+	private void writeRecord(DataOutputStream out,Record r,IdentityHashMap<Record,int[]> positionMap) throws IOException{
+		if(r==null){
+			out.writeByte(NULL_RECORD);
+			return;
+		}
+
+		int[] position=positionMap.get(r);
+		if(position==null)
+			throw new IOException("record not in datasets: "+r.recordLine());
+
+		out.writeByte(position[1]);
+		out.writeInt(position[0]);
+		out.writeInt(position[2]);
+		out.writeInt(position[3]);
+	}
+
+	private Record readRecord(DataInputStream in,Vector<ENSDF> ensdfV) throws IOException{
+		byte kind=in.readByte();
+		if(kind==NULL_RECORD)
+			return null;
+
+		ENSDF ens=ensdfV.get(in.readInt());
+		int i=in.readInt();
+		int j=in.readInt();
+
+		if(kind==LEVEL)
+			return ens.levelAt(i);
+		else if(kind==GAMMA)
+			return ens.levelAt(i).gammaAt(j);
+		else if(kind==UNP_GAMMA)
+			return ens.unpGammas().get(i);
+
+		throw new IOException("wrong record kind: "+kind);
+	}
+
+	private void writeGroups(DataOutputStream out,Vector<RecordGroup> groupsV,IdentityHashMap<Record,int[]> positionMap) throws IOException{
+		if(groupsV==null){
+			out.writeInt(-1);
+			return;
+		}
+
+		out.writeInt(groupsV.size());
+		for(RecordGroup g:groupsV)
+			writeGroup(out,g,positionMap);
+	}
+
+	private Vector<RecordGroup> readGroups(DataInputStream in,Vector<ENSDF> ensdfV) throws IOException{
+		int n=in.readInt();
+		if(n<0)
+			return null;
+
+		Vector<RecordGroup> groupsV=new Vector<RecordGroup>();
+		for(int i=0;i<n;i++)
+			groupsV.add(readGroup(in,ensdfV));
+
+		return groupsV;
+	}
+
+	private void writeGroup(DataOutputStream out,RecordGroup g,IdentityHashMap<Record,int[]> positionMap) throws IOException{
+		Vector<Record> recordsV=g.recordsV();
+		out.writeInt(recordsV.size());
+		for(int i=0;i<recordsV.size();i++){
+			writeRecord(out,recordsV.get(i),positionMap);
+			writeString(out,g.dsidsV().get(i));
+			writeString(out,g.xtagsV().get(i));
+		}
+
+		out.writeInt(g.iMinE());
+		out.writeInt(g.iMaxE());
+		out.writeFloat(g.minE());
+		out.writeFloat(g.maxE());
+		out.writeFloat(g.minDE());
+		writeRecord(out,g.getAdoptedRecord(),positionMap);
+		writeRecord(out,g.getReferenceRecord(),positionMap);
+		out.writeBoolean(g.hasAverageRecord());
+		writeStrings(out,g.dsidsVWithDuplicateShortID);
+
+		writeGroups(out,g.subgroups(),positionMap);
+	}
+
+	private RecordGroup readGroup(DataInputStream in,Vector<ENSDF> ensdfV) throws IOException{
+		RecordGroup g=new RecordGroup();
+
+		int n=in.readInt();
+		for(int i=0;i<n;i++){
+			Record r=readRecord(in,ensdfV);
+			String dsid=readString(in);
+			String xtag=readString(in);
+			g.restoreRecord(r, dsid, xtag);
+		}
+
+		int iMinE=in.readInt();
+		int iMaxE=in.readInt();
+		float minE=in.readFloat();
+		float maxE=in.readFloat();
+		float minDE=in.readFloat();
+		Record adopted=readRecord(in,ensdfV);
+		Record refRecord=readRecord(in,ensdfV);
+		boolean hasAverage=in.readBoolean();
+		g.dsidsVWithDuplicateShortID=readStrings(in);
+
+		g.setSubGroups(readGroups(in,ensdfV));
+		g.restoreState(iMinE, iMaxE, minE, maxE, minDE, adopted, refRecord, hasAverage);
+
+		return g;
+	}
+
+	private void writeString(DataOutputStream out,String s) throws IOException{
+		out.writeBoolean(s!=null);
+		if(s!=null)
+			out.writeUTF(s);
+	}
+
+	private String readString(DataInputStream in) throws IOException{
+		if(!in.readBoolean())
+			return null;
+
+		return in.readUTF();
+	}
+
+	private void writeStrings(DataOutputStream out,Vector<String> stringsV) throws IOException{
+		out.writeInt(stringsV.size());
+		for(String s:stringsV)
+			writeString(out,s);
+	}
+
+	private Vector<String> readStrings(DataInputStream in) throws IOException{
+		Vector<String> stringsV=new Vector<String>();
+		int n=in.readInt();
+		for(int i=0;i<n;i++)
+			stringsV.add(readString(in));
+
+		return stringsV;
+	}
+
+	private void writeMap(DataOutputStream out,HashMap<String,String> map) throws IOException{
+		out.writeInt(map.size());
+		for(String key:map.keySet()){
+			writeString(out,key);
+			writeString(out,map.get(key));
+		}
+	}
+
+	private HashMap<String,String> readMap(DataInputStream in) throws IOException{
+		HashMap<String,String> map=new HashMap<String,String>();
+		int n=in.readInt();
+		for(int i=0;i<n;i++){
+			String key=readString(in);
+			map.put(key, readString(in));
+		}
+
+		return map;
+	}
+
+	public synchronized void load(String filename){
+		this.filename=filename;
+		oldEntryMap.clear();
+
+		File f=new File(filename);
+		if(!f.exists())
+			return;
+
+		DataInputStream in=null;
+		try{
+			in=new DataInputStream(new BufferedInputStream(new FileInputStream(f),1<<16));
+			if(in.readInt()!=snapshotFormatVersion || !in.readUTF().equals(CheckControl.version))
+				return;//discard snapshot from a different version of program
+
+			int n=in.readInt();
+			for(int i=0;i<n;i++){
+				String NUCID=in.readUTF();
+				String hash=in.readUTF();
+				byte[] data=new byte[in.readInt()];
+				in.readFully(data);
+
+				oldEntryMap.put(NUCID, new Object[]{hash,data});
+			}
+		}catch(Exception e){
+			oldEntryMap.clear();
+		}
+
+		try{
+			if(in!=null)
+				in.close();
+		}catch(Exception e){}
+	}
+
+	/*
+	 * only groups grouped or restored in current run are saved
+	 */
+	public synchronized void save(){
+		if(filename.isEmpty() || entryMap.isEmpty())
+			return;
+
+		File tmp=new File(filename+".tmp");
+		DataOutputStream out=null;
+		try{
+			out=new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp),1<<16));
+			out.writeInt(snapshotFormatVersion);
+			out.writeUTF(CheckControl.version);
+
+			out.writeInt(entryMap.size());
+			for(String NUCID:entryMap.keySet()){
+				Object[] entry=entryMap.get(NUCID);
+				byte[] data=(byte[])entry[1];
+
+				out.writeUTF(NUCID);
+				out.writeUTF((String)entry[0]);
+				out.writeInt(data.length);
+				out.write(data);
+			}
+
+			out.close();
+			out=null;
+
+			Util.replaceFile(tmp,new File(filename));
+		}catch(Exception e){
+			e.printStackTrace();
+		}
+
+		try{
+			if(out!=null)
+				out.close();
+		}catch(Exception e){}
+
+		//left only if saving failed
+		if(tmp.exists())
+			tmp.delete();
+	}
+}
@@ -0,0 +1,233 @@
+package consistency.base;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+
+/*
+ * Aho-Corasick matcher of a set of keywords, for finding all keywords in a comment body in
+ * one scan (see parseCommentData() in AverageValuesInComments)
+ *
+ * Matching is not case-sensitive and any run of white spaces (including line breaks) in both
+ * keywords and text is taken as one space, so that a keyword found in a comment by a case-
+ * sensitive search or by a search in its first sentence is always found by this matcher.
+ * Keywords are leading/trailing-trimmed, like in Util.parseDatapointsInComments().
+ *
+ * Up to 32 keywords; the result of match() has bit i set if keyword i is found. Keywords
+ * differing only in case or white spaces are kept as different keywords ending at the same
+ * node, so both are found by a match, but each has its own exact (case-sensitive) position.
+ */
+public class KeywordMatcher {
+
+	private ArrayList<HashMap<Character,Integer>> gotoV=new ArrayList<HashMap<Character,Integer>>();
+	private ArrayList<Integer> failV=new ArrayList<Integer>();
+	private ArrayList<Integer> outputV=new ArrayList<Integer>();//bits of keywords ending at the node
+
+	private ArrayList<String> keywordsV=new ArrayList<String>();//trimmed, as given
+	private ArrayList<String> normKeywordsV=new ArrayList<String>();//normalized, as in the trie
+	private int maxLength=0;//of normalized keywords
+
+	public KeywordMatcher(){
+		newNode();
+	}
+
+	/*
+	 * add a keyword and return its index (bit in match results), or -1 if it is empty
+	 * all keywords must be added before matching
+	 */
+	public int add(String keyword){
+		String exact=keyword.trim();
+		String key=normalize(exact);
+		if(key.isEmpty())
+			return -1;
+
+		int index=keywordsV.indexOf(exact);
+		if(index>=0)
+			return index;
+
+		if(keywordsV.size()>=32)
+			throw new IllegalStateException("too many keywords: "+keyword);
+
+		index=keywordsV.size();
+		keywordsV.add(exact);
+		normKeywordsV.add(key);
+		maxLength=Math.max(maxLength, key.length());
+
+		int node=0;
+		for(int i=0;i<key.length();i++){
+			char c=key.charAt(i);
+			Integer next=gotoV.get(node).get(c);
+			if(next==null){
+				next=newNode();
+				gotoV.get(node).put(c, next);
+			}
+			node=next;
+		}
+
+		buildFailureLinks();
+
+		return index;
+	}
+
+	public int size(){return keywordsV.size();}
+
+	//index of the keyword, -1 if it is not in the matcher (or empty)
+	public int indexOf(String keyword){
+		return keywordsV.indexOf(keyword.trim());
+	}
+
+	//bit of the keyword, 0 if it is not in the matcher (or empty)
+	public int bitOf(String keyword){
+		int index=indexOf(keyword);
+		return index<0?0:(1<<index);
+	}
+
+	/*
+	 * bits of all keywords found in text, in one scan
+	 */
+	public int match(CharSequence text){
+		return match(text,null);
+	}
+
+	/*
+	 * bits of all keywords found in text, in one scan, same as match(text)
+	 * exactStarts: if not null, exactStarts[i] is set to the position in text of the first
+	 *              occurrence of keyword i exactly as given (case and white spaces), -1 if none,
+	 *              the same as text.toString().indexOf(keyword.trim())
+	 */
+	public int match(CharSequence text,int[] exactStarts){
+		if(exactStarts!=null)
+			Arrays.fill(exactStarts, -1);
+
+		if(text==null)
+			return 0;
+
+		//positions in text of last normalized characters, for start of a match
+		int[] posRing=new int[Math.max(maxLength,1)];
+		int nNorm=0;
+
+		int found=0;
+		int exactFound=0;
+		int node=0;
+		boolean preSpace=false;
+		for(int i=0;i<text.length();i++){
+			char c=text.charAt(i);
+			if(Character.isWhitespace(c)){
+				if(preSpace)
+					continue;
+
+				c=' ';
+				preSpace=true;
+			}else{
+				c=Character.toUpperCase(c);
+				preSpace=false;
+			}
+
+			posRing[nNorm%posRing.length]=i;
+			nNorm++;
+
+			Integer next;
+			while((next=gotoV.get(node).get(c))==null && node!=0)
+				node=failV.get(node);
+
+			node=(next==null)?0:next;
+
+			int output=outputV.get(node);
+			found|=output;
+
+			//keywords are trimmed, so a match never starts or ends in a run of white spaces
+			//and its span in text is from the start position to i
+			int toCheck=(exactStarts==null)?0:(output&~exactFound);
+			for(int k=0;toCheck!=0;k++,toCheck>>>=1){
+				if((toCheck&1)==0)
+					continue;
+
+				int start=posRing[(nNorm-normKeywordsV.get(k).length())%posRing.length];
+				String exact=keywordsV.get(k);
+				if(i+1-start==exact.length() && regionEquals(text,start,exact)){
+					exactStarts[k]=start;
+					exactFound|=(1<<k);
+				}
+			}
+		}
+
+		return found;
+	}
+
+	private static boolean regionEquals(CharSequence text,int start,String s){
+		for(int i=0;i<s.length();i++){
+			if(text.charAt(start+i)!=s.charAt(i))
+				return false;
+		}
+
+		return true;
+	}
+
+	private int newNode(){
+		gotoV.add(new HashMap<Character,Integer>());
+		failV.add(0);
+		outputV.add(0);
+
+		return gotoV.size()-1;
+	}
+
+	//breadth-first, each node fails to the longest proper suffix in the trie and inherits its outputs
+	private void buildFailureLinks(){
+		LinkedList<Integer> queue=new LinkedList<Integer>();
+		for(int child:gotoV.get(0).values()){
+			failV.set(child, 0);
+			queue.add(child);
+		}
+
+		//outputs are rebuilt from keywords ending at each node, since links change with new keywords
+		int[] own=new int[gotoV.size()];
+		for(int i=0;i<normKeywordsV.size();i++){
+			String key=normKeywordsV.get(i);
+			int node=0;
+			for(int j=0;j<key.length();j++)
+				node=gotoV.get(node).get(key.charAt(j));
+
+			own[node]|=(1<<i);
+		}
+		for(int i=0;i<own.length;i++)
+			outputV.set(i, own[i]);
+
+		while(!queue.isEmpty()){
+			int node=queue.removeFirst();
+			for(Character c:gotoV.get(node).keySet()){
+				int child=gotoV.get(node).get(c);
+
+				int fail=failV.get(node);
+				Integer next;
+				while((next=gotoV.get(fail).get(c))==null && fail!=0)
+					fail=failV.get(fail);
+
+				int link=(next==null || next==child)?0:next;
+				failV.set(child, link);
+				outputV.set(child, outputV.get(child)|outputV.get(link));
+
+				queue.add(child);
+			}
+		}
+	}
+
+	static String normalize(String s){
+		StringBuilder sb=new StringBuilder(s.length());
+		boolean preSpace=false;
+		for(int i=0;i<s.length();i++){
+			char c=s.charAt(i);
+			if(Character.isWhitespace(c)){
+				if(!preSpace)
+					sb.append(' ');
+
+				preSpace=true;
+			}else{
+				sb.append(Character.toUpperCase(c));
+				preSpace=false;
+			}
+		}
+
+		return sb.toString();
+	}
+}
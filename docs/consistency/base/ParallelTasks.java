@@ -0,0 +1,71 @@
+package consistency.base;
+
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/*
+ * shared work-stealing pool for running independent tasks of checking and averaging in parallel
+ *
+ * Results are always returned in the order of the input tasks, so that messages and outputs
+ * are the same as those from running the tasks one by one.
+ *
+ * number of threads is set by CheckControl.nThreads (<=0 for number of available processors)
+ */
+public class ParallelTasks {
+
+	private static ForkJoinPool pool=null;
+
+	public static synchronized ForkJoinPool pool(){
+		if(pool==null)
+			pool=new ForkJoinPool(nThreads());
+
+		return pool;
+	}
+
+	public static int nThreads(){
+		if(CheckControl.nThreads>0)
+			return CheckControl.nThreads;
+
+		return Runtime.getRuntime().availableProcessors();
+	}
+
+	/*
+	 * run all tasks and return their results in the same order as tasks
+	 * tasks are run in the calling thread if there is only one task or one thread
+	 */
+	public static <T> Vector<T> invokeAll(List<Callable<T>> tasks) throws Exception{
+		Vector<T> results=new Vector<T>(tasks.size());
+
+		if(tasks.size()<=1 || nThreads()<=1){
+			for(Callable<T> task:tasks)
+				results.add(task.call());
+
+			return results;
+		}
+
+		List<Future<T>> futures=pool().invokeAll(tasks);
+		for(Future<T> f:futures){
+			try{
+				results.add(f.get());
+			}catch(ExecutionException e){
+				if(e.getCause() instanceof Exception)
+					throw (Exception)e.getCause();
+
+				throw e;
+			}
+		}
+
+		return results;
+	}
+
+	public static synchronized void shutdown(){
+		if(pool!=null){
+			pool.shutdown();
+			pool=null;
+		}
+	}
+}
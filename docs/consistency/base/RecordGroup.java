@@ -473,6 +473,40 @@ public class RecordGroup{
 		this.subgroups=subgroups;
 	}
 	
+	///////////////////////////////////
+	// state saved in a grouping snapshot (see GroupingSnapshot)
+	///////////////////////////////////
+	
+	int iMinE(){return iMinE;}
+	int iMaxE(){return iMaxE;}
+	float minE(){return minE;}
+	float maxE(){return maxE;}
+	float minDE(){return minDE;}
+	boolean hasAverageRecord(){return averageRec!=null;}
+	
+	//add a record from a snapshot as it is, with no update of energy range and reference record
+	@SuppressWarnings("unchecked")
+	void restoreRecord(Record r,String dsid,String xtag){
+		recordsV.add(r);
+		dsidsV.add(dsid);
+		xtagsV.add(xtag);
+	}
+	
+	//called after all records are restored
+	void restoreState(int iMinE,int iMaxE,float minE,float maxE,float minDE,Record adopted,Record refRecord,boolean hasAverage){
+		this.iMinE=iMinE;
+		this.iMaxE=iMaxE;
+		this.minE=minE;
+		this.maxE=maxE;
+		this.minDE=minDE;
+		this.adopted=adopted;
+		this.refRecord=refRecord;
+		
+		averageRec=null;
+		if(hasAverage)
+			averageRec=calculateAverageEnergy();
+	}
+	
     //check if the JPI of a level overlaps with any of the group
     //member level's JPIs
     //return false if not overlap with any of the group member's JPI
@@ -0,0 +1,103 @@
+package consistency.base;
+
+import ensdfparser.ensdf.Record;
+import ensdfparser.nds.ensdf.EnsdfUtil;
+
+/*
+ * filtered view of the members of a RecordGroup used as input for averaging, without
+ * copying the group: members are selected by an index mask over the original group, and
+ * DSIDs can be replaced for labels (e.g., decay DSID without parent half-life, see
+ * cleanDecayDSID() in ConsistencyCheck). The original group is never changed.
+ *
+ * Indexes are always those in the original group
+ */
+public class RecordGroupView {
+
+	private RecordGroup group;
+	private boolean[] excluded;
+	private String[] dsids;//replaced DSIDs, null if none is replaced
+	private int nSelected;
+
+	public RecordGroupView(RecordGroup group){
+		this.group=group;
+
+		int n=group.nRecords();
+		excluded=new boolean[n];
+		nSelected=n;
+	}
+
+	public RecordGroup group(){return group;}
+
+	//number of all members in the original group
+	public int size(){return excluded.length;}
+
+	//number of members selected in the view
+	public int nSelected(){return nSelected;}
+
+	public boolean isSelected(int i){return !excluded[i];}
+
+	public void exclude(int i){
+		if(!excluded[i]){
+			excluded[i]=true;
+			nSelected--;
+		}
+	}
+
+	public <T extends Record> T getRecord(int i){
+		return group.getRecord(i);
+	}
+
+	public String getDSID(int i){
+		if(dsids!=null && dsids[i]!=null)
+			return dsids[i];
+
+		return group.getDSID(i);
+	}
+
+	public void setDSID(int i,String dsid){
+		if(dsids==null)
+			dsids=new String[excluded.length];
+
+		dsids[i]=dsid;
+	}
+
+	//same as RecordGroup.getPrintDSID(i) but for replaced DSID
+	public String getPrintDSID(int i){
+		if(dsids==null || dsids[i]==null)
+			return group.getPrintDSID(i);
+
+		String dsid=dsids[i];
+		if(!group.dsidsVWithDuplicateShortID.contains(dsid))
+			return EnsdfUtil.getShortDSID(dsid);
+
+		return dsid;
+	}
+
+	//first selected member, null if none
+	public <T extends Record> T firstRecord(){
+		for(int i=0;i<excluded.length;i++){
+			if(!excluded[i])
+				return group.getRecord(i);
+		}
+
+		return null;
+	}
+
+	/*
+	 * apply the view to the group it is made of, for callers which need
+	 * a cleaned group: excluded members are removed and DSIDs replaced
+	 */
+	public void applyTo(RecordGroup recordGroup){
+		if(recordGroup!=group)
+			return;
+
+		for(int i=excluded.length-1;i>=0;i--){
+			if(excluded[i]){
+				recordGroup.remove(i);
+			}else if(dsids!=null && dsids[i]!=null){
+				recordGroup.dsidsV().remove(i);
+				recordGroup.dsidsV().add(i,dsids[i]);
+			}
+		}
+	}
+}
@@ -4,11 +4,15 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.Vector;
+import java.util.regex.Pattern;
 
 import consistency.main.Setup;
 import ensdfparser.calc.DataPoint;
@@ -21,7 +25,58 @@ import ensdfparser.nds.util.Str;
 
 public class Util {
 	
-	@SuppressWarnings("unused")
+	//counts of a block in countBlocks()
+	private static class BlockCount{
+		int nLevels=0,nGammas=0;//adopted levels, gammas
+		boolean isReaction=false;
+		String be2Ratio="";
+	}
+	
+	private static BlockCount countBlock(ArrayList<String> list){
+		BlockCount count=new BlockCount();
+		
+		String en=list.get(0).substring(3,5).trim().toUpperCase();
+		if(en.length()>1)
+			en=en.substring(0, 1)+en.toLowerCase().charAt(1);
+		
+        //counting levels and gamma
+        if(list.get(0).contains("ADOPTED")){
+        	String line="";
+        	for(int j=0;j<list.size();j++){
+        		line=list.get(j);
+        		char c=line.charAt(7);
+        		if(!line.substring(5,7).trim().isEmpty() || (c!='L' && c!='G'))
+        			continue;
+        		
+        		if(c=='L'){
+        			count.nLevels++;
+        			
+        			/*
+        			//count and print g.s. of all nuclides in ENSDF
+        			String NUCID=line.substring(0,5);
+        			Nucleus nuc=new Nucleus(NUCID);
+        			String zs=String.format("%5s    ",nuc.Z());
+        			runLog.println(zs+NUCID+"     "+line.substring(9,55));
+        			nNuclides++;
+        			break;
+        			*/
+        		}else if(c=='G')
+        			count.nGammas++;
+        	}
+        	
+        	count.be2Ratio=printBE2Ratio(list);
+        }else if(en.length()>0){
+        	count.isReaction=true;
+        }
+        
+        return count;
+	}
+	
+	/*
+	 * count blocks, adopted levels and gammas, and reactions/decays in an ENSDF file or in all mass
+	 * files of the library, and print B(E2) ratios in run.log
+	 * Files are scanned block by block (see EnsdfBlockScanner) without reading all lines into memory.
+	 */
 	public static void countBlocks(String inputFilePath) throws Exception{
         //Run run=new Run();
         //run.initWebDisplay();
@@ -30,17 +85,16 @@ public class Util {
         
         String baseOutDir="./out";
         
-        String A,en;
-        ArrayList<String> lines=new ArrayList<String>();       
+        ArrayList<File> files=new ArrayList<File>();
+        int nSeparators=0;//empty line added after each mass file, counted in total lines
         
         //run.loadENSDFDict("./test/local_dic2.dat");
         
-        PrintWriter runLog=new PrintWriter(new FileOutputStream(new File(baseOutDir+"/run.log")),true); //gloabl log file
+        final PrintWriter runLog=new PrintWriter(new FileOutputStream(new File(baseOutDir+"/run.log")),true); //gloabl log file
         
-    	long startTime,endTime,tempStart,tempEnd;
+    	long startTime,endTime;
     	float timeElapsed;//in second
     	startTime=System.currentTimeMillis();
-    	tempStart=startTime;
     	
     	
     	boolean useInputFile=false;
@@ -53,17 +107,15 @@ public class Util {
     	runLog.println(" Start...");
     	
     	if(useInputFile){
-    		try {
-                File f=new File(inputFilePath);    
-                //run.loadENSDF(f);
-                lines.addAll(ensdfparser.nds.util.Str.readFile(f));
-                runLog.println("Run log for processing file:"+f.getAbsolutePath()+"\n");
-    		}catch(Exception e) {
+            File f=new File(inputFilePath);    
+            if(!f.isFile()) {
     			runLog.println("Input file does not exist: "+inputFilePath+"\n");
     			runLog.close();
     			return;
     		}
-
+            
+            files.add(f);
+            runLog.println("Run log for processing file:"+f.getAbsolutePath()+"\n");
     	}else{
             String filePath;
             
@@ -94,94 +146,35 @@ public class Util {
             		continue;
             	}
             	
-            	lines.addAll(ensdfparser.nds.util.Str.readFile(f));
-            	lines.add("");
+            	files.add(f);
+            	nSeparators++;
             }
     	}  
         
-        Vector<Vector<String>> blocks=new Vector<Vector<String>>();
-        blocks=Str.splitStringBlock(lines);
-
-        //nds.ui.EnsdfWrap[] ews=run.getEnsdfWraps();
-        int ngood=0,nbad=0;
-        int ngoodTotal=0,nbadTotal=0;
-        String prevA="";
-        int nLevels=0,nGammas=0;//adopted levels, gammas
-        int nReactions=0,nNuclides=0;
-        for(int i=0;i<blocks.size();i++){
-        	        	
-        	ArrayList<String> list=new ArrayList<String>();
-        	list.addAll(blocks.get(i));
-        	
-        	A=list.get(0).substring(0,3).trim();
-        	en=list.get(0).substring(3,5).trim().toUpperCase();
-        	if(en.length()>1)
-        		en=en.substring(0, 1)+en.toLowerCase().charAt(1);
-        	
+    	//totals: #levels, #gammas, #reactions/decays
+    	final int[] totals=new int[3];
+    	
+        EnsdfBlockScanner scanner=new EnsdfBlockScanner();
+        scanner.scan(files, new EnsdfBlockScanner.BlockProcessor<BlockCount>() {
+        	public BlockCount process(ArrayList<String> block) {
+        		return countBlock(block);
+        	}
         	
-        			         
-            if(!A.equals(prevA)){
-            	
-                if(prevA.length()>0){
-                	tempEnd=System.currentTimeMillis();
-                	//runLog.println("*** End processing mass="+prevA);
-                	//runLog.println("*** Total "+(ngood+nbad)+" blocks, "+ngood+" success, "+nbad+" fail");
-                	//runLog.println("*** Processing time: "+String.format("%.3f", (float)(tempEnd-tempStart)/1000)+" seconds");
-                }
-            	
-            	//runLog.println("\n*** Processing mass="+A);
-            	tempStart=System.currentTimeMillis();
-            	ngood=0;
-            	nbad=0;
-            }
-            	
-            //counting levels and gamma
-            if(list.get(0).contains("ADOPTED")){
-            	String line="";
-            	for(int j=0;j<list.size();j++){
-            		line=list.get(j);
-            		char c=line.charAt(7);
-            		if(!line.substring(5,7).trim().isEmpty() || (c!='L' && c!='G'))
-            			continue;
-            		
-            		if(c=='L'){
-            			nLevels++;
-            			
-            			/*
-            			//count and print g.s. of all nuclides in ENSDF
-            			String NUCID=line.substring(0,5);
-            			Nucleus nuc=new Nucleus(NUCID);
-            			String zs=String.format("%5s    ",nuc.Z());
-            			runLog.println(zs+NUCID+"     "+line.substring(9,55));
-            			nNuclides++;
-            			break;
-            			*/
-            		}else if(c=='G')
-            			nGammas++;
-            	}
-            	
-            	String s=printBE2Ratio(list);
-            	if(s.length()>0) runLog.println(s);
-            }else if(en.length()>0){
-            	nReactions++;
-            }
-
-            
-            if(i==blocks.size()-1){
-            	tempEnd=System.currentTimeMillis();
-            	//runLog.println("*** End processing mass="+A);
-            	//runLog.println("*** Total "+(ngood+nbad)+" blocks, "+ngood+" success, "+nbad+" fail");
-            	//runLog.println("*** Processing time: "+String.format("%.3f", (float)(tempEnd-tempStart)/1000)+" seconds");
-            }
-            	
-            prevA=A;
-        }
+        	public void collect(BlockCount count) {
+        		totals[0]+=count.nLevels;
+        		totals[1]+=count.nGammas;
+        		if(count.isReaction)
+        			totals[2]++;
+        		
+        		if(count.be2Ratio.length()>0) runLog.println(count.be2Ratio);
+        	}
+        });
 
+        int ngoodTotal=0,nbadTotal=0;
         
-        runLog.println("\nTotal "+blocks.size()+" blocks, "+ngoodTotal+" success, "+nbadTotal+" fail");
-        runLog.println("        total lines="+lines.size());
-        runLog.println("        #levels="+nLevels+"  #gammas="+nGammas+" #reactions/decays="+nReactions);
-        //runLog.println("        #nuclides="+nNuclides);
+        runLog.println("\nTotal "+scanner.nBlocks()+" blocks, "+ngoodTotal+" success, "+nbadTotal+" fail");
+        runLog.println("        total lines="+(scanner.nLines()+nSeparators));
+        runLog.println("        #levels="+totals[0]+"  #gammas="+totals[1]+" #reactions/decays="+totals[2]);
         
         endTime=System.currentTimeMillis();
         timeElapsed=(float)(endTime-startTime)/1000;
@@ -202,27 +195,9 @@ public class Util {
      */
 	@SuppressWarnings("unused")
 	public static String printBE2Ratio(ArrayList<String> lines){
-    	String out="";
-    	SDS2XDX be2=null,be4=null;
-    	float e2=-1,e4=-1;
-    	boolean findBE2=false,findBE4=false;
     	if(!lines.get(0).contains("ADOPTED LEVELS"))
     		return "";
 		
-    	String NUCID=lines.get(0).substring(0,5);
-		ensdfparser.ensdf.Nucleus nuc;
-		try {
-			nuc = new ensdfparser.ensdf.Nucleus(NUCID);
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			return "";
-		}
-		
-		if(nuc.A()%2!=0 || nuc.z()%2!=0)
-			return "";
-		
-
-		
 		Vector<String> temp=new Vector<String>();
 		temp.addAll(lines);
 		ensdfparser.ensdf.ENSDF ens=new ensdfparser.ensdf.ENSDF();
@@ -234,61 +209,118 @@ public class Util {
 			return "";
 		}
 		
-    	String js="";
-    	for(int i=0;i<ens.nLevels();i++){
-    		ensdfparser.ensdf.Level lev=ens.levelAt(i);
-    		js=lev.JPiS().replace("(","").replace(")","").trim();
+		BE2RatioCalculator.Result r=BE2RatioCalculator.calculate(ens);
+		if(r==null)
+			return "";
 		
-    		if(js.equals("2+") && !findBE2){
-				for(int j=0;j<lev.nGammas();j++){
-					ensdfparser.ensdf.Gamma gam=lev.gammaAt(j);
-					ensdfparser.ensdf.ContRecord rc=null;
-					try{
-					    gam.contRecordsVMap().get("BE2WDWN").get(0);
-					}catch(Exception e) {}
-					
-					if(Math.abs(gam.EF()-lev.EF())<5 && (rc!=null&&rc.s().length()>0)){
-						findBE2=true;
-						e2=lev.EF();
-						be2=new SDS2XDX(rc.s(),rc.ds());
-					}
-				}
-			}
-    		
-    		if(js.equals("4+")&&findBE2){
-				for(int j=0;j<lev.nGammas();j++){
-					ensdfparser.ensdf.Gamma gam=lev.gammaAt(j);
-					ensdfparser.ensdf.ContRecord rc=null;
-					try{
-					    gam.contRecordsVMap().get("BE2WDWN").get(0);
-					}catch(Exception e) {}
-					
-					if(Math.abs(lev.EF()-e2-gam.EF())<5 && (rc!=null&&rc.s().length()>0)){
-						findBE4=true;
-						e4=lev.EF();
-						be4=new SDS2XDX(rc.s(),rc.ds());
-					}
-				}
-			}
+    	return r.printLine();
+    }
 
-    		if((findBE2&&findBE4) || i>5)
-    			break;
+    /*
+     * replace file f by tmp, a complete new version of it written aside, so that a run stopped
+     * in the middle of saving never leaves a partial file. Replaced atomically where the file
+     * system supports it. Throw IOException if f can not be replaced (e.g., it is open or mapped
+     * by another process on Windows), in which case f is unchanged
+     */
+    public static void replaceFile(File tmp,File f) throws IOException{
+    	try{
+    		Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    	}catch(AtomicMoveNotSupportedException e){
+    		Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    	}
+    }
+    
+    //version of parsing data points in comments, to be increased when parsing is changed,
+    //so that data cached from earlier versions are not used (see CommentDataCache)
+    public static final int commentParserVersion=1;
+    
+    //patterns for splitting comment text, compiled once instead of in each String.split()
+    private static final Pattern spacesPattern=Pattern.compile("[\\s]+");
+    private static final Pattern separatorsPattern=Pattern.compile("[,;]+");
+    private static final Pattern labelWordsPattern=Pattern.compile("[,\\s]+");
+    private static final Pattern keywordEntriesPattern=Pattern.compile("[,]+|[,\\s]+AND[\\s]+");
+    private static final Pattern bodyEntriesPattern=Pattern.compile("[,;]+|[,\\s]+AND[\\s]+|[;\\s]+AND[\\s]+|AND");
+    
+    /*
+     * index of key in str from fromIndex, ignoring case (key in upper case), without making an
+     * upper-case copy of str
+     */
+    static int indexOfIgnoreCase(String str,String key,int fromIndex) {
+    	int last=str.length()-key.length();
+    	for(int i=Math.max(fromIndex,0);i<=last;i++) {
+    		if(str.regionMatches(true,i,key,0,key.length()))
+    			return i;
+    	}
+    	
+    	return -1;
+    }
+    
+    /*
+     * add a space between a number and the following "(", like "12.3(1988AAAA)", in one pass.
+     * Only "(" outside of brackets is checked, and one at the very beginning stops the check.
+     */
+    static String addSpaceBeforeBracket(String body) {
+    	StringBuilder sb=null;
+    	int copied=0,from=0,index=0;
+    	while((index=body.indexOf('(',from))>0) {
+    		if(Character.isDigit(body.charAt(index-1))) {
+    			if(sb==null)
+    				sb=new StringBuilder(body.length()+16);
+    			
+    			sb.append(body,copied,index).append(' ');
+    			copied=index;
+    		}
     		
+    		from=body.indexOf(')',index+1);
+    		if(from<0)
+    			break;
     	}
     	
-    	if(!findBE2 || !findBE4)
-    		return "";
+    	if(sb==null)
+    		return body;
     	
-    	SDS2XDX r=null;
-    	if(be2!=null && be4!=null){
-    		r=be4.divided(be2);
-    		if(r.x()<1 && (ensdfparser.nds.util.Str.isNumeric(r.ds())||r.ds().isEmpty()) && ensdfparser.nds.util.Str.isNumeric(r.s()))
-    		out=NUCID+"    "+String.format("Z=%3s     B(E2)20=%8s %4s       B(E2)42=%8s %4s     ratio=%6s  %3s",nuc.Z(),be2.S(),be2.DS(),be4.S(),be4.DS(),r.S(),r.DS());
-    	}
+    	return sb.append(body,copied,body.length()).toString();
+    }
+    
+    /*
+     * in brackets, replace "," (and ";" if markSemicolon) with marker and "AND" with "and", so that
+     * the string is not split there into data entries; in one pass instead of copying the string
+     * for each replacement
+     */
+    static String markSeparatorsInBrackets(String str,String marker,boolean markSemicolon) {
+    	StringBuilder sb=new StringBuilder(str.length()+16);
+    	boolean inBracket=false;
+    	int nBrackets=0;
+    	int len=str.length();
     	
-    	return out;
+        for(int i=0;i<len;i++) {
+            char ch=str.charAt(i);
+            if(ch=='(' || ch=='[') {
+                inBracket=true;
+                nBrackets++;
+            }if(ch==')' || ch==']') {
+                nBrackets--;
+                if(nBrackets==0)
+                    inBracket=false;
+            }
+            
+            if(inBracket&&i<len-1){
+                if(ch==',' || (markSemicolon&&ch==';')) {
+                    sb.append(marker);
+                    continue;
+                }else if(str.startsWith("AND",i)) {
+                    sb.append("and");
+                    i=i+2;
+                    continue;
+                }
+            }
+            
+            sb.append(ch);
+        }
+        
+        return sb.toString();
     }
-
+    
     public static Vector<DataPoint> parseDatapointsInComments(Comment c,String keyword){
         return parseDatapointsInComments(c,keyword,false);
     }
@@ -296,8 +328,28 @@ public class Util {
      * keyword is for identifying if the comment contains wanted data values.
      * It should be set as very unique words of phrases, like default keyword="AVERAGE OF".
      * It is not case-sensitive and the values must be listed after the keyword
+     * 
+     * data points are taken from CommentDataCache if the same comment has been parsed before
      */
     public static Vector<DataPoint> parseDatapointsInComments(Comment c,String keyword,boolean shortenLabel){
+        CommentDataCache cache=CommentDataCache.shared();
+        if(cache==null)
+            return parseDatapointsInComments(c,keyword,shortenLabel,null);
+        
+        Object key=CommentDataCache.makeKey(c,keyword,shortenLabel);
+        Vector<DataPoint> dpsV=cache.get(key);
+        if(dpsV!=null)
+            return dpsV;
+        
+        Vector<CommentDataCache.Value> valuesV=new Vector<CommentDataCache.Value>();
+        dpsV=parseDatapointsInComments(c,keyword,shortenLabel,valuesV);
+        cache.put(key,valuesV);
+        
+        return dpsV;
+    }
+    
+    //valuesV: values of all data points for the cache, null if not needed
+    private static Vector<DataPoint> parseDatapointsInComments(Comment c,String keyword,boolean shortenLabel,Vector<CommentDataCache.Value> valuesV){
         Vector<DataPoint> dpsV=new Vector<DataPoint>();
         String body=c.rawBody();
         //String flags=c.flags();
@@ -307,11 +359,12 @@ public class Util {
         String firstSentence=Str.firstSentance(body);
         
         keyword=keyword.toUpperCase().trim();
+        String upperSentence=firstSentence.toUpperCase();
 
-        //System.out.println(firstSentence.toUpperCase().contains(keyword));
+        //System.out.println(upperSentence.contains(keyword));
         
         //if(nheads!=1 || flags.length()>0 || keyword.isEmpty() || !body.contains(keyword))
-        if(keyword.isEmpty() || !firstSentence.toUpperCase().contains(keyword))            
+        if(keyword.isEmpty() || !upperSentence.contains(keyword))            
             return dpsV; 
          
         body=firstSentence;
@@ -319,7 +372,7 @@ public class Util {
         String label="";
         double x=-1,dxl=-1,dxu=-1;
         
-        int start=body.toUpperCase().indexOf(keyword)+keyword.length();
+        int start=upperSentence.indexOf(keyword)+keyword.length();
         int end=-1;
         
         
@@ -370,7 +423,7 @@ public class Util {
 
         //System.out.println(str);
         
-        n=str.toUpperCase().indexOf("{I");
+        n=indexOfIgnoreCase(str,"{I",0);
         while(n>0) {
             n1=str.indexOf("}", n);
             if(n1>n) {
@@ -385,7 +438,7 @@ public class Util {
                 if(Str.isNumeric(s2))
                     str=str.substring(0,n)+" "+s1+" "+str.substring(n1+1);//space is added in case there is no space originally, like 12.3{I13}(1922AAAA)
                 
-                n=str.toUpperCase().indexOf("{I",n1);
+                n=indexOfIgnoreCase(str,"{I",n1);
             }else
                 break;
         }
@@ -394,7 +447,7 @@ public class Util {
         if(str.startsWith("(")) {
         	int p=str.indexOf(")");
         	String str1=str.substring(0,p).trim();
-        	String[] temp=str1.split("[\\s]+");
+        	String[] temp=spacesPattern.split(str1);
         	if(temp.length==2 && Str.isNumeric(temp[0])&&Str.isNumeric(temp[1])) {
         		str=str1+str.substring(p+1);
         	}
@@ -429,7 +482,7 @@ public class Util {
             if(n1+1<=n2)
             	s2=str.substring(n1+1,n2).trim();
             
-            String[] temp=s2.split("[,;]+");          
+            String[] temp=separatorsPattern.split(s2);          
             s2=temp[0];
             
             //System.out.println("Util 431: @s1="+s1+" @s2="+s2+" ##str="+str);
@@ -450,7 +503,7 @@ public class Util {
                     
                     if(n2+1<=n3) {
                     	s2=str.substring(n2+1,n3).trim();                    
-                    	temp=s2.split("[,;]+");                                  
+                    	temp=separatorsPattern.split(s2);                                  
                     	s2=temp[0];
                     }
                        
@@ -485,34 +538,12 @@ public class Util {
         //if(c.head().equals("T")) 
         //System.out.println("1 Type="+c.type()+" head="+c.head()+" body="+body+" str="+str+" keyword="+keyword);
 
-        inBracket=false;
-        nBrackets=0;
-        
         String commaMarker="@#$";
         
         str=str.replace("and","AND");
-        for(int i=0;i<str.length();i++) {
-            char ch=str.charAt(i);
-            if(ch=='(' || ch=='[') {
-                inBracket=true;
-                nBrackets++;
-            }if(ch==')' || ch==']') {
-                nBrackets--;
-                if(nBrackets==0)
-                    inBracket=false;
-            }
-            
-            if(inBracket&&i<str.length()-1){
-                if(ch==',') {
-                    str=str.substring(0,i)+commaMarker+str.substring(i+1);
-                }else if(str.substring(i).startsWith("AND")) {
-                    str=str.substring(0,i)+"and"+str.substring(i+3);
-                    i=i+2;
-                }
-            }
-        }
+        str=markSeparatorsInBrackets(str,commaMarker,false);
         
-        String[] dps=str.split("[,]+|[,\\s]+AND[\\s]+");
+        String[] dps=keywordEntriesPattern.split(str);
         //String[] dps=str.split("[,]+");
         //System.out.println(str.contains(","));
         
@@ -528,7 +559,7 @@ public class Util {
             
             //System.out.println("i="+i+" ###"+str+" keyword="+keyword);
             
-            if(!str.startsWith("=") && !str.toUpperCase().startsWith(keyword) && !Str.isDigit(str.charAt(0)))
+            if(!str.startsWith("=") && !str.regionMatches(true,0,keyword,0,keyword.length()) && !Str.isDigit(str.charAt(0)))
             	continue;
             
             str=findStartOfValUncPair(str);
@@ -540,7 +571,7 @@ public class Util {
             
             str=str.replace(commaMarker,",");
             
-            String[] v=str.split("[\\s]+");
+            String[] v=spacesPattern.split(str);
             
             
             //debug
@@ -572,7 +603,7 @@ public class Util {
             }
             
             if(isFakeUnc) {
-            	v=str.split("[\\s]+");
+            	v=spacesPattern.split(str);
             }
             
             //in case no space follows the uncertainty str, like 12.3 {I12}(1988AAAA), or 12.3 {I12}from 1988AAAA
@@ -634,7 +665,7 @@ public class Util {
                 
                 //for long label like, (1974Ro31, average of 21 {I3} from |b counting, 20 {I5} from neutron)
                 if(label.length()>30 && shortenLabel) {
-                    String[] tempA=label.split("[,\\s]+");
+                    String[] tempA=labelWordsPattern.split(label);
                     for(int j=0;j<tempA.length;j++) {
                         str=tempA[j].trim();
                         if(str.length()>0) {
@@ -706,6 +737,9 @@ public class Util {
                 
                 dpsV.add(dp);  
                 
+                if(valuesV!=null)
+                    valuesV.add(new CommentDataCache.Value(x,dxu,dxl,label,s,ds,unit));
+                
                 //debug
                 //if(c.head().equals("T")) 
                 //System.out.println("3 Type="+c.type()+" head="+c.head()+" body="+c.body()+" s="+s+" ds="+ds+" unit="+unit+" label="+label);
@@ -805,7 +839,7 @@ public class Util {
             else
             	s2="";
             
-            String[] temp=s2.split("[,;]+");
+            String[] temp=separatorsPattern.split(s2);
             
             //System.out.println("3 str="+str+" s1="+s1+"  s2="+s2+" temp.len="+temp.length+"\n");
             
@@ -846,7 +880,7 @@ public class Util {
 
                     if(n2+1<=n3) {
                     	s2=str.substring(n2+1,n3).trim();                    
-                    	temp=s2.split("[,;]+");                                  
+                    	temp=separatorsPattern.split(s2);                                  
                     	s2=temp[0];
                     }
 
@@ -898,27 +932,7 @@ public class Util {
         if(body==null || body.trim().isEmpty())
             return data;
         
-        String body1=body;
-        String body2=body;
-        int offset0=0,index0=0;
-        while((index0=body1.indexOf("(",offset0))>0) {
-        	char c=body1.charAt(index0-1);
-        	if(Character.isDigit(c)) {//to add space between a number and "("
-        		body2=body2.substring(0,index0)+" "+body2.substring(index0);
-        		body1=body2;
-      
-        		offset0=body1.indexOf(")",index0+1);
-        		if(offset0<0) {
-        			break;
-        		}
-        	}else {
-        		offset0=body1.indexOf(")",index0+1);
-        		if(offset0<0) 
-        			break;
-        	}
-        	
-        }
-        body=body2;
+        body=addSpaceBeforeBracket(body);
         
         //System.out.println(body);
         
@@ -993,7 +1007,7 @@ public class Util {
         String s1="",s2="",s0="";
         boolean isT=false;
         
-        n=str.toUpperCase().indexOf("{I");
+        n=indexOfIgnoreCase(str,"{I",0);
         while(n>0) {
             n1=str.indexOf("}", n);
             if(n1>n) {
@@ -1006,7 +1020,7 @@ public class Util {
                 if(Str.isNumeric(s2))
                     str=str.substring(0,n)+" "+s1+" "+str.substring(n1+1);//space is added in case there is no space originally, like 12.3{I13}(1922AAAA)
                 
-                n=str.toUpperCase().indexOf("{I",n1);
+                n=indexOfIgnoreCase(str,"{I",n1);
             }else
                 break;
         }
@@ -1069,8 +1083,19 @@ public class Util {
             		"a","b","c","d","e","f","g","h","i","j","k","l","m","n","o","p","q","r","s","t","u","v","w","x","y","z"));
             
             Vector<String> foundTypesV=new Vector<String>();
+            String name=nuc.nameENSDF().trim();//in all prefixes below
             for(String type:types) {
                 for(String num:nums) {
+                    //nothing to remove but spaces around if no NUCID left
+                    if(str.indexOf(name)<0) {
+                    	String str1=str.trim();
+                    	if(str1.length()!=str.length())
+                    		foundTypesV.add(type);
+                    	
+                    	str=str1;
+                    	continue;
+                    }
+                    
                     String prefix=nuc.nameENSDF()+num;
                     String str1=str;
                     String prefix1=(prefix+"C"+type).trim();
@@ -1329,7 +1354,7 @@ public class Util {
             if(n1+1<=n2)
             	s2=str.substring(n1+1,n2).trim();
             
-            String[] tempA=s2.split("[,;]+");
+            String[] tempA=separatorsPattern.split(s2);
             
             s2=tempA[0];
             n2=str.indexOf(s2,offset)+s2.length();
@@ -1364,7 +1389,7 @@ public class Util {
   
                     if(n2+1<=n3) {
                     	s2=str.substring(n2+1,n3).trim();                    
-                    	tempA=s2.split("[,;]+");                                  
+                    	tempA=separatorsPattern.split(s2);                                  
                     	s2=tempA[0];
                     }
                     
@@ -1379,7 +1404,7 @@ public class Util {
                 //if reaching here, we are looking for value without uncertainty. Check very carefully to avoid mistakenly recognize 
                 //any random numbers as a data value, like 15 in "E=15 MEV", 12.3 in "134AB B- DECAY (12.3 S)"
                 //System.out.println("Str="+str+"  s1="+s1+"\n s2="+s2+" "+isT);
-                System.out.println("s1="+s1+"  s2="+s2+" str="+str+" "+isHeading);
+                //System.out.println("s1="+s1+"  s2="+s2+" str="+str+" "+isHeading);
                 if(isHeading)
                 	break;
             }
@@ -1403,34 +1428,12 @@ public class Util {
         //System.out.println("1 str="+str);
 
         
-        inBracket=false;
-        nBrackets=0;
-        
         String commaMarker="@#$";
 
         str=str.replace("and","AND");
-        for(int i=0;i<str.length();i++) {
-            char ch=str.charAt(i);
-            if(ch=='(' || ch=='[') {
-                inBracket=true;
-                nBrackets++;
-            }if(ch==')' || ch==']') {
-                nBrackets--;
-                if(nBrackets==0)
-                    inBracket=false;
-            }
-            
-            if(inBracket&&i<str.length()-1){
-                if(ch==','||ch==';') {
-                    str=str.substring(0,i)+commaMarker+str.substring(i+1);
-                }else if(str.substring(i).startsWith("AND")) {
-                    str=str.substring(0,i)+"and"+str.substring(i+3);
-                    i=i+2;
-                }
-            }
-        }
+        str=markSeparatorsInBrackets(str,commaMarker,true);
         
-        String[] dps=str.split("[,;]+|[,\\s]+AND[\\s]+|[;\\s]+AND[\\s]+|AND");
+        String[] dps=bodyEntriesPattern.split(str);
         
         //debug
         //System.out.println("2  body="+body+" str="+str+"  "+dps.length);
@@ -1456,7 +1459,7 @@ public class Util {
             
             //System.out.println("str="+str);
             
-            String[] v=str.split("[\\s]+");
+            String[] v=spacesPattern.split(str);
             if(v.length<1 || !Str.isNumeric(v[0].trim()))
                 continue;
             
@@ -1482,7 +1485,7 @@ public class Util {
             }
             
             if(isFakeUnc) {
-            	v=str.split("[\\s]+");
+            	v=spacesPattern.split(str);
             }
             
             //in case no space follows the uncertainty str, like 12.3 {I12}(1988AAAA), or 12.3 {I12}from 1988AAAA
@@ -1555,7 +1558,7 @@ public class Util {
                 //for long label like, (1974Ro31, average of 21 {I3} from |b counting, 20 {I5} from neutron)
                 if(label.length()>30 && shortenLabel) {
                     
-                    String[] tempA=label.split("[,\\s]+");
+                    String[] tempA=labelWordsPattern.split(label);
                     for(int j=0;j<tempA.length;j++) {
                         str=tempA[j].trim();
                         if(str.length()>0) {
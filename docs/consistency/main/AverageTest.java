@@ -2,22 +2,47 @@ package consistency.main;
 
 import java.awt.Toolkit;
 import java.awt.datatransfer.StringSelection;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Random;
 import java.util.Vector;
 
+import consistency.base.AverageKernel;
 import consistency.base.AverageReport;
+import consistency.base.BootstrapAverage;
 import consistency.base.CheckControl;
+import consistency.base.ConsistencyCheck;
 import consistency.base.DataInComment;
+import consistency.base.EnsdfGroup;
+import consistency.base.GroupingSnapshot;
+import consistency.base.ParallelTasks;
+import consistency.base.RecordGroup;
 import consistency.base.Util;
 import ensdfparser.calc.Average;
 import ensdfparser.calc.DataPoint;
 import ensdfparser.ensdf.Comment;
+import ensdfparser.ensdf.ENSDF;
+import ensdfparser.ensdf.Record;
 import ensdfparser.ensdf.SDS2XDX;
+import ensdfparser.nds.ensdf.MassChain;
 import ensdfparser.nds.latex.Translator;
 import ensdfparser.nds.util.Str;
 
 public class AverageTest {
     public static void main(String[] args)throws Exception{
     	test3();
+    	testKernel();
+    	testBootstrapSeed();
+    	
+    	if(args.length>0)
+    		testGroupingSnapshot(args[0]);//ENSDF file of a mass chain
+    }
+    
+    private static void check(boolean isOK,String what) throws Exception{
+    	if(!isOK)
+    		throw new Exception("AverageTest failed: "+what);
+    	
+    	System.out.println(" OK: "+what);
     }
      
     public static void test3() throws Exception{
@@ -29,6 +54,163 @@ public class AverageTest {
     
     }
     
+    //grouping restored from grouping snapshot must be the same as grouping the same datasets again,
+    //including alternative JPIs of levels set in grouping
+    public static void testGroupingSnapshot(String ensFile) throws Exception{
+    	String snapshotFile0=CheckControl.groupingSnapshotFile;
+    	File file1=File.createTempFile("grouping", ".grp");
+    	File file2=File.createTempFile("grouping", ".grp");
+    	file1.delete();
+    	file2.delete();
+    	
+    	try {
+    		CheckControl.groupingSnapshotFile=file1.getPath();
+    		MassChain data1=new MassChain();
+    		data1.load(new File(ensFile));
+    		Vector<EnsdfGroup> groups1=new ConsistencyCheck(data1).groupENSDFs(data1,true);
+    		GroupingSnapshot.shared().save();
+    		
+    		//snapshot is loaded again for a different file name
+    		Files.copy(file1.toPath(), file2.toPath());
+    		CheckControl.groupingSnapshotFile=file2.getPath();
+    		MassChain data2=new MassChain();
+    		data2.load(new File(ensFile));
+    		Vector<EnsdfGroup> groups2=new ConsistencyCheck(data2).groupENSDFs(data2,true);
+    		
+    		String stat=GroupingSnapshot.shared().getStatistics();
+    		System.out.println(" "+stat);
+    		check(!stat.contains("restored nuclides=0,"),"grouping restored from snapshot");
+    		check(groups1.size()==groups2.size(),"same number of nuclides restored and grouped");
+    		for(int i=0;i<groups1.size();i++)
+    			check(printGrouping(groups1.get(i)).equals(printGrouping(groups2.get(i))),"restored grouping of "+groups1.get(i).NUCID());
+    	}finally {
+    		CheckControl.groupingSnapshotFile=snapshotFile0;
+    		file1.delete();
+    		file2.delete();
+    	}
+    }
+    
+    //levels with alternative JPIs, and level, gamma and unplaced gamma groups by energies and DSIDs
+    private static String printGrouping(EnsdfGroup g){
+    	StringBuilder sb=new StringBuilder();
+    	for(ENSDF ens:g.ensdfV()) {
+    		sb.append("D ").append(ens.DSId0()).append("\n");
+    		for(int i=0;i<ens.nLevels();i++)
+    			sb.append("  L ").append(ens.levelAt(i).ES()).append(" alt=").append(ens.levelAt(i).altJPiS()).append("\n");
+    	}
+    	
+    	printGroups(sb,g.levelGroupsV(),"");
+    	printGroups(sb,g.unpGammaGroupsV(),"");
+    	
+    	return sb.toString();
+    }
+    
+    private static void printGroups(StringBuilder sb,Vector<RecordGroup> groupsV,String indent){
+    	if(groupsV==null)
+    		return;
+    	
+    	for(RecordGroup rg:groupsV) {
+    		sb.append(indent).append("G");
+    		for(int i=0;i<rg.nRecords();i++) {
+    			Record r=rg.getRecord(i);
+    			sb.append(" ").append(r==null?"null":r.ES()).append("(").append(rg.getDSID(i)).append(")");
+    		}
+    		sb.append("\n");
+    		
+    		printGroups(sb,rg.subgroups(),indent+"  ");
+    	}
+    }
+    
+    //bootstrap with the same seed must give identical results for any number of threads
+    public static void testBootstrapSeed() throws Exception{
+    	double[] x= {31.2,30.0,30.8,30.8,29.5,31.0};
+    	double[] dxu={0.7,1.2,1.0,0.7,2.5,0.4};
+    	double[] dxl={0.7,1.0,1.0,0.9,2.5,0.4};
+    	int nResamples=100000;
+    	long seed=12345L;
+    	
+    	int nThreads0=CheckControl.nThreads;
+    	BootstrapAverage ref=null;
+    	try {
+    		for(int nThreads:new int[] {1,2,3,8}) {
+    			CheckControl.nThreads=nThreads;
+    			ParallelTasks.shutdown();//new pool with nThreads
+    			
+    			BootstrapAverage ba=new BootstrapAverage(x,dxu,dxl);
+    			ba.run(nResamples,seed);
+    			if(ref==null) {
+    				ref=ba;
+    				continue;
+    			}
+    			
+    			check(ba.value()==ref.value() && ba.error()==ref.error() && ba.lowerQuantile()==ref.lowerQuantile()
+    					&& ba.upperQuantile()==ref.upperQuantile(),"bootstrap with seed "+seed+", "+nThreads+" threads vs 1 thread");
+    		}
+    	}finally {
+    		CheckControl.nThreads=nThreads0;
+    		ParallelTasks.shutdown();
+    	}
+    	
+    	BootstrapAverage ba=new BootstrapAverage(x,dxu,dxl);
+    	ba.run(nResamples,seed+1);
+    	check(ba.value()!=ref.value(),"bootstrap with a different seed differs");
+    	check(Math.abs(ba.value()-ref.value())<5*ref.error()/Math.sqrt(nResamples)+0.01,"bootstrap averages of different seeds agree");
+    }
+    
+    //compare weighted average by AverageKernel with Average, for data points with symmetric uncertainties
+	public static void testKernel() throws Exception{
+    	//by hand: mean=2, internal=1/sqrt(2), chi**2/(n-1)=2, external=1
+    	AverageKernel.Result r=AverageKernel.weightedAverage(new double[] {1,3},new double[] {1,1},0);
+    	check(r.n==2 && isClose(r.value,2) && isClose(r.intError,Math.sqrt(0.5)) && isClose(r.chi2,2) && isClose(r.extError,1),
+    			"kernel average of two values");
+    	
+    	double[] x= {31.2,30.0,30.8,30.8,29.5,31.0};
+    	double[] dx={0.7,1.2,1.0,0.7,2.5,0.4};
+    	double[] x1= {31.2,30.0,30.8,30.8,25.0,31.0};
+    	double[] dx1={0.7,1.2,1.0,0.7,9.0,0.4};//weight of 25.0(9.0) is below 2%
+    	
+    	CheckControl.errorLimit=99;
+    	for(double[][] data:new double[][][] {{x,dx},{x1,dx1}}) {
+    		Vector<DataPoint> dpsV=new Vector<DataPoint>();
+    		for(int i=0;i<data[0].length;i++)
+    			dpsV.add(new DataPoint(data[0][i],data[1][i],data[1][i],"ref"+i));
+    		
+    		for(double weightLimit:new double[] {0,AverageReport.defaultWeightLowerLimit}) {
+    			AverageReport ar=new AverageReport(dpsV,"T","xxxxx  L",weightLimit);
+    			Average avg=ar.getAverage();
+    			r=ar.getKernelAverage();
+    			
+    			String what="kernel average vs Average of "+dpsV.size()+" values with weight limit "+weightLimit;
+    			check(r!=null && r.n==avg.aboveLimitIndexesV().size() && isClose(r.value,avg.value()) && isClose(r.intError,avg.intError())
+    					&& isClose(r.extError,avg.extError()) && isClose(r.chi2,avg.chi2()),what);
+    		}
+    	}
+    	
+    	//asymmetric uncertainties are left to Average
+    	Vector<DataPoint> dpsV=new Vector<DataPoint>();
+    	dpsV.add(new DataPoint(31.2,0.7,0.7,"ref0"));
+    	dpsV.add(new DataPoint(30.0,1.2,0.8,"ref1"));
+    	check(new AverageReport(dpsV,"T","xxxxx  L",0).getKernelAverage()==null,"no kernel average for asymmetric uncertainties");
+    	
+    	//random sample
+    	Random random=new Random(1);
+    	dpsV=new Vector<DataPoint>();
+    	for(int i=0;i<200;i++) {
+    		double dx2=0.5+random.nextDouble();
+    		dpsV.add(new DataPoint(30+dx2*random.nextGaussian(),dx2,dx2,"ref"+i));
+    	}
+    	
+    	AverageReport ar=new AverageReport(dpsV,"T","xxxxx  L",0);
+    	Average avg=ar.getAverage();
+    	r=ar.getKernelAverage();
+    	check(r!=null && isClose(r.value,avg.value()) && isClose(r.intError,avg.intError()) && isClose(r.extError,avg.extError())
+    			&& isClose(r.chi2,avg.chi2()),"kernel average vs Average of "+dpsV.size()+" random values");
+    }
+    
+    private static boolean isClose(double a,double b){
+    	return Math.abs(a-b)<=1E-9*Math.max(1,Math.max(Math.abs(a),Math.abs(b)));
+    }
+    
     @SuppressWarnings("unused")
 	public static void test2() throws Exception{
     	Translator.init();
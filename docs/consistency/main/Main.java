@@ -218,10 +218,21 @@ public class Main {
                 consistency.base.CheckControl.writeGLE=true;
             }else if(s.indexOf("MRG")==0){
                 consistency.base.CheckControl.writeMRG=true;
+            }else if(s.startsWith("AVGCACHE=")){
+            	int n=s0.indexOf("=");
+            	consistency.base.CheckControl.averageCacheFile=s0.substring(n+1).trim();
+            }else if(s.startsWith("CMTCACHE=")){
+            	int n=s0.indexOf("=");
+            	consistency.base.CheckControl.commentCacheFile=s0.substring(n+1).trim();
+            }else if(s.startsWith("GRPCACHE=")){
+            	int n=s0.indexOf("=");
+            	consistency.base.CheckControl.groupingSnapshotFile=s0.substring(n+1).trim();
             }else if(s.indexOf("AVG")==0){
                 consistency.base.CheckControl.writeAVG=true;
             }else if(s.indexOf("FED")==0){
                 consistency.base.CheckControl.writeFED=true;
+            }else if(s.indexOf("BE2")==0){
+                consistency.base.CheckControl.writeBE2=true;
             }else if(s.indexOf("ALL")==0){
                 consistency.base.CheckControl.writeRPT=true;
                 consistency.base.CheckControl.writeLEV=true;
@@ -230,6 +241,13 @@ public class Main {
                 consistency.base.CheckControl.writeMRG=true;
                 consistency.base.CheckControl.writeAVG=true;
                 consistency.base.CheckControl.writeFED=true;
+                consistency.base.CheckControl.writeBE2=true;
+            }else if(s.indexOf("ERRONLY")==0){
+                consistency.base.CheckControl.errorsOnly=true;
+            }else if(s.indexOf("TIME")==0){
+                consistency.base.CheckControl.writeTIM=true;
+            }else if(s.indexOf("INCR")==0){
+                consistency.base.CheckControl.incrementalCheck=true;
             }else if(s.startsWith("WORKDIR=") || s.startsWith("CURR")) {
             	String dir="";
             	if(s.startsWith("WORKDIR")) {
@@ -294,6 +312,7 @@ public class Main {
                 if(consistency.base.CheckControl.writeMRG) outexts+=":mrg";
                 if(consistency.base.CheckControl.writeAVG) outexts+=":avg";
                 if(consistency.base.CheckControl.writeFED) outexts+=":fed";
+                if(consistency.base.CheckControl.writeBE2) outexts+=":be2";
 
                 if(outexts.length()>0){
                     outexts=outexts.substring(1);
@@ -6,13 +6,20 @@ package consistency.main;
 import java.io.*;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Properties;
 import java.util.Vector;
 
 import javax.swing.JTextArea;
 
+import consistency.base.AverageCache;
+import consistency.base.AverageOutputFile;
 import consistency.base.CheckControl;
+import consistency.base.CommentDataCache;
 import consistency.base.ConsistencyCheck;
+import consistency.base.EnsdfCheckCache;
 import consistency.base.EnsdfGroup;
+import consistency.base.GroupingSnapshot;
 import ensdfparser.base.BaseRun;
 import ensdfparser.ensdf.ENSDF;
 import ensdfparser.nds.ensdf.*;
@@ -35,6 +42,9 @@ public class Run extends BaseRun<JTextArea>{
 	
     Vector<File> filesV;
     
+    //time (in ms) spent in each stage of the last mass-chain check, key=stage name
+    private LinkedHashMap<String,Long> stageTimeMap=new LinkedHashMap<String,Long>();
+    
     //static {errorLimit=CheckControl.errorLimit;}
     
 	public Run(){	       
@@ -68,9 +78,13 @@ public class Run extends BaseRun<JTextArea>{
         else if(temp.toLowerCase().contains("windows")) os="windows";
         else os="other";       
         
+        stageTimeMap.clear();
+        
         try {       
             formatCheck=new FormatCheck();
-            if(CheckControl.writeRPT) {
+            if(CheckControl.writeRPT && !CheckControl.errorsOnly) {
+                long t0=System.currentTimeMillis();
+                
                 //format check
                 printMessage("\nStart checking ENSDF format...");
                 formatCheck.check(filesV);
@@ -81,6 +95,8 @@ public class Run extends BaseRun<JTextArea>{
                 printMessage("See report in <"+name+".fmt>: error and warning messages for format check");
                 String s=formatCheck.getStatistics().trim();
                 printMessage("*** "+s+" ***"+"\n\n");
+                
+                stageTimeMap.put("format check", System.currentTimeMillis()-t0);
             }
         }catch(Exception e) {
             printMessage("\n*** Format check failed ***");
@@ -93,27 +109,55 @@ public class Run extends BaseRun<JTextArea>{
             consistencyCheck=new ConsistencyCheck(data);   
             consistencyCheck.setDeltaE(50, 50);//deltaEL,deltaEG
             
+            if(CheckControl.incrementalCheck){
+            	consistencyCheck.setCheckCache(new EnsdfCheckCache(outfilename));
+            	
+            	//grouping of unchanged nuclides is restored from the snapshot saved with the check cache
+            	if(CheckControl.groupingSnapshotFile.isEmpty())
+            		CheckControl.groupingSnapshotFile=outfilename+".grp";
+            	
+            	if(CheckControl.errorsOnly)
+            		printMessage("Note: -ERRONLY is ignored in incremental check (-INCR)");
+            }
+            
             printMessage("Start checking ENSDF consistency...");
             consistencyCheck.start();  
             printMessage("Done checking ENSDF consistency.");
             
+            if(CheckControl.incrementalCheck)
+            	printMessage("*** Incremental check: "+consistencyCheck.getCheckCache().getStatistics()+" ***");
+            
             printMessage("Starting writing outputs...");
             consistencyCheck.writeOutputs(outfilename);//filename here is path+name only without extension
+            consistencyCheck.saveCheckCache();
+            AverageCache.shared().save();
+            if(CommentDataCache.shared()!=null)
+                CommentDataCache.shared().save();
+            if(GroupingSnapshot.shared()!=null)
+                GroupingSnapshot.shared().save();
+            AverageOutputFile.clear();//.avg of this run is read again at its first update from GUI
+            
+            stageTimeMap.putAll(consistencyCheck.stageTimeMap());
 
             printMessage("Following output files have been generated:");
             
-            if(CheckControl.writeRPT) {
+            if(CheckControl.writeRPT || CheckControl.errorsOnly) {
                 printMessage("   "+name+String.format("%-6s",".err:")+" error and warning messages for consistency check");
                 //printMessage("   "+name+String.format("%-6s",".fmt:")+" error and warning messages for format check");
             }
             
-            if(CheckControl.writeLEV) printMessage("   "+name+String.format("%-6s",".lev:")+" tabulated level information");
-            if(CheckControl.writeGAM) printMessage("   "+name+String.format("%-6s",".gam:")+" gammas grouped by gamma energy");
-            if(CheckControl.writeGLE) printMessage("   "+name+String.format("%-6s",".gle:")+" gammas grouped by level energy");
-            if(CheckControl.writeMRG) printMessage("   "+name+String.format("%-6s",".mrg:")+" grouped lines of all datasets");
-            if(CheckControl.writeAVG) printMessage("   "+name+String.format("%-6s",".avg:")+" average results of records");
-            if(CheckControl.writeFED) printMessage("   "+name+String.format("%-6s",".fed:")+" feeding gammas of all levels");
-        
+            if(CheckControl.errorsOnly) {
+            	printMessage("   (errors-only check: no other outputs)");
+            }else {
+                if(CheckControl.writeLEV) printMessage("   "+name+String.format("%-6s",".lev:")+" tabulated level information");
+                if(CheckControl.writeGAM) printMessage("   "+name+String.format("%-6s",".gam:")+" gammas grouped by gamma energy");
+                if(CheckControl.writeGLE) printMessage("   "+name+String.format("%-6s",".gle:")+" gammas grouped by level energy");
+                if(CheckControl.writeMRG) printMessage("   "+name+String.format("%-6s",".mrg:")+" grouped lines of all datasets");
+                if(CheckControl.writeAVG) printMessage("   "+name+String.format("%-6s",".avg:")+" average results of records");
+                if(CheckControl.writeFED) printMessage("   "+name+String.format("%-6s",".fed:")+" feeding gammas of all levels");
+                if(CheckControl.writeBE2) printMessage("   "+name+String.format("%-6s",".be2:")+" B(E2) ratios of even-even nuclides");
+            }
+            
         }catch (Exception e){
         	printMessage("\n*** Consistency check failed due to format errors ***");
         	printMessage("Please check "+name+".fmt output for format errors in input datasets.\n\n");
@@ -122,7 +166,9 @@ public class Run extends BaseRun<JTextArea>{
 
         //check keynumber
         try {       
-            if(CheckControl.writeRPT) {
+            if(CheckControl.writeRPT && !CheckControl.errorsOnly) {
+                long t0=System.currentTimeMillis();
+                
                 printMessage("\nStart checking keynumbers...\n");
                 
                 File[] files=new File[filesV.size()];
@@ -157,6 +203,8 @@ public class Run extends BaseRun<JTextArea>{
                 printMessage("See report in <"+name+"_keynumber.rpt>: error and warning messages for keynumber check");
                 //String s=keynoCheck.getStatistics().trim();
                 //printMessage("*** "+s+" ***"+"\n\n");
+                
+                stageTimeMap.put("keynumber check", System.currentTimeMillis()-t0);
             }
         }catch(Exception e) {
         	printMessage("\n*** Keynumber check failed ***");
@@ -165,11 +213,79 @@ public class Run extends BaseRun<JTextArea>{
             return;
         }
         
+        if(CheckControl.writeTIM){
+        	if(CheckControl.errorsOnly)
+        		printSkippedStageTimes(outfilename+".tim");
+        	else
+        		saveStageTimes(outfilename+".tim");
+        }
+        
         Date date=new Date();
         SimpleDateFormat sdf=new SimpleDateFormat("E MM/dd/yyyy 'at' hh:mm:ss a zzz");
         printMessage("\nGenerated at: "+sdf.format(date));
     }    
     
+    /*
+     * save time of each stage of a full check, used by errors-only check to report time saved
+     */
+    private void saveStageTimes(String filename){
+    	Properties p=new Properties();
+    	for(String stage:stageTimeMap.keySet())
+    		p.setProperty(stage, stageTimeMap.get(stage).toString());
+    	
+    	try{
+    		FileOutputStream out=new FileOutputStream(filename);
+    		p.store(out, "time (ms) of each stage in last full check");
+    		out.close();
+    	}catch(Exception e){
+    		e.printStackTrace();
+    	}
+    }
+    
+    /*
+     * compare time of each stage in this errors-only check with that in last full check
+     * of the same output file
+     */
+    private void printSkippedStageTimes(String filename){
+    	Properties p=new Properties();
+    	try{
+    		FileInputStream in=new FileInputStream(filename);
+    		p.load(in);
+    		in.close();
+    	}catch(Exception e){
+    		printMessage("\nNo timing from a previous full check is available to estimate the time saved by errors-only check.");
+    		return;
+    	}
+    	
+    	long total=0;
+    	String out="";
+    	for(String stage:p.stringPropertyNames()){
+    		long fullTime=0;
+    		try{
+    			fullTime=Long.parseLong(p.getProperty(stage).trim());
+    		}catch(Exception e){
+    			continue;
+    		}
+    		
+    		Long time=stageTimeMap.get(stage);
+    		long saved=fullTime;
+    		if(time!=null)
+    			saved=fullTime-time.longValue();
+    		
+    		if(saved<=0)
+    			continue;
+    		
+    		String note=(time==null)?"skipped":"reduced";
+    		out+="   "+String.format("%-20s",stage+":")+String.format("%10d ms saved (%s)", saved,note)+"\n";
+    		total+=saved;
+    	}
+    	
+    	printMessage("\nTime saved by errors-only check compared to last full check:");
+    	if(!out.isEmpty())
+    		printMessage(out.substring(0,out.length()-1));
+    	printMessage("   "+String.format("%-20s","total:")+String.format("%10d ms", total));
+    }
+    
     public void checkKeynumber(String outfilename) throws Exception{
         //find out what operating system is being used, and set the right filename for the script
         String temp=System.getProperty("os.name");
@@ -492,7 +608,18 @@ public class Run extends BaseRun<JTextArea>{
     	s+="   -GAM              : to generate .mrg output, all data grouped by level and gamma       \n";
     	s+="   -AVG              : to generate .avg output, average results of E, T, RI from grouping \n";
        	s+="   -FED              : to generate .fed output, feeding gammas to each level              \n";
+       	s+="   -BE2              : to generate .be2 output, B(E2)(4+->2+)/B(E2)(2+->0+) of even-even  \n";
+       	s+="                       nuclides from Adopted Gammas                                       \n";
        	s+="   -ALL              : to generate all outputs above                                      \n";
+       	s+="   -INCR             : to re-check only nuclides changed since last run (cached in .chk)  \n";
+       	s+="                       and reuse grouping of others (in .grp); -ERRONLY is ignored with it\n";
+       	s+="   -ERRONLY          : to generate .err and .wrn only, without other outputs and averaging\n";
+       	s+="                       (format and keynumber checks are skipped)                          \n";
+       	s+="   -TIME             : to save time of each stage of a full check in .tim, or to print    \n";
+       	s+="                       time saved compared to it in a check with -ERRONLY                 \n";
+       	s+="   -AVGCACHE=file    : to save average reports in a file for reuse in next run            \n";
+       	s+="   -CMTCACHE=file    : to save data parsed from comments for reuse in next run            \n";
+       	s+="   -GRPCACHE=file    : to save level and gamma grouping for reuse in next run             \n";
     	s+="   -WORKDIR=path     : to set the working folder (output path) to be the given path       \n";
     	s+="   -CURRDIR          : to set the working folder (output path) to be the current folder   \n";
     	s+="   -help             : to print usage                                                     \n";
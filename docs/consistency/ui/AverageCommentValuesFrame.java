@@ -23,6 +23,8 @@ import java.io.IOException;
 import java.net.URISyntaxException;
 import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 import javax.swing.BorderFactory;
 import javax.swing.ButtonGroup;
@@ -30,6 +32,7 @@ import javax.swing.GroupLayout;
 import javax.swing.GroupLayout.Alignment;
 import javax.swing.JPanel;
 import javax.swing.JRadioButton;
+import javax.swing.SwingWorker;
 import javax.swing.LayoutStyle.ComponentPlacement;
 import javax.swing.UIManager.LookAndFeelInfo;
 import javax.swing.event.HyperlinkEvent;
@@ -47,9 +50,12 @@ import javax.swing.text.html.HTMLEditorKit;
 
 import averagingAlgorithms.averagingMethods;
 import averagingAlgorithms.averagingReport;
+import consistency.base.AverageCache;
 import consistency.base.AverageReport;
+import consistency.base.BootstrapAverage;
 import consistency.base.CheckControl;
 import consistency.base.DataInComment;
+import consistency.base.ParallelTasks;
 import consistency.base.Util;
 import ensdf_datapoint.dataPt;
 import ensdfparser.calc.DataPoint;
@@ -98,11 +104,20 @@ public class AverageCommentValuesFrame extends JFrame{
     private int defaultUncertaintyLimit=CheckControl.errorLimit;
     
     double[] paramArray = new double[8];//for other methods
+    long bootstrapSeed=BootstrapAverage.defaultSeed;//for reproducible bootstrap
+    
+    //methods in V.AveLib for comparison, in the order of printing; bootstrap of AverageReport
+    //is printed after them in its own section (see makeOtherMethodTasks())
+    private static final String[] otherMethodNames={"LWM","NRM","RT","EVM","BS","MP"};
+    
+    //averaging with other methods running in background, null if none
+    private SwingWorker<Void,String> otherMethodsWorker=null;
     
     public AverageCommentValuesFrame() {
         addWindowListener(new WindowAdapter() {
             @Override
             public void windowClosed(WindowEvent e) {
+                cancelOtherMethods();
                 CheckControl.errorLimit=defaultUncertaintyLimit;
             }
         });
@@ -415,6 +430,8 @@ public class AverageCommentValuesFrame extends JFrame{
     }
     
     public void clear() throws IOException{
+        cancelOtherMethods();
+        
         if(messenger!=null){
             messenger.setText("");
             messenger.setCaretPosition(messenger.getDocument().getLength());
@@ -450,8 +467,7 @@ public class AverageCommentValuesFrame extends JFrame{
             
             //System.out.println(" prefix="+prefix+" lineType="+lineType+"*");
             
-            AverageReport ar=new AverageReport(dpsV,entryName,prefix,0);
-            String str=ar.getReport();
+            String str=AverageCache.shared().getReport(dpsV,entryName,prefix,0,"");
             
             
             //System.out.println(" size="+dpsV.size()+" str="+str);
@@ -461,14 +477,11 @@ public class AverageCommentValuesFrame extends JFrame{
                 clear();
 
                 
+                printMessageAsIs(str,messengerStyle);
+                
                 //report from other methods
                 resetParams();
-                String s=printReportOfOtherMethods(dpsV);
-                if(s.length()>0)
-                	str+=s;
-                
-                
-                printMessage(str);
+                printReportOfOtherMethodsInBackground(dpsV);
             }else {
             	printMessage("No data values can be extracted from the input text.");
             }
@@ -512,8 +525,7 @@ public class AverageCommentValuesFrame extends JFrame{
             
             //System.out.println(" prefix="+prefix+" lineType="+lineType+"*");
             
-            AverageReport ar=new AverageReport(dpsV,entryName,prefix,0);
-            String str=ar.getReport();
+            String str=AverageCache.shared().getReport(dpsV,entryName,prefix,0,"");
             
             //System.out.println(" size="+dpsV.size()+" str="+str);
             
@@ -524,14 +536,13 @@ public class AverageCommentValuesFrame extends JFrame{
                 
                 //report from other methods
                 if(toCalculateOthers) {
-                    resetParams();
-                    String s=printReportOfOtherMethods(dpsV);
-                    if(s.length()>0)
-                    	str+=s;
-                    
+                    printMessageAsIs(str,messengerStyle);
                     
+                    resetParams();
+                    printReportOfOtherMethodsInBackground(dpsV);
+                }else {
+                    printMessage(str);
                 }
-                printMessage(str);
             }else {
             	printMessage("No data values can be extracted from the input text.");
             }
@@ -561,6 +572,7 @@ public class AverageCommentValuesFrame extends JFrame{
     public void setBootstrapNumber(int nb) {paramArray[5]=nb;}
     public void setMPTolerance(double mp) {paramArray[6]=mp;}
     public void setMPIterationNum(int num) {paramArray[7]=num;}
+    public void setBootstrapSeed(long seed) {bootstrapSeed=seed;}
     
     public double getCriticalChi2CL() {return paramArray[0];}
     public double getLWMMaxWeight() {return paramArray[1];}
@@ -570,10 +582,42 @@ public class AverageCommentValuesFrame extends JFrame{
     public double getBootstrapNumber() {return paramArray[5];}
     public double getMPTolerance() {return paramArray[6];}
     public double getMPIterationNum() {return paramArray[7];}
+    public long getBootstrapSeed() {return bootstrapSeed;}
   
-    @SuppressWarnings("unused")
+    /*
+     * input data of V.AveLib methods converted from data points: one "value(uncertainty)" line per 
+     * data point with numerical value and uncertainty. It is made only once for all methods
+     */
+    private static String makeDataOfOtherMethods(Vector<DataPoint> dpsV) {
+    	StringBuilder data=new StringBuilder();
+        for(DataPoint dp:dpsV) {
+        	String s=dp.s();
+        	String ds=dp.ds();
+        	if(s.isEmpty() || !Str.isNumeric(s))
+        		continue;
+        	if(!ds.isEmpty() && !Str.isNumeric(ds) && !ds.contains("+"))
+        		continue;
+        	
+        	if(ds.isEmpty())
+        		ds="0";
+        	
+        	data.append(s).append("(").append(ds).append(")\n");
+        }
+        
+        return data.toString();
+    }
+    
 	public averagingReport getReportOfOtherMethod(Vector<DataPoint> dpsV, String methodName) {
-		String data="";
+		return getReportOfOtherMethod(makeDataOfOtherMethods(dpsV),methodName,paramArray.clone());
+	}
+	
+	/*
+	 * data: made by makeDataOfOtherMethods()
+	 * params: a copy of paramArray, so that methods can run in parallel with the settings when started
+	 * each call makes its own dataset, since methods may re-order or flag data points in it
+	 */
+    @SuppressWarnings("unused")
+	private static averagingReport getReportOfOtherMethod(String data, String methodName, double[] params) {
 		averagingReport rpt=null;
         dataPt[] dataset;
         dataPt result;
@@ -586,30 +630,16 @@ public class AverageCommentValuesFrame extends JFrame{
         int maxIt;
         double precision;
         
-        precision = paramArray[6];
-        maxIt = (int) paramArray[7];       
-        NUM_MEDIANS = (int) paramArray[5];       
-        outlierConfidenceLevel = 1 + (int) paramArray[4];      
-        weightLimit = paramArray[1]/100d;
-        outlierMethod = (int) paramArray[2];
-        criticalChi2CL = paramArray[0];
-        nrmCL=paramArray[3]/100;
+        precision = params[6];
+        maxIt = (int) params[7];       
+        NUM_MEDIANS = (int) params[5];       
+        outlierConfidenceLevel = 1 + (int) params[4];      
+        weightLimit = params[1]/100d;
+        outlierMethod = (int) params[2];
+        criticalChi2CL = params[0];
+        nrmCL=params[3]/100;
         
         try {
-            for(DataPoint dp:dpsV) {
-            	String s=dp.s();
-            	String ds=dp.ds();
-            	if(s.isEmpty() || !Str.isNumeric(s))
-            		continue;
-            	if(!ds.isEmpty() && !Str.isNumeric(ds) && !ds.contains("+"))
-            		continue;
-            	
-            	if(ds.isEmpty())
-            		ds="0";
-            	
-            	data+=s+"("+ds+")\n";
-            }
-            
             dataset = VAveLib_GUI_methods.createDataset(data);
             
             rpt=new averagingReport();;
@@ -643,7 +673,7 @@ public class AverageCommentValuesFrame extends JFrame{
 		return rpt;
     }
     
-    private String printFullReport(List<String>list) {
+    private static String printFullReport(List<String>list) {
     	String out="";
     	try {
     		for(String line:list)
@@ -661,19 +691,115 @@ public class AverageCommentValuesFrame extends JFrame{
     	return printFullReport(rpt.fullReport());
     }
     
+    private static final String otherMethodsHeader="\n *** Averaging results using V.AveLib by M.Birch and B.Singh ***\n\n";
+    private static final String bootstrapHeader="\n *** Bootstrap averaging by this code (parallel, reproducible for the same seed) ***\n\n";
+    
+    //tasks of averaging with all other methods, in the order of otherMethodNames, and then
+    //bootstrap of AverageReport (see BootstrapAverage), which is parallel and reproducible for the same seed
+    private Vector<Callable<String>> makeOtherMethodTasks(final Vector<DataPoint> dpsV){
+    	final String data=makeDataOfOtherMethods(dpsV);
+    	final double[] params=paramArray.clone();
+    	final long seed=bootstrapSeed;
+    	
+    	Vector<Callable<String>> tasks=new Vector<Callable<String>>();
+    	for(final String methodName:otherMethodNames) {
+    		tasks.add(new Callable<String>() {
+    			public String call() {
+    				averagingReport rpt=getReportOfOtherMethod(data,methodName,params);
+    				return printFullReport(rpt.fullReport())+"\n";
+    			}
+    		});
+    	}
+    	
+		tasks.add(new Callable<String>() {
+			public String call() throws Exception {
+				AverageReport ar=new AverageReport(dpsV,"X","",0);
+				return bootstrapHeader+ar.printBootstrapAverage((int)params[5],seed)+"\n";
+			}
+		});
+		
+    	return tasks;
+    }
+    
 	public String printReportOfOtherMethods(Vector<DataPoint> dpsV) {
 		String out="";
-		out+="\n *** Averaging results using V.AveLib by M.Birch and B.Singh ***\n\n";
-		out+=printReportOfOtherMethod(dpsV,"LWM")+"\n";
-		out+=printReportOfOtherMethod(dpsV,"NRM")+"\n";
-		out+=printReportOfOtherMethod(dpsV,"RT")+"\n";
-		out+=printReportOfOtherMethod(dpsV,"EVM")+"\n";
-		out+=printReportOfOtherMethod(dpsV,"BS")+"\n";
-		out+=printReportOfOtherMethod(dpsV,"MP")+"\n";
+		out+=otherMethodsHeader;
+		
+		try {
+			for(String s:ParallelTasks.invokeAll(makeOtherMethodTasks(dpsV)))
+				out+=s;
+		}catch(Exception e) {
+			e.printStackTrace();
+		}
 		
 		return out;
 	}
 	
+	/*
+	 * run all other methods in parallel off the event dispatch thread and print the report 
+	 * of each method as soon as it and all methods before it are done, so that reports
+	 * are always printed in the same order as in printReportOfOtherMethods()
+	 */
+	private void printReportOfOtherMethodsInBackground(Vector<DataPoint> dpsV) {
+		cancelOtherMethods();
+		
+		final Vector<Callable<String>> tasks=makeOtherMethodTasks(dpsV);
+		
+		otherMethodsWorker=new SwingWorker<Void,String>() {
+			private Vector<Future<String>> futures=new Vector<Future<String>>();
+			
+			@Override
+			protected Void doInBackground() throws Exception {
+				for(Callable<String> task:tasks)
+					futures.add(ParallelTasks.pool().submit(task));
+				
+				try {
+					for(Future<String> f:futures) {
+						String s=f.get();
+						if(isCancelled())
+							break;
+						
+						publish(s);
+					}
+				}finally {
+					for(Future<String> f:futures)
+						f.cancel(true);
+				}
+				
+				return null;
+			}
+			
+			@Override
+			protected void process(List<String> reports) {
+				if(isCancelled())
+					return;
+				
+				for(String s:reports)
+					printMessageAsIs(s,messengerStyle);
+			}
+			
+			@Override
+			protected void done() {
+				try {
+					if(!isCancelled())
+						get();
+				}catch(Exception e) {
+					e.printStackTrace();
+				}
+			}
+		};
+		
+		printMessageAsIs(otherMethodsHeader,messengerStyle);
+		otherMethodsWorker.execute();
+	}
+	
+	private void cancelOtherMethods() {
+		if(otherMethodsWorker!=null) {
+			otherMethodsWorker.cancel(true);
+			otherMethodsWorker=null;
+		}
+	}
+	
 	
     @SuppressWarnings("unused")
     private void copyCommentButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_include_ButtonActionPerformed
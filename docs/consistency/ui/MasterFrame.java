@@ -18,6 +18,7 @@ import java.awt.event.ActionListener;
 import java.awt.event.InputEvent;
 import java.io.*;
 
+import java.util.Arrays;
 import java.util.Vector;
 
 import javax.swing.*;
@@ -28,6 +29,7 @@ import javax.swing.text.DefaultCaret;
 
 import consistency.base.AverageValuesInComments;
 import consistency.base.CheckControl;
+import consistency.base.EnsdfBlockScanner;
 import consistency.main.Run;
 import consistency.main.Setup;
 import ensdfparser.ensdf.ENSDF;
@@ -60,6 +62,8 @@ public class MasterFrame extends CustomFrame {
     
     Vector<File> filesV;
     
+    private SwingWorker<Void,String> loadWorker=null;//loading files in background, see loadFiles()
+    
     consistency.main.Run run;
 	private ButtonGroup limitButtonGroup;
 	private JRadioButton limit99RadioButton;
@@ -81,6 +85,7 @@ public class MasterFrame extends CustomFrame {
             CheckControl.writeMRG=outexts.contains("mrg");
             CheckControl.writeAVG=outexts.contains("avg");
             CheckControl.writeFED=outexts.contains("fed");
+            CheckControl.writeBE2=outexts.contains("be2");
         }  
         
         initComponents();
@@ -115,11 +120,13 @@ public class MasterFrame extends CustomFrame {
                 Transferable t = support.getTransferable();
      
                 try {
+                    if(isLoadingFiles())
+                    	return false;
+                    
                     java.util.List<File> fileList=(java.util.List<File>)t.getTransferData(DataFlavor.javaFileListFlavor);
      
                     consistency.main.Setup.filedir=fileList.get(0).getAbsolutePath();
                     consistency.main.Setup.save();
-                    data.clear();
                                  
                     run.clear();            
                     //run.printMessage(run.title());
@@ -701,6 +708,9 @@ public class MasterFrame extends CustomFrame {
      */
     private void reloadLastFile() {
     	try {
+    		if(isLoadingFiles())
+    			return;
+    		
     		if(this.filesV.size()==0) {
     			run.printMessage("Warning: no file to be reloaded. Please load a file first");
     			return;
@@ -714,14 +724,10 @@ public class MasterFrame extends CustomFrame {
 
     		
             run.clear();            
-            data.clear();
             
             run.printMessage("Reloading...");
             
-            loadFiles(files);//note that selected file that are not ENSDF file are ignored and not put into filesV
-           
-            if(filesV.size()==0)
-            	return;
+            loadFiles(files);
             
             viewGroupsButtonButton.setEnabled(false);
     	}catch(Exception e) {
@@ -764,6 +770,8 @@ public class MasterFrame extends CustomFrame {
 		loadDataFileBrowser();
 	}
 	private void loadDataFileBrowser() {
+        if(isLoadingFiles())
+        	return;
         
         isFileLoaded=false;
          try{
@@ -788,8 +796,6 @@ public class MasterFrame extends CustomFrame {
              if(ret==JFileChooser.APPROVE_OPTION){
                  consistency.main.Setup.filedir=fc.getCurrentDirectory().toString();
                  consistency.main.Setup.save();
-
-                 data.clear();
     
                  File[] files=fc.getSelectedFiles();
                  //dataFile=fc.getSelectedFile();
@@ -806,37 +812,77 @@ public class MasterFrame extends CustomFrame {
     }//GEN-LAST:event_loadButtonActionPerformed
        
 
-    private void loadFiles(File[] files) throws Exception{
-
+    //checked before messages and data of loaded files are cleared for loading new files
+    private boolean isLoadingFiles(){
+    	if(loadWorker!=null && !loadWorker.isDone()) {
+    		run.printMessage("Warning: files are still being loaded. Please wait until loading is done");
+    		return true;
+    	}
+    	
+    	return false;
+    }
+    
+    /*
+     * load files off the event dispatch thread, and print each file once it is read; 
+     * data can be checked once all files are loaded (isFileLoaded=true)
+     */
+    private void loadFiles(final File[] files){
+    	isFileLoaded=false;
+    	data.clear();
     	run.resetCheck();
     	filesV.clear();
     	
-        if(files.length==1){
-       	 File dataFile=files[0];
-       	 run.printMessage("Loading file: "+dataFile.getAbsolutePath());
-       	 data.load(dataFile);
-        }else if(files.length>1){
-       	 Vector<String> lines=new Vector<String>();
-       	 
-       	 run.printMessage("Loading files:");
-       	 for(int i=0;i<files.length;i++){
-       		 run.printMessage("    "+files[i].getAbsolutePath());
-       		 lines.addAll(Str.readFile(files[i]));
-       		 if(!lines.lastElement().trim().isEmpty())
-       			 lines.addElement("    \n");
-       		 
-       		 //System.out.println("In MasterFrame line 362: lastline new line="+lines.lastElement().trim().indexOf("\n")+"  *"+lines.lastElement()+"*");
-       	 }
-       	 data.load(lines);
-        }
-   
-                                        
-        run.printMessage("Done loading");
-                  
-        for(int i=0;i<files.length;i++)
-       	 filesV.add(files[i]);
-        
-        isFileLoaded=true;
+    	loadWorker=new SwingWorker<Void,String>() {
+    		@Override
+    		protected Void doInBackground() throws Exception {
+    	        if(files.length==1){
+    	        	File dataFile=files[0];
+    	        	publish("Loading file: "+dataFile.getAbsolutePath());
+    	        	data.load(dataFile);
+    	        }else if(files.length>1){
+    	        	//files are read in parallel, and lines of all files are parsed at once
+    	        	publish("Loading files:");
+    	        	Vector<String> lines=EnsdfBlockScanner.readFiles(Arrays.asList(files),new EnsdfBlockScanner.FileListener(){
+    	        		public void fileRead(File f,int nLines,int nBlocks){
+    	        			publish("    "+f.getAbsolutePath()+"  ("+nLines+" lines, "+nBlocks+" blocks)");
+    	        		}
+    	        	});
+
+    	        	publish("Parsing "+lines.size()+" lines...");
+    	        	data.load(lines);
+    	        }
+    	        
+    			return null;
+    		}
+    		
+    		@Override
+    		protected void process(java.util.List<String> messages) {
+    			for(String s:messages)
+    				run.printMessage(s);
+    		}
+    		
+    		@Override
+    		protected void done() {
+    			try {
+    				get();
+    			}catch(Exception e) {
+    				Throwable cause=(e.getCause()!=null)?e.getCause():e;
+    				cause.printStackTrace();
+    				run.printMessage("Error when loading files: "+cause);
+    				JOptionPane.showMessageDialog(MasterFrame.this,cause);
+    				return;
+    			}
+    			
+    	        run.printMessage("Done loading");
+    	        
+    	        for(int i=0;i<files.length;i++)
+    	        	filesV.add(files[i]);
+    	        
+    	        isFileLoaded=true;
+    		}
+    	};
+    	
+    	loadWorker.execute();
     }
 
     protected void checkButtonMouseClicked(MouseEvent arg0) {
@@ -916,6 +962,7 @@ public class MasterFrame extends CustomFrame {
             if(CheckControl.writeMRG) outexts+=":mrg";
             if(CheckControl.writeAVG) outexts+=":avg";
             if(CheckControl.writeFED) outexts+=":fed";
+            if(CheckControl.writeBE2) outexts+=":be2";
 
             if(outexts.length()>0){
             	outexts=outexts.substring(1);